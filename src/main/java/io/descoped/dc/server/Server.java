@@ -6,10 +6,13 @@ import io.descoped.dc.application.ssl.BusinessSSLResourceSupplier;
 import io.descoped.dc.application.ssl.SecretManagerSSLResource;
 import io.descoped.dc.core.metrics.MetricsAgent;
 import io.descoped.dc.core.util.JavaUtilLoggerBridge;
+import io.descoped.dc.server.ssl.SSLResourceCache;
+import io.descoped.dc.server.ssl.SharedSecretManagerSSLResource;
 import net.bytebuddy.agent.ByteBuddyAgent;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.time.Duration;
 import java.util.function.Supplier;
 
 public class Server {
@@ -61,13 +64,19 @@ public class Server {
          * Delegated certificate loader from Google Secret Manager is placed here, because we don't won't a
          * dependency in the data collector to any host aware libraries such as the Google Secret Manager.
          * The supplier is wrapped by the BusinessSSLResourceSupplier and passes an implementing instance of
-         * BusinessSSLBundle to Worker.useBusinessSSLResourceSupplier() in the Core module.
+         * BusinessSSLBundle to Worker.useBusinessSSLResourceSupplier() in the Core module. The fetched secrets are
+         * cached for data.collector.sslBundle.cacheTtlSeconds, so tasks don't fetch them on every submission.
          *
          * Please note: only Google Secret Manager is supported!
          */
 
         String businessSslResourceProvider = configuration.evaluateToString("data.collector.sslBundle.provider");
-        Supplier<SecretManagerSSLResource> sslResourceSupplier = () -> new SecretManagerSSLResource(configuration);
+        int sslResourceCacheTtlSeconds = configuration.evaluateToString("data.collector.sslBundle.cacheTtlSeconds") != null ?
+                configuration.evaluateToInt("data.collector.sslBundle.cacheTtlSeconds") : 300;
+        SSLResourceCache<SharedSecretManagerSSLResource> sslResourceCache = businessSslResourceProvider != null && sslResourceCacheTtlSeconds > 0 ?
+                SharedSecretManagerSSLResource.cache(configuration, Duration.ofSeconds(sslResourceCacheTtlSeconds)) : null;
+        Supplier<SecretManagerSSLResource> sslResourceSupplier = sslResourceCache != null ?
+                sslResourceCache::get : () -> new SecretManagerSSLResource(configuration);
 
         UndertowApplication application = UndertowApplication.initializeUndertowApplication(configuration,
                 businessSslResourceProvider != null ? new BusinessSSLResourceSupplier(sslResourceSupplier) : null);
@@ -76,6 +85,9 @@ public class Server {
             Runtime.getRuntime().addShutdownHook(new Thread(() -> {
                 LOG.warn("ShutdownHook triggered..");
                 application.stop();
+                if (sslResourceCache != null) {
+                    sslResourceCache.close();
+                }
             }));
 
             application.start();
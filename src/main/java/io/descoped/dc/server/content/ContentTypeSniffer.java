@@ -0,0 +1,183 @@
+package io.descoped.dc.server.content;
+
+import org.apache.tika.detect.Detector;
+import org.apache.tika.metadata.Metadata;
+import org.apache.tika.mime.MediaType;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Chooses the file extension of an exported document from its content type.
+ * <p>
+ * Tika detection is expensive, so the first bytes of a document are classified first. A JSON document is text/plain
+ * to Tika, and is recognized without it. An XML or text document is detected by Tika once per topic, key and class,
+ * e.g. the first XML page of a topic, and the detected type is reused for the following documents of the key, as the
+ * documents of a key are alike. A binary or otherwise unknown document is always detected by Tika. Each thread has
+ * its own detector.
+ */
+class ContentTypeSniffer {
+
+    // the prefix that is checked for control characters when a document is classified as text
+    static final int TEXT_PREFIX_LENGTH = 512;
+
+    private final ThreadLocal<Detector> detectors;
+    private final int maxCacheSize;
+    private final Map<CacheKey, MediaType> cache = new ConcurrentHashMap<>();
+    private final LongAdder classified = new LongAdder();
+    private final LongAdder cacheHits = new LongAdder();
+    private final LongAdder detected = new LongAdder();
+
+    ContentTypeSniffer(Supplier<Detector> detectorFactory, int maxCacheSize) {
+        this.detectors = ThreadLocal.withInitial(detectorFactory);
+        this.maxCacheSize = maxCacheSize;
+    }
+
+    /**
+     * Returns the extension of the document, including the dot, or an empty string for text that is not JSON or XML.
+     */
+    String extension(String topic, String key, byte[] data) throws IOException {
+        String subtype = mediaType(topic, key, data).getSubtype();
+        if ("plain".equals(subtype)) {
+            byte first = data.length == 0 ? 0 : data[0];
+            if (first == '{' || first == '[' && !key.endsWith(".json")) {
+                return ".json";
+            } else if (first == '<') {
+                return ".xml";
+            } else {
+                return "";
+            }
+        }
+        return "." + subtype;
+    }
+
+    MediaType mediaType(String topic, String key, byte[] data) throws IOException {
+        Kind kind = classify(data);
+        if (kind == Kind.JSON) {
+            classified.increment();
+            return MediaType.TEXT_PLAIN;
+        }
+        if (kind == Kind.UNKNOWN) {
+            return detect(data);
+        }
+        CacheKey cacheKey = new CacheKey(topic, key, kind);
+        MediaType mediaType = cache.get(cacheKey);
+        if (mediaType != null) {
+            cacheHits.increment();
+            return mediaType;
+        }
+        mediaType = detect(data);
+        if (cache.size() < maxCacheSize) {
+            cache.putIfAbsent(cacheKey, mediaType);
+        }
+        return mediaType;
+    }
+
+    private MediaType detect(byte[] data) throws IOException {
+        detected.increment();
+        // the metadata is filled in by the detector, so it is not reused
+        return detectors.get().detect(new ByteArrayInputStream(data), new Metadata());
+    }
+
+    static Kind classify(byte[] data) {
+        if (data.length == 0) {
+            return Kind.UNKNOWN;
+        }
+        switch (data[0]) {
+            case '{':
+                return startsWith(data, "{\\rtf") ? Kind.UNKNOWN : Kind.JSON;
+            case '[':
+                // not e.g. an INI file section
+                return isJsonValueStart(data, 1) ? Kind.JSON : Kind.UNKNOWN;
+            case '<':
+                return Kind.XML;
+            default:
+                return isText(data) ? Kind.TEXT : Kind.UNKNOWN;
+        }
+    }
+
+    private static boolean isJsonValueStart(byte[] data, int offset) {
+        for (int n = offset; n < data.length; n++) {
+            byte b = data[n];
+            if (b == ' ' || b == '\t' || b == '\n' || b == '\r') {
+                continue;
+            }
+            return b == '{' || b == '[' || b == ']' || b == '"' || b == '-' || (b >= '0' && b <= '9') || b == 't' || b == 'f' || b == 'n';
+        }
+        return false;
+    }
+
+    private static boolean isText(byte[] data) {
+        int length = Math.min(data.length, TEXT_PREFIX_LENGTH);
+        for (int n = 0; n < length; n++) {
+            byte b = data[n];
+            if (b >= 0 && b < 0x20 && b != '\t' && b != '\n' && b != '\r' && b != '\f') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean startsWith(byte[] data, String prefix) {
+        if (data.length < prefix.length()) {
+            return false;
+        }
+        for (int n = 0; n < prefix.length(); n++) {
+            if (data[n] != prefix.charAt(n)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    long classified() {
+        return classified.sum();
+    }
+
+    long cacheHits() {
+        return cacheHits.sum();
+    }
+
+    long detected() {
+        return detected.sum();
+    }
+
+    enum Kind {
+        JSON,
+        XML,
+        TEXT,
+        UNKNOWN
+    }
+
+    private static class CacheKey {
+        final String topic;
+        final String key;
+        final Kind kind;
+
+        CacheKey(String topic, String key, Kind kind) {
+            this.topic = topic;
+            this.key = key;
+            this.kind = kind;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            CacheKey cacheKey = (CacheKey) o;
+            return topic.equals(cacheKey.topic) &&
+                    key.equals(cacheKey.key) &&
+                    kind == cacheKey.kind;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(topic, key, kind);
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package io.descoped.dc.server.content;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * When the rawdata dump outputs fsync what they have written, and how long the fsyncs take.
+ * <p>
+ * A sync is due when everyPositions positions have been written since the last sync, or intervalMillis has passed
+ * since the last sync when a position is written. Either is disabled by zero, and with both disabled the outputs
+ * leave syncing to the operating system. The sync latency is logged once per report interval while syncing, and when
+ * the output is closed.
+ */
+class FileSync {
+
+    private static final Logger LOG = LoggerFactory.getLogger(FileSync.class);
+
+    static final long REPORT_INTERVAL_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+    private final int everyPositions;
+    private final long intervalNanos;
+    private final AtomicLong positions = new AtomicLong();
+    private final AtomicLong lastSyncNanos = new AtomicLong(System.nanoTime());
+    private final AtomicLong lastReportNanos = new AtomicLong(System.nanoTime());
+    private final LongAdder syncs = new LongAdder();
+    private final LongAdder syncNanos = new LongAdder();
+    private final AtomicLong maxSyncNanos = new AtomicLong();
+
+    FileSync(int everyPositions, long intervalMillis) {
+        if (everyPositions < 0 || intervalMillis < 0) {
+            throw new IllegalArgumentException("Illegal sync policy: every " + everyPositions + " positions, every " + intervalMillis + " ms");
+        }
+        this.everyPositions = everyPositions;
+        this.intervalNanos = TimeUnit.MILLISECONDS.toNanos(intervalMillis);
+    }
+
+    static FileSync never() {
+        return new FileSync(0, 0);
+    }
+
+    boolean isEnabled() {
+        return everyPositions > 0 || intervalNanos > 0;
+    }
+
+    /**
+     * Counts a written position, and returns true if a sync is due.
+     */
+    boolean positionWritten() {
+        long written = positions.incrementAndGet();
+        return everyPositions > 0 && written >= everyPositions ||
+                intervalNanos > 0 && System.nanoTime() - lastSyncNanos.get() >= intervalNanos;
+    }
+
+    /**
+     * Records a sync that started at startNanos, and covered the positions written before it started.
+     */
+    void synced(long startNanos, long positionsSynced) {
+        long now = System.nanoTime();
+        long elapsed = now - startNanos;
+        positions.addAndGet(-positionsSynced);
+        lastSyncNanos.set(now);
+        syncs.increment();
+        syncNanos.add(elapsed);
+        maxSyncNanos.accumulateAndGet(elapsed, Math::max);
+        long lastReport = lastReportNanos.get();
+        if (now - lastReport >= REPORT_INTERVAL_NANOS && lastReportNanos.compareAndSet(lastReport, now)) {
+            LOG.info("Rawdata dump sync: {}", this);
+        }
+    }
+
+    long pendingPositions() {
+        return positions.get();
+    }
+
+    long syncs() {
+        return syncs.sum();
+    }
+
+    long maxSyncMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(maxSyncNanos.get());
+    }
+
+    double averageSyncMillis() {
+        long count = syncs.sum();
+        return count == 0 ? 0 : syncNanos.sum() / (count * 1e6);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("[syncs: %d, average: %.2f ms, max: %d ms]", syncs(), averageSyncMillis(), maxSyncMillis());
+    }
+}
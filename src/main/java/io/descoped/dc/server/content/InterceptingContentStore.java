@@ -0,0 +1,226 @@
+package io.descoped.dc.server.content;
+
+import io.descoped.dc.api.content.ContentStore;
+import io.descoped.dc.api.content.HttpRequestInfo;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Wraps the content store of a worker and notifies listeners about buffered documents and published positions.
+ * <p>
+ * The wrapper is a dynamic proxy, so every method of the content store is forwarded unchanged. The document
+ * methods (addPaginationDocument, bufferPaginationEntryDocument and bufferDocument) and publish are observed, and
+ * their arguments are picked by type. The upstream request duration is read from the {@link HttpRequestInfo} of a
+ * document. Listeners are told about each upstream response once, with the first document that
+ * carries its {@link HttpRequestInfo}. The last position of a topic may be replaced by a listener, e.g. by a checkpoint
+ * when the content store has none.
+ */
+public class InterceptingContentStore implements InvocationHandler {
+
+    private final ContentStore delegate;
+    private final List<Listener> listeners;
+    private final AtomicReference<HttpRequestInfo> lastResponse = new AtomicReference<>();
+
+    private InterceptingContentStore(ContentStore delegate, List<Listener> listeners) {
+        this.delegate = delegate;
+        this.listeners = listeners;
+    }
+
+    public static ContentStore wrap(ContentStore delegate, List<Listener> listeners) {
+        if (delegate == null || listeners.isEmpty()) {
+            return delegate;
+        }
+        return (ContentStore) Proxy.newProxyInstance(ContentStore.class.getClassLoader(), new Class<?>[]{ContentStore.class},
+                new InterceptingContentStore(delegate, List.copyOf(listeners)));
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        if (method.getDeclaringClass() == Object.class) {
+            switch (method.getName()) {
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                default:
+                    return "InterceptingContentStore{" + delegate + "}";
+            }
+        }
+        switch (method.getName()) {
+            case "addPaginationDocument":
+            case "bufferPaginationEntryDocument":
+            case "bufferDocument":
+            case "publish":
+                return invokeObserved(method, args);
+            case "lastPosition":
+                return invokeLastPosition(method, args);
+            case "close":
+                try {
+                    return invokeDelegate(method, args);
+                } finally {
+                    for (Listener listener : listeners) {
+                        listener.onClose();
+                    }
+                }
+            default:
+                return invokeDelegate(method, args);
+        }
+    }
+
+    private Object invokeObserved(Method method, Object[] args) throws Throwable {
+        String topic = stringArgument(args, 0);
+        for (Listener listener : listeners) {
+            listener.beforeCall(method.getName(), topic);
+        }
+        try {
+            return "publish".equals(method.getName()) ? invokePublish(method, args) : invokeBuffer(method, args);
+        } finally {
+            for (Listener listener : listeners) {
+                listener.afterCall(method.getName(), topic);
+            }
+        }
+    }
+
+    private Object invokeBuffer(Method method, Object[] args) throws Throwable {
+        String topic = stringArgument(args, 0);
+        String position = stringArgument(args, 1);
+        byte[] content = argument(args, byte[].class);
+        HttpRequestInfo httpRequestInfo = argument(args, HttpRequestInfo.class);
+        int bytes = content == null ? 0 : content.length;
+        if (httpRequestInfo != null && lastResponse.getAndSet(httpRequestInfo) != httpRequestInfo) {
+            for (Listener listener : listeners) {
+                listener.onResponse(httpRequestInfo.getUrl(), httpRequestInfo.getStatusCode(), httpRequestInfo.getRequestDurationNanoSeconds());
+            }
+        }
+        for (Listener listener : listeners) {
+            listener.beforeBuffer(topic, position, bytes);
+        }
+        long startNanos = System.nanoTime();
+        Object result = invokeDelegate(method, args);
+        long durationNanos = System.nanoTime() - startNanos;
+        for (Listener listener : listeners) {
+            listener.afterBuffer(topic, position, bytes, durationNanos);
+        }
+        return result;
+    }
+
+    private Object invokePublish(Method method, Object[] args) throws Throwable {
+        String topic = stringArgument(args, 0);
+        String[] positions = argument(args, String[].class);
+        if (positions == null) {
+            positions = new String[0];
+        }
+        for (Listener listener : listeners) {
+            listener.beforePublish(topic, positions);
+        }
+        long startNanos = System.nanoTime();
+        Object result = invokeDelegate(method, args);
+        long durationNanos = System.nanoTime() - startNanos;
+        for (Listener listener : listeners) {
+            listener.afterPublish(topic, positions, durationNanos);
+        }
+        return result;
+    }
+
+    private Object invokeLastPosition(Method method, Object[] args) throws Throwable {
+        String topic = stringArgument(args, 0);
+        Object lastPosition = invokeDelegate(method, args);
+        if (!(lastPosition == null || lastPosition instanceof String)) {
+            return lastPosition;
+        }
+        String position = (String) lastPosition;
+        for (Listener listener : listeners) {
+            position = listener.lastPosition(topic, position);
+        }
+        return position;
+    }
+
+    private Object invokeDelegate(Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(delegate, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    static String stringArgument(Object[] args, int index) {
+        int n = 0;
+        for (Object arg : args == null ? new Object[0] : args) {
+            if (arg instanceof String) {
+                if (n++ == index) {
+                    return (String) arg;
+                }
+            }
+        }
+        return null;
+    }
+
+    static <T> T argument(Object[] args, Class<T> type) {
+        for (Object arg : args == null ? new Object[0] : args) {
+            if (type.isInstance(arg)) {
+                return type.cast(arg);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Observes the content store of a worker. Methods are called on the worker threads. The before methods may
+     * block or throw to hold back or abort the operation.
+     */
+    public interface Listener {
+
+        /**
+         * Called once per upstream response, before its first document is buffered. Blocking holds back the next
+         * upstream request of the worker.
+         *
+         * @param url           the request URL
+         * @param statusCode    the response status code
+         * @param durationNanos the duration of the request
+         */
+        default void onResponse(String url, int statusCode, long durationNanos) {
+        }
+
+        /**
+         * Called first when a document method or publish is called, before the other methods of all listeners.
+         *
+         * @param method the name of the content store method
+         */
+        default void beforeCall(String method, String topic) {
+        }
+
+        /**
+         * Called last when a document method or publish returns or throws.
+         */
+        default void afterCall(String method, String topic) {
+        }
+
+        default void beforeBuffer(String topic, String position, int bytes) {
+        }
+
+        default void afterBuffer(String topic, String position, int bytes, long durationNanos) {
+        }
+
+        default void beforePublish(String topic, String[] positions) {
+        }
+
+        default void afterPublish(String topic, String[] positions, long durationNanos) {
+        }
+
+        /**
+         * Returns the last position of the topic, given the last position reported by the content store or by a
+         * previous listener. The position is null if none is known.
+         */
+        default String lastPosition(String topic, String lastPosition) {
+            return lastPosition;
+        }
+
+        default void onClose() {
+        }
+    }
+}
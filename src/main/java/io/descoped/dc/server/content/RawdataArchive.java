@@ -0,0 +1,336 @@
+package io.descoped.dc.server.content;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Appends the positions of a topic to rolling tar archives, instead of writing a directory per position.
+ * <p>
+ * The files of a position are stored as the entries POSITION/FILE_NAME, one after the other, and an archive is
+ * rolled over to the next one when it has grown past maxArchiveBytes. The archives are named TOPIC-NNNNNN.tar, and
+ * numbering continues after the existing archives of the topic. Each archive has a sidecar index TOPIC-NNNNNN.tar.idx
+ * with one line per position: the position, the offset of its first entry and the length of its entries, separated
+ * by tabs. The entries of a position are a tar stream of their own, so a single position can be read by random
+ * access with {@link #read(Path, String)}. A position that is exported again is appended again, and the last line of
+ * the position in the index is the current one.
+ * <p>
+ * The archives are POSIX tar (ustar) files, with a pax header for entry names that don't fit in the ustar header. An
+ * archive is only terminated by the end-of-archive blocks when it is closed or rolled over, but the index refers to
+ * complete entries only. The index lines are written when the archive is synced by the {@link FileSync} policy, or
+ * without syncing, when the output is flushed or the pending lines have grown past 64 KB.
+ * <p>
+ * With compression the archives are named TOPIC-NNNNNN.tar.gz, and the entries of each position are compressed to a
+ * gzip member of their own by the writer thread, before the archive is locked. The index then refers to the members,
+ * so a position is still read by random access, and the archive as a whole is a tar.gz file.
+ */
+class RawdataArchive implements RawdataOutput {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RawdataArchive.class);
+
+    static final int BLOCK_SIZE = 512;
+    static final String ARCHIVE_SUFFIX = ".tar";
+    static final String INDEX_SUFFIX = ".idx";
+    static final int MAX_PENDING_INDEX_LENGTH = 64 * 1024;
+    private static final byte[] ZERO_BLOCK = new byte[BLOCK_SIZE];
+
+    private final Path directory;
+    private final String topic;
+    private final long maxArchiveBytes;
+    private final FileSync sync;
+    private final RawdataCompression compression;
+    // the index lines of the positions that are written but not yet synced
+    private final StringBuilder pendingIndex = new StringBuilder();
+    private int sequence;
+    private Path archivePath;
+    private FileChannel archive;
+    private FileChannel index;
+    private long offset;
+
+    RawdataArchive(Path directory, String topic, long maxArchiveBytes, FileSync sync, RawdataCompression compression) throws IOException {
+        if (maxArchiveBytes < 1) {
+            throw new IllegalArgumentException("Archive size must be greater than zero: " + maxArchiveBytes);
+        }
+        this.directory = directory;
+        this.topic = topic;
+        this.maxArchiveBytes = maxArchiveBytes;
+        this.sync = sync;
+        this.compression = compression;
+        Files.createDirectories(directory);
+        this.sequence = lastSequence(directory, topic);
+    }
+
+    static int lastSequence(Path directory, String topic) throws IOException {
+        // numbering continues over compressed and uncompressed archives
+        Pattern pattern = Pattern.compile(Pattern.quote(topic) + "-(\\d+)" + Pattern.quote(ARCHIVE_SUFFIX) + "(" + Pattern.quote(RawdataCompression.GZIP_SUFFIX) + ")?");
+        int last = 0;
+        try (Stream<Path> paths = Files.list(directory)) {
+            for (Path path : (Iterable<Path>) paths::iterator) {
+                Matcher matcher = pattern.matcher(path.getFileName().toString());
+                if (matcher.matches()) {
+                    last = Math.max(last, Integer.parseInt(matcher.group(1)));
+                }
+            }
+        }
+        return last;
+    }
+
+    static Path indexPath(Path archivePath) {
+        return archivePath.resolveSibling(archivePath.getFileName() + INDEX_SUFFIX);
+    }
+
+    /**
+     * Writes the entries of the position with one gathering write. The entries are built and compressed by the calling
+     * thread, and only appending them to the archive is serialized.
+     */
+    @Override
+    public void write(String position, Map<String, byte[]> files) throws IOException {
+        if (position.indexOf('\t') >= 0 || position.indexOf('\n') >= 0) {
+            throw new IOException("Position can't be indexed: " + position);
+        }
+        List<ByteBuffer> buffers = new ArrayList<>(files.size() * 3);
+        for (Map.Entry<String, byte[]> file : files.entrySet()) {
+            addEntry(buffers, position + "/" + file.getKey(), file.getValue());
+        }
+        ByteBuffer[] entries = buffers.toArray(new ByteBuffer[0]);
+        if (compression.isEnabled()) {
+            entries = new ByteBuffer[]{ByteBuffer.wrap(compression.compress(entries))};
+        }
+        append(position, entries);
+    }
+
+    private synchronized void append(String position, ByteBuffer[] entries) throws IOException {
+        if (archive == null || offset >= maxArchiveBytes) {
+            roll();
+        }
+        long length = RawdataOutput.writeFully(archive, entries);
+        pendingIndex.append(position).append('\t').append(offset).append('\t').append(length).append('\n');
+        offset += length;
+        if (sync.positionWritten()) {
+            syncArchive();
+        } else if (pendingIndex.length() >= MAX_PENDING_INDEX_LENGTH && !sync.isEnabled()) {
+            writeIndex();
+        }
+    }
+
+    private static void addEntry(List<ByteBuffer> buffers, String name, byte[] data) {
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        String ustarName = name;
+        if (nameBytes.length > 100) {
+            // the full name is in a pax header, and the ustar name is truncated
+            byte[] record = paxRecord("path", name);
+            buffers.add(ByteBuffer.wrap(header("PaxHeaders/" + nameBytes.length, record.length, (byte) 'x')));
+            addData(buffers, record);
+            ustarName = new String(Arrays.copyOf(nameBytes, 100), StandardCharsets.UTF_8);
+        }
+        buffers.add(ByteBuffer.wrap(header(ustarName, data.length, (byte) '0')));
+        addData(buffers, data);
+    }
+
+    private static void addData(List<ByteBuffer> buffers, byte[] data) {
+        buffers.add(ByteBuffer.wrap(data));
+        int padding = (BLOCK_SIZE - data.length % BLOCK_SIZE) % BLOCK_SIZE;
+        if (padding > 0) {
+            buffers.add(ByteBuffer.wrap(ZERO_BLOCK, 0, padding));
+        }
+    }
+
+    static byte[] paxRecord(String key, String value) {
+        // the length of the record includes the digits of the length itself
+        int length = key.length() + value.getBytes(StandardCharsets.UTF_8).length + 3;
+        int total = length + Integer.toString(length).length();
+        if (Integer.toString(total).length() > Integer.toString(length).length()) {
+            total++;
+        }
+        return (total + " " + key + "=" + value + "\n").getBytes(StandardCharsets.UTF_8);
+    }
+
+    static byte[] header(String name, long size, byte type) {
+        byte[] header = new byte[BLOCK_SIZE];
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        System.arraycopy(nameBytes, 0, header, 0, Math.min(nameBytes.length, 100));
+        octal(header, 100, 8, 0644);
+        octal(header, 108, 8, 0);
+        octal(header, 116, 8, 0);
+        octal(header, 124, 12, size);
+        octal(header, 136, 12, System.currentTimeMillis() / 1000);
+        header[156] = type;
+        System.arraycopy("ustar\u000000".getBytes(StandardCharsets.US_ASCII), 0, header, 257, 8);
+        Arrays.fill(header, 148, 156, (byte) ' ');
+        long checksum = 0;
+        for (byte b : header) {
+            checksum += b & 0xff;
+        }
+        octal(header, 148, 7, checksum);
+        return header;
+    }
+
+    // zero-padded octal digits followed by a NUL
+    private static void octal(byte[] header, int offset, int length, long value) {
+        String digits = Long.toOctalString(value);
+        if (digits.length() > length - 1) {
+            throw new IllegalArgumentException("Value does not fit in tar header: " + value);
+        }
+        int padding = length - 1 - digits.length();
+        Arrays.fill(header, offset, offset + padding, (byte) '0');
+        System.arraycopy(digits.getBytes(StandardCharsets.US_ASCII), 0, header, offset + padding, digits.length());
+        header[offset + length - 1] = 0;
+    }
+
+    private void roll() throws IOException {
+        closeArchive();
+        sequence++;
+        archivePath = directory.resolve(String.format("%s-%06d%s%s", topic, sequence, ARCHIVE_SUFFIX, compression.suffix()));
+        archive = FileChannel.open(archivePath, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        index = FileChannel.open(indexPath(archivePath), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        offset = 0;
+        LOG.info("Writing rawdata archive: {}", archivePath);
+    }
+
+    private void writeIndex() throws IOException {
+        RawdataOutput.writeFully(index, ByteBuffer.wrap(pendingIndex.toString().getBytes(StandardCharsets.UTF_8)));
+        pendingIndex.setLength(0);
+    }
+
+    // the archive is synced before the index is written, so the index never refers to entries that are not durable
+    private void syncArchive() throws IOException {
+        long startNanos = System.nanoTime();
+        long positions = sync.pendingPositions();
+        archive.force(false);
+        writeIndex();
+        index.force(false);
+        sync.synced(startNanos, positions);
+    }
+
+    private void closeArchive() throws IOException {
+        if (archive == null) {
+            return;
+        }
+        // end-of-archive
+        ByteBuffer[] end = {ByteBuffer.wrap(ZERO_BLOCK), ByteBuffer.wrap(ZERO_BLOCK)};
+        RawdataOutput.writeFully(archive, compression.isEnabled() ? new ByteBuffer[]{ByteBuffer.wrap(compression.compress(end))} : end);
+        if (sync.isEnabled()) {
+            syncArchive();
+        } else {
+            writeIndex();
+        }
+        archive.close();
+        index.close();
+        archive = null;
+        index = null;
+    }
+
+    /**
+     * Writes the pending index lines, after syncing the archive if syncing is enabled.
+     */
+    @Override
+    public synchronized void flush() throws IOException {
+        if (archive == null) {
+            return;
+        }
+        if (sync.isEnabled()) {
+            syncArchive();
+        } else {
+            writeIndex();
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        closeArchive();
+        if (sync.isEnabled()) {
+            LOG.info("Rawdata dump sync: {}", sync);
+        }
+        if (compression.isEnabled()) {
+            LOG.info("Rawdata dump compression: {}", compression);
+        }
+    }
+
+    /**
+     * Reads the files of a position from an archive, by file name, or returns null if the position is not in the
+     * archive.
+     */
+    static Map<String, byte[]> read(Path archivePath, String position) throws IOException {
+        long start = -1;
+        long length = 0;
+        try (BufferedReader reader = Files.newBufferedReader(indexPath(archivePath), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split("\t");
+                if (fields.length == 3 && fields[0].equals(position)) {
+                    start = Long.parseLong(fields[1]);
+                    length = Long.parseLong(fields[2]);
+                }
+            }
+        }
+        if (start < 0) {
+            return null;
+        }
+        ByteBuffer entries = ByteBuffer.allocate(Math.toIntExact(length));
+        try (FileChannel channel = FileChannel.open(archivePath, StandardOpenOption.READ)) {
+            while (entries.hasRemaining()) {
+                if (channel.read(entries, start + entries.position()) < 0) {
+                    throw new IOException("Archive is truncated: " + archivePath);
+                }
+            }
+        }
+        if (archivePath.getFileName().toString().endsWith(RawdataCompression.GZIP_SUFFIX)) {
+            return readEntries(ByteBuffer.wrap(RawdataCompression.decompress(entries.array())), position);
+        }
+        entries.flip();
+        return readEntries(entries, position);
+    }
+
+    static Map<String, byte[]> readEntries(ByteBuffer entries, String position) throws IOException {
+        Map<String, byte[]> files = new LinkedHashMap<>();
+        String paxPath = null;
+        byte[] header = new byte[BLOCK_SIZE];
+        while (entries.remaining() >= BLOCK_SIZE) {
+            entries.get(header);
+            if (Arrays.equals(header, ZERO_BLOCK)) {
+                break;
+            }
+            long size = Long.parseLong(field(header, 124, 12).trim(), 8);
+            byte[] data = new byte[Math.toIntExact(size)];
+            entries.get(data);
+            entries.position(entries.position() + (int) ((BLOCK_SIZE - size % BLOCK_SIZE) % BLOCK_SIZE));
+            if (header[156] == 'x') {
+                String record = new String(data, StandardCharsets.UTF_8);
+                int start = record.indexOf(" path=");
+                if (start < 0) {
+                    throw new IOException("Unsupported pax header: " + record);
+                }
+                paxPath = record.substring(start + " path=".length(), record.indexOf('\n', start));
+                continue;
+            }
+            String name = paxPath != null ? paxPath : field(header, 0, 100);
+            paxPath = null;
+            files.put(name.substring(position.length() + 1), data);
+        }
+        return files;
+    }
+
+    private static String field(byte[] header, int offset, int length) {
+        int end = offset;
+        while (end < offset + length && header[end] != 0) {
+            end++;
+        }
+        return new String(header, offset, end - offset, StandardCharsets.UTF_8);
+    }
+}
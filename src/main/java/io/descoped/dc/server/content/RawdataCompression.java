@@ -0,0 +1,129 @@
+package io.descoped.dc.server.content;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * How the rawdata dump outputs compress what they write: not at all, or with gzip at a deflate level from 0 (stored)
+ * to 9 (best). Compression is called by the writer threads, so buffers are compressed in parallel and never on the
+ * consumer thread.
+ * <p>
+ * Each call to {@link #compress(ByteBuffer...)} makes a complete gzip member. Concatenated members are a valid gzip
+ * file, so the members can be appended to one file and still be read as a whole by gzip tools, or one by one.
+ */
+class RawdataCompression {
+
+    static final String GZIP_SUFFIX = ".gz";
+
+    private final boolean enabled;
+    private final int level;
+    private final LongAdder uncompressedBytes = new LongAdder();
+    private final LongAdder compressedBytes = new LongAdder();
+
+    private RawdataCompression(boolean enabled, int level) {
+        this.enabled = enabled;
+        this.level = level;
+    }
+
+    static RawdataCompression none() {
+        return new RawdataCompression(false, 0);
+    }
+
+    static RawdataCompression gzip(int level) {
+        if (level < 0 || level > 9) {
+            throw new IllegalArgumentException("Illegal compression level: " + level);
+        }
+        return new RawdataCompression(true, level);
+    }
+
+    static RawdataCompression create(String compression, int level) {
+        if (compression == null || "none".equalsIgnoreCase(compression)) {
+            return none();
+        }
+        if ("gzip".equalsIgnoreCase(compression)) {
+            return gzip(level);
+        }
+        throw new IllegalArgumentException("Unknown rawdata dump compression: " + compression);
+    }
+
+    boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Returns the suffix of compressed file names, or an empty string without compression.
+     */
+    String suffix() {
+        return enabled ? GZIP_SUFFIX : "";
+    }
+
+    /**
+     * Compresses the remaining bytes of the buffers to one gzip member.
+     */
+    byte[] compress(ByteBuffer... buffers) throws IOException {
+        long length = 0;
+        for (ByteBuffer buffer : buffers) {
+            length += buffer.remaining();
+        }
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream((int) Math.min(Integer.MAX_VALUE - 8, length / 4 + 64));
+        try (OutputStream out = new LevelGZIPOutputStream(compressed, level)) {
+            for (ByteBuffer buffer : buffers) {
+                if (buffer.hasArray()) {
+                    out.write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+                    buffer.position(buffer.limit());
+                } else {
+                    byte[] bytes = new byte[buffer.remaining()];
+                    buffer.get(bytes);
+                    out.write(bytes);
+                }
+            }
+        }
+        uncompressedBytes.add(length);
+        compressedBytes.add(compressed.size());
+        return compressed.toByteArray();
+    }
+
+    /**
+     * Decompresses gzip data of one or more members.
+     */
+    static byte[] decompress(byte[] data) throws IOException {
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(data), 8192)) {
+            return in.readAllBytes();
+        }
+    }
+
+    long uncompressedBytes() {
+        return uncompressedBytes.sum();
+    }
+
+    long compressedBytes() {
+        return compressedBytes.sum();
+    }
+
+    double ratio() {
+        long compressed = compressedBytes.sum();
+        return compressed == 0 ? 0 : (double) uncompressedBytes.sum() / compressed;
+    }
+
+    @Override
+    public String toString() {
+        if (!enabled) {
+            return "[compression: none]";
+        }
+        return String.format("[compression: gzip, level: %d, ratio: %.2f]", level, ratio());
+    }
+
+    private static class LevelGZIPOutputStream extends GZIPOutputStream {
+        LevelGZIPOutputStream(OutputStream out, int level) throws IOException {
+            super(out, 8192);
+            def.setLevel(level);
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package io.descoped.dc.server.content;
+
+import io.descoped.dc.api.content.ContentStreamBuffer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Writes the buffers of a topic to an output, with one file per key named by the key and the extension of its content
+ * type.
+ * <p>
+ * The consumer thread hands each buffer to one of the writer threads, partitioned by position, so a position that
+ * is published again is written by the same writer after the earlier write. At most maxPendingBuffers are handed
+ * out and not yet written, after which the consumer is blocked. Writes complete out of order, and are acknowledged in
+ * the order the buffers were received, so the exported position is always the last position of which all earlier
+ * buffers are written. With zero writer threads the buffers are written on the consumer thread.
+ * <p>
+ * A failed write fails the exporter. The exported position stays at the buffer before the failed one, and the next
+ * call to export or close throws the failure.
+ */
+class RawdataExporter implements AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RawdataExporter.class);
+
+    private final String topic;
+    private final RawdataOutput output;
+    private final ContentTypeSniffer sniffer;
+    private final ExecutorService[] writers;
+    private final Semaphore pending;
+    private final int maxPendingBuffers;
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+    private final LongAdder files = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+    // written out of order, by sequence number, until the buffers before them are written
+    private final Map<Long, String> written = new TreeMap<>();
+    private long nextSequence;
+    private long acknowledgedSequence = -1;
+    private volatile String exportedPosition;
+
+    RawdataExporter(String topic, RawdataOutput output, ContentTypeSniffer sniffer, int writerThreads, int maxPendingBuffers) {
+        if (writerThreads < 0 || maxPendingBuffers < 1) {
+            throw new IllegalArgumentException("Illegal exporter pool: " + writerThreads + " writers, " + maxPendingBuffers + " pending buffers");
+        }
+        this.topic = topic;
+        this.output = output;
+        this.sniffer = sniffer;
+        this.writers = new ExecutorService[writerThreads];
+        for (int n = 0; n < writerThreads; n++) {
+            String name = "rawdata-writer-" + n;
+            writers[n] = Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, name);
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        this.maxPendingBuffers = maxPendingBuffers;
+        this.pending = new Semaphore(maxPendingBuffers);
+    }
+
+    /**
+     * Hands the buffer to its writer. Must be called by one consumer thread at a time.
+     */
+    void export(ContentStreamBuffer buffer) throws IOException, InterruptedException {
+        throwIfFailed();
+        long sequence = nextSequence++;
+        if (writers.length == 0) {
+            write(buffer);
+            acknowledge(sequence, buffer.position());
+            return;
+        }
+        pending.acquire();
+        writers[Math.floorMod(buffer.position().hashCode(), writers.length)].execute(() -> {
+            try {
+                if (failure.get() == null) {
+                    write(buffer);
+                    acknowledge(sequence, buffer.position());
+                }
+            } catch (IOException | RuntimeException e) {
+                failure.compareAndSet(null, e);
+                LOG.error("Unable to export position: {}", buffer.position(), e);
+            } finally {
+                pending.release();
+            }
+        });
+    }
+
+    /**
+     * Waits until the buffers that were handed out are written.
+     */
+    void flush() throws IOException, InterruptedException {
+        pending.acquire(maxPendingBuffers);
+        pending.release(maxPendingBuffers);
+        throwIfFailed();
+        output.flush();
+    }
+
+    void write(ContentStreamBuffer buffer) throws IOException {
+        Map<String, byte[]> contentFiles = new LinkedHashMap<>();
+        long contentBytes = 0;
+        for (String key : buffer.keys()) {
+            byte[] data = buffer.get(key);
+            contentFiles.put(key + sniffer.extension(topic, key, data), data);
+            contentBytes += data.length;
+        }
+        output.write(buffer.position(), contentFiles);
+        files.add(contentFiles.size());
+        bytes.add(contentBytes);
+    }
+
+    private void acknowledge(long sequence, String position) {
+        synchronized (written) {
+            written.put(sequence, position);
+            String next;
+            while ((next = written.remove(acknowledgedSequence + 1)) != null) {
+                acknowledgedSequence++;
+                exportedPosition = next;
+            }
+        }
+    }
+
+    private void throwIfFailed() throws IOException {
+        Throwable throwable = failure.get();
+        if (throwable instanceof IOException) {
+            throw new IOException("Rawdata export failed after position: " + exportedPosition, throwable);
+        }
+        if (throwable != null) {
+            throw new IllegalStateException("Rawdata export failed after position: " + exportedPosition, throwable);
+        }
+    }
+
+    /**
+     * Returns the last position of which all earlier buffers are written, or null if none are.
+     */
+    String exportedPosition() {
+        return exportedPosition;
+    }
+
+    long exportedBuffers() {
+        synchronized (written) {
+            return acknowledgedSequence + 1;
+        }
+    }
+
+    long files() {
+        return files.sum();
+    }
+
+    long bytes() {
+        return bytes.sum();
+    }
+
+    /**
+     * Waits for the pending writes, stops the writers and closes the output.
+     */
+    @Override
+    public void close() throws IOException, InterruptedException {
+        try {
+            flush();
+        } finally {
+            for (ExecutorService writer : writers) {
+                writer.shutdown();
+            }
+            for (ExecutorService writer : writers) {
+                if (!writer.awaitTermination(30, TimeUnit.SECONDS)) {
+                    LOG.warn("Rawdata writer did not stop");
+                }
+            }
+            output.close();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "RawdataExporter{" +
+                "exportedPosition='" + exportedPosition + '\'' +
+                ", exportedBuffers=" + exportedBuffers() +
+                ", files=" + files() +
+                ", bytes=" + bytes() +
+                '}';
+    }
+}
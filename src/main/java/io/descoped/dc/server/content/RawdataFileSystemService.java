@@ -8,21 +8,17 @@ import io.descoped.dc.api.content.ContentStreamConsumer;
 import io.descoped.dc.api.util.CommonUtils;
 import io.descoped.dc.application.spi.Service;
 import org.apache.tika.config.TikaConfig;
-import org.apache.tika.detect.Detector;
-import org.apache.tika.metadata.Metadata;
-import org.apache.tika.mime.MediaType;
-import org.apache.tika.parser.AutoDetectParser;
+import org.apache.tika.detect.DefaultDetector;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.ByteArrayInputStream;
-import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.Objects;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 public class RawdataFileSystemService implements Service {
@@ -85,61 +81,64 @@ public class RawdataFileSystemService implements Service {
                 });
     }
 
+    /**
+     * Stops the consumer and waits until the exporter has written the pending buffers and is closed, as the writer
+     * threads are daemon threads and their buffers would be lost on exit.
+     */
     @Override
     public void stop() {
-        if (!closed.compareAndSet(false, true)) {
-            int retryCount = 0;
-            while (!consumerFuture.isDone()) {
-                if (retryCount > 10) {
-                    break;
-                }
-                nap(100);
-                retryCount++;
-            }
+        if (!closed.compareAndSet(false, true) || consumerFuture == null) {
+            return;
+        }
+        long shutdownTimeoutMillis = configuration.evaluateToString("data.collector.rawdata.dump.shutdownTimeoutMillis") != null ?
+                Long.parseLong(configuration.evaluateToString("data.collector.rawdata.dump.shutdownTimeoutMillis")) : 60000;
+        try {
+            consumerFuture.get(shutdownTimeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            LOG.warn("Rawdata exporter did not stop within the shutdown timeout of {} ms. Pending buffers may be lost", shutdownTimeoutMillis);
+        } catch (ExecutionException e) {
+            // logged when the future ended exceptionally
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
     }
 
     CompletableFuture<Void> createFuture(String topic, Path targetPath) {
         TikaConfig config = TikaConfig.getDefaultConfig();
-        Metadata metadata = new Metadata();
-        AutoDetectParser parser = new AutoDetectParser(config);
-        Detector detector = parser.getDetector();
+        int contentTypeCacheSize = configuration.evaluateToString("data.collector.rawdata.dump.contentTypeCache.size") != null ?
+                configuration.evaluateToInt("data.collector.rawdata.dump.contentTypeCache.size") : 1024;
+        ContentTypeSniffer sniffer = new ContentTypeSniffer(() -> new DefaultDetector(config.getMimeRepository(), config.getServiceLoader()),
+                contentTypeCacheSize);
+        int writerThreads = configuration.evaluateToString("data.collector.rawdata.dump.writerThreads") != null ?
+                configuration.evaluateToInt("data.collector.rawdata.dump.writerThreads") : 4;
+        int maxPendingBuffers = configuration.evaluateToString("data.collector.rawdata.dump.maxPendingBuffers") != null ?
+                configuration.evaluateToInt("data.collector.rawdata.dump.maxPendingBuffers") : 256;
+        String format = configuration.evaluateToString("data.collector.rawdata.dump.format");
+        long maxArchiveBytes = configuration.evaluateToString("data.collector.rawdata.dump.archive.maxBytes") != null ?
+                Long.parseLong(configuration.evaluateToString("data.collector.rawdata.dump.archive.maxBytes")) : 1024L * 1024 * 1024;
+        int syncEveryPositions = configuration.evaluateToString("data.collector.rawdata.dump.sync.everyPositions") != null ?
+                configuration.evaluateToInt("data.collector.rawdata.dump.sync.everyPositions") : 0;
+        long syncIntervalMillis = configuration.evaluateToString("data.collector.rawdata.dump.sync.intervalMillis") != null ?
+                Long.parseLong(configuration.evaluateToString("data.collector.rawdata.dump.sync.intervalMillis")) : 0;
+        String compression = configuration.evaluateToString("data.collector.rawdata.dump.compression");
+        int compressionLevel = configuration.evaluateToString("data.collector.rawdata.dump.compression.level") != null ?
+                configuration.evaluateToInt("data.collector.rawdata.dump.compression.level") : 6;
 
         return CompletableFuture.runAsync(() -> {
-            LOG.info("Starting rawdata exporter!");
+            LOG.info("Starting rawdata exporter! [format: {}, compression: {}, writer threads: {}]", format == null ? "files" : format,
+                    compression == null ? "none" : compression, writerThreads);
             ContentStreamBuffer buffer;
-            try (ContentStreamConsumer consumer = contentStream.consumer(topic)) {
+            try (ContentStreamConsumer consumer = contentStream.consumer(topic);
+                 RawdataExporter exporter = new RawdataExporter(topic, RawdataOutput.create(format, targetPath, topic, maxArchiveBytes,
+                         new FileSync(syncEveryPositions, syncIntervalMillis), RawdataCompression.create(compression, compressionLevel)), sniffer,
+                         writerThreads, maxPendingBuffers)) {
                 while (!closed.get()) {
                     if ((buffer = consumer.receive(1, TimeUnit.SECONDS)) != null) {
-                        Path filePath = targetPath.resolve(buffer.position()).normalize();
-                        if (!Files.exists(filePath)) {
-                            Files.createDirectories(filePath);
-                        }
-
-                        for (String key : buffer.keys()) {
-                            byte[] data = buffer.get(key);
-                            String content = new String(data, StandardCharsets.UTF_8);
-
-                            MediaType mediaType = detector.detect(new ByteArrayInputStream(data), metadata);
-                            String subtype = mediaType.getSubtype();
-                            if ("plain".equals(subtype)) {
-                                if (content.startsWith("{") || content.startsWith("[") && !key.endsWith(".json")) {
-                                    subtype = ".json";
-                                } else if (content.startsWith("<")) {
-                                    subtype = ".xml";
-                                } else {
-                                    subtype = "";
-                                }
-                            } else {
-                                subtype = "." + subtype;
-                            }
-
-                            Path contentFilePath = filePath.resolve(filePath.resolve(key) + subtype);
-                            Files.write(contentFilePath, data);
-                        }
+                        exporter.export(buffer);
                     }
                 }
-                LOG.info("Stop rawdata exporter!");
+                exporter.flush();
+                LOG.info("Stop rawdata exporter! {}", exporter);
 
             } catch (Exception e) {
                 throw new RuntimeException(e);
@@ -152,11 +151,4 @@ public class RawdataFileSystemService implements Service {
         return workDir;
     }
 
-    void nap(long millis) {
-        try {
-            Thread.sleep(millis);
-        } catch (InterruptedException e) {
-        }
-    }
-
 }
@@ -0,0 +1,151 @@
+package io.descoped.dc.server.content;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Where the rawdata exporter writes the files of a position. Writes may be made by several writer threads at once.
+ */
+interface RawdataOutput extends Closeable {
+
+    /**
+     * Writes the files of a position, by file name.
+     */
+    void write(String position, Map<String, byte[]> files) throws IOException;
+
+    /**
+     * Writes what has been buffered, so it can be read by others.
+     */
+    default void flush() throws IOException {
+    }
+
+    @Override
+    default void close() throws IOException {
+    }
+
+    static RawdataOutput create(String format, Path workDir, String topic, long maxArchiveBytes, FileSync sync,
+                                RawdataCompression compression) throws IOException {
+        if (format == null || "files".equalsIgnoreCase(format)) {
+            return new Directory(workDir, sync, compression);
+        }
+        if ("tar".equalsIgnoreCase(format)) {
+            return new RawdataArchive(workDir, topic, maxArchiveBytes, sync, compression);
+        }
+        throw new IllegalArgumentException("Unknown rawdata dump format: " + format);
+    }
+
+    /**
+     * Writes all the buffers, and returns the number of bytes written.
+     */
+    static long writeFully(FileChannel channel, ByteBuffer... buffers) throws IOException {
+        long written = 0;
+        for (int n = 0; n < buffers.length; ) {
+            written += channel.write(buffers, n, buffers.length - n);
+            while (n < buffers.length && !buffers[n].hasRemaining()) {
+                n++;
+            }
+        }
+        return written;
+    }
+
+    /**
+     * One directory per position, with one file per key.
+     * <p>
+     * The files are synced by the {@link FileSync} policy. As a file can't be synced after it is closed, the files and
+     * directories written since the last sync are reopened and synced one by one, so a sync costs one fsync per file.
+     * With compression each file is compressed on its own, and its name has the suffix of the compression.
+     */
+    class Directory implements RawdataOutput {
+        private static final Logger LOG = LoggerFactory.getLogger(Directory.class);
+
+        private final Path targetPath;
+        private final FileSync sync;
+        private final RawdataCompression compression;
+        private final Queue<Path> unsynced = new ConcurrentLinkedQueue<>();
+        private final ReentrantLock syncLock = new ReentrantLock();
+
+        Directory(Path targetPath, FileSync sync, RawdataCompression compression) {
+            this.targetPath = targetPath;
+            this.sync = sync;
+            this.compression = compression;
+        }
+
+        @Override
+        public void write(String position, Map<String, byte[]> files) throws IOException {
+            Path filePath = targetPath.resolve(position).normalize();
+            if (!Files.exists(filePath)) {
+                Files.createDirectories(filePath);
+            }
+            for (Map.Entry<String, byte[]> file : files.entrySet()) {
+                Path path = filePath.resolve(file.getKey() + compression.suffix());
+                byte[] data = compression.isEnabled() ? compression.compress(ByteBuffer.wrap(file.getValue())) : file.getValue();
+                try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                    writeFully(channel, ByteBuffer.wrap(data));
+                }
+                if (sync.isEnabled()) {
+                    unsynced.add(path);
+                }
+            }
+            if (sync.isEnabled()) {
+                unsynced.add(filePath);
+            }
+            // a writer that finds another one syncing leaves the files to the next sync
+            if (sync.positionWritten() && syncLock.tryLock()) {
+                try {
+                    syncFiles();
+                } finally {
+                    syncLock.unlock();
+                }
+            }
+        }
+
+        private void syncFiles() throws IOException {
+            long startNanos = System.nanoTime();
+            long positions = sync.pendingPositions();
+            Path path;
+            while ((path = unsynced.poll()) != null) {
+                if (Files.isDirectory(path)) {
+                    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                        channel.force(true);
+                    } catch (IOException e) {
+                        // directories can't be opened for syncing on all platforms
+                        LOG.debug("Unable to sync directory: {}", path);
+                    }
+                } else {
+                    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+                        channel.force(false);
+                    }
+                }
+            }
+            sync.synced(startNanos, positions);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (sync.isEnabled()) {
+                syncLock.lock();
+                try {
+                    syncFiles();
+                } finally {
+                    syncLock.unlock();
+                }
+                LOG.info("Rawdata dump sync: {}", sync);
+            }
+            if (compression.isEnabled()) {
+                LOG.info("Rawdata dump compression: {}", compression);
+            }
+        }
+    }
+}
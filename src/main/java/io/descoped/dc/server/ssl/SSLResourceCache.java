@@ -0,0 +1,117 @@
+package io.descoped.dc.server.ssl;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Caches a loaded SSL resource for a time-to-live, so the key material is fetched once per TTL instead of once per
+ * task. After the TTL the next caller reloads the resource, which picks up rotated secrets.
+ * <p>
+ * A replaced resource is released on the following reload, not immediately, so a worker that got it just before the
+ * reload can finish building its SSL context. When a reload fails, the previous resource is served for
+ * {@link #RETRY_NANOS} before the next attempt.
+ */
+public class SSLResourceCache<T> implements Supplier<T>, AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SSLResourceCache.class);
+    static final long RETRY_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+    private final Supplier<T> loader;
+    private final Consumer<T> releaser;
+    private final long ttlNanos;
+    private final LongSupplier nanoClock;
+
+    private volatile Entry<T> current;
+    private T retired;
+    private boolean closed;
+
+    public SSLResourceCache(Supplier<T> loader, Consumer<T> releaser, Duration ttl) {
+        this(loader, releaser, ttl, System::nanoTime);
+    }
+
+    SSLResourceCache(Supplier<T> loader, Consumer<T> releaser, Duration ttl, LongSupplier nanoClock) {
+        if (ttl.isNegative() || ttl.isZero()) {
+            throw new IllegalArgumentException("ttl must be positive: " + ttl);
+        }
+        this.loader = loader;
+        this.releaser = releaser;
+        this.ttlNanos = ttl.toNanos();
+        this.nanoClock = nanoClock;
+    }
+
+    @Override
+    public T get() {
+        Entry<T> entry = current;
+        if (entry != null && nanoClock.getAsLong() - entry.expiresAtNanos < 0) {
+            return entry.resource;
+        }
+        return reload(entry);
+    }
+
+    private synchronized T reload(Entry<T> expired) {
+        if (closed) {
+            throw new IllegalStateException("SSL resource cache is closed");
+        }
+        // reloaded by another thread while waiting for the lock
+        if (current != expired) {
+            return current.resource;
+        }
+        T resource;
+        try {
+            resource = loader.get();
+        } catch (RuntimeException e) {
+            if (expired == null) {
+                throw e;
+            }
+            LOG.warn("Failed to reload SSL resource. Using the previous resource for {}s", TimeUnit.NANOSECONDS.toSeconds(RETRY_NANOS), e);
+            current = new Entry<>(expired.resource, nanoClock.getAsLong() + RETRY_NANOS);
+            return expired.resource;
+        }
+        release(retired);
+        retired = expired == null ? null : expired.resource;
+        current = new Entry<>(resource, nanoClock.getAsLong() + ttlNanos);
+        LOG.debug("Loaded SSL resource [ttl: {}s]", TimeUnit.NANOSECONDS.toSeconds(ttlNanos));
+        return resource;
+    }
+
+    private void release(T resource) {
+        if (resource == null) {
+            return;
+        }
+        try {
+            releaser.accept(resource);
+        } catch (RuntimeException e) {
+            LOG.warn("Failed to release SSL resource", e);
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        release(retired);
+        retired = null;
+        if (current != null) {
+            release(current.resource);
+            current = null;
+        }
+    }
+
+    static class Entry<T> {
+        final T resource;
+        final long expiresAtNanos;
+
+        Entry(T resource, long expiresAtNanos) {
+            this.resource = resource;
+            this.expiresAtNanos = expiresAtNanos;
+        }
+    }
+}
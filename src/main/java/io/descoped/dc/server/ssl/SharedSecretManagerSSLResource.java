@@ -0,0 +1,33 @@
+package io.descoped.dc.server.ssl;
+
+import io.descoped.config.DynamicConfiguration;
+import io.descoped.dc.application.ssl.SecretManagerSSLResource;
+
+import java.time.Duration;
+
+/**
+ * A secret manager SSL resource that is shared by workers through the {@link SSLResourceCache}. Workers must not clear
+ * the key material of a shared resource, so {@link #close()} does nothing and the cache releases the resource when it
+ * is replaced.
+ */
+public class SharedSecretManagerSSLResource extends SecretManagerSSLResource {
+
+    SharedSecretManagerSSLResource(DynamicConfiguration configuration) {
+        super(configuration);
+    }
+
+    /**
+     * Returns a cache that fetches the secrets once per TTL.
+     */
+    public static SSLResourceCache<SharedSecretManagerSSLResource> cache(DynamicConfiguration configuration, Duration ttl) {
+        return new SSLResourceCache<>(() -> new SharedSecretManagerSSLResource(configuration), SharedSecretManagerSSLResource::release, ttl);
+    }
+
+    @Override
+    public void close() {
+    }
+
+    void release() {
+        super.close();
+    }
+}
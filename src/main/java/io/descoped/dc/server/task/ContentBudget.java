@@ -0,0 +1,245 @@
+package io.descoped.dc.server.task;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import io.descoped.dc.server.content.InterceptingContentStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounds the bytes of buffered documents that workers hold in memory until they are published to the content store.
+ * <p>
+ * A document is counted from the moment it is buffered until its position is published or the content store of the
+ * worker is closed. Buffering waits while the document would exceed the global budget or the budget of its topic, so
+ * a fast worker is held back while the backing store is slow. A worker doesn't wait for bytes it holds itself, and it
+ * waits at most the max wait before it proceeds over the budget, since workers only release bytes when they
+ * publish and could otherwise wait for each other.
+ */
+class ContentBudget {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ContentBudget.class);
+
+    private final long maxBytes;
+    private final long maxBytesPerTopic;
+    private final long maxWaitNanos;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition bytesReleased = lock.newCondition();
+    private final Map<String, Long> usedBytesByTopic = new HashMap<>();
+    private long usedBytes;
+    private long peakBytes;
+    private long waits;
+    private long waitTimeouts;
+    private long totalWaitNanos;
+
+    /**
+     * @param maxBytes         the global budget
+     * @param maxBytesPerTopic the budget of each topic, or 0 for no topic budget
+     * @param maxWait          the max time a worker waits for budget before it proceeds over the budget
+     */
+    ContentBudget(long maxBytes, long maxBytesPerTopic, Duration maxWait) {
+        if (maxBytes < 1 || maxBytesPerTopic < 0) {
+            throw new IllegalArgumentException("Illegal content budget: " + maxBytes + ", per topic: " + maxBytesPerTopic);
+        }
+        this.maxBytes = maxBytes;
+        this.maxBytesPerTopic = maxBytesPerTopic;
+        this.maxWaitNanos = maxWait.toNanos();
+    }
+
+    /**
+     * Returns a tracker that accounts the buffered documents of one worker.
+     */
+    Tracker tracker() {
+        return new Tracker();
+    }
+
+    private void acquire(String topic, long bytes, long ownBytes, long ownTopicBytes) {
+        lock.lock();
+        try {
+            if (exceeded(topic, bytes, ownBytes, ownTopicBytes)) {
+                waits++;
+                long startNanos = System.nanoTime();
+                long remainingNanos = maxWaitNanos;
+                try {
+                    while (exceeded(topic, bytes, ownBytes, ownTopicBytes) && remainingNanos > 0) {
+                        remainingNanos = bytesReleased.awaitNanos(remainingNanos);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                if (exceeded(topic, bytes, ownBytes, ownTopicBytes)) {
+                    waitTimeouts++;
+                    LOG.warn("Waited {}ms for content budget of topic: {} [used: {}, max: {}]. Proceeding over the budget.",
+                            TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos), topic, usedBytes, maxBytes);
+                }
+                totalWaitNanos += System.nanoTime() - startNanos;
+            }
+            usedBytes += bytes;
+            peakBytes = Math.max(peakBytes, usedBytes);
+            usedBytesByTopic.merge(topic, bytes, Long::sum);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * A document that doesn't fit is admitted once only the worker's own bytes are in use, so a document larger than
+     * the budget can't block forever.
+     */
+    private boolean exceeded(String topic, long bytes, long ownBytes, long ownTopicBytes) {
+        if (usedBytes + bytes > maxBytes && usedBytes > ownBytes) {
+            return true;
+        }
+        if (maxBytesPerTopic > 0) {
+            long usedTopicBytes = usedBytesByTopic.getOrDefault(topic, 0L);
+            return usedTopicBytes + bytes > maxBytesPerTopic && usedTopicBytes > ownTopicBytes;
+        }
+        return false;
+    }
+
+    private void release(String topic, Long bytes) {
+        if (bytes == 0) {
+            return;
+        }
+        lock.lock();
+        try {
+            usedBytes -= bytes;
+            usedBytesByTopic.computeIfPresent(topic, (t, used) -> used == bytes.longValue() ? null : used - bytes);
+            bytesReleased.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    long usedBytes() {
+        lock.lock();
+        try {
+            return usedBytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    Stats stats() {
+        lock.lock();
+        try {
+            return new Stats(maxBytes, maxBytesPerTopic, usedBytes, peakBytes, new TreeMap<>(usedBytesByTopic), waits, waitTimeouts,
+                    waits == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(totalWaitNanos / waits));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * The buffered, unpublished documents of one worker, by topic and position.
+     */
+    class Tracker implements InterceptingContentStore.Listener {
+        private final Map<String, Map<String, Long>> bytesByPositionByTopic = new HashMap<>();
+        private final Map<String, Long> bytesByTopic = new HashMap<>();
+        private long bytes;
+
+        @Override
+        public void beforeBuffer(String topic, String position, int bytes) {
+            if (bytes == 0 || topic == null) {
+                return;
+            }
+            long ownBytes;
+            long ownTopicBytes;
+            synchronized (this) {
+                ownBytes = this.bytes;
+                ownTopicBytes = bytesByTopic.getOrDefault(topic, 0L);
+            }
+            acquire(topic, bytes, ownBytes, ownTopicBytes);
+            synchronized (this) {
+                bytesByPositionByTopic.computeIfAbsent(topic, t -> new HashMap<>()).merge(String.valueOf(position), (long) bytes, Long::sum);
+                bytesByTopic.merge(topic, (long) bytes, Long::sum);
+                this.bytes += bytes;
+            }
+        }
+
+        @Override
+        public void afterPublish(String topic, String[] positions, long durationNanos) {
+            long released = 0;
+            synchronized (this) {
+                Map<String, Long> bytesByPosition = bytesByPositionByTopic.get(topic);
+                if (bytesByPosition == null) {
+                    return;
+                }
+                for (String position : positions) {
+                    Long positionBytes = bytesByPosition.remove(position);
+                    if (positionBytes != null) {
+                        released += positionBytes;
+                    }
+                }
+                if (bytesByPosition.isEmpty()) {
+                    bytesByPositionByTopic.remove(topic);
+                    bytesByTopic.remove(topic);
+                } else {
+                    bytesByTopic.merge(topic, -released, Long::sum);
+                }
+                bytes -= released;
+            }
+            ContentBudget.this.release(topic, released);
+        }
+
+        @Override
+        public void onClose() {
+            release();
+        }
+
+        /**
+         * Releases the bytes of documents that were never published.
+         */
+        void release() {
+            Map<String, Long> released;
+            synchronized (this) {
+                released = new HashMap<>(bytesByTopic);
+                bytesByPositionByTopic.clear();
+                bytesByTopic.clear();
+                bytes = 0;
+            }
+            released.forEach(ContentBudget.this::release);
+        }
+
+        synchronized long bytes() {
+            return bytes;
+        }
+    }
+
+    public static class Stats {
+        @JsonProperty("max-bytes")
+        public final long maxBytes;
+        @JsonProperty("max-bytes-per-topic")
+        public final long maxBytesPerTopic;
+        @JsonProperty("used-bytes")
+        public final long usedBytes;
+        @JsonProperty("peak-bytes")
+        public final long peakBytes;
+        @JsonProperty("used-bytes-by-topic")
+        public final Map<String, Long> usedBytesByTopic;
+        @JsonProperty("waits")
+        public final long waits;
+        @JsonProperty("wait-timeouts")
+        public final long waitTimeouts;
+        @JsonProperty("average-wait-ms")
+        public final long averageWaitMillis;
+
+        Stats(long maxBytes, long maxBytesPerTopic, long usedBytes, long peakBytes, Map<String, Long> usedBytesByTopic,
+              long waits, long waitTimeouts, long averageWaitMillis) {
+            this.maxBytes = maxBytes;
+            this.maxBytesPerTopic = maxBytesPerTopic;
+            this.usedBytes = usedBytes;
+            this.peakBytes = peakBytes;
+            this.usedBytesByTopic = usedBytesByTopic;
+            this.waits = waits;
+            this.waitTimeouts = waitTimeouts;
+            this.averageWaitMillis = averageWaitMillis;
+        }
+    }
+}
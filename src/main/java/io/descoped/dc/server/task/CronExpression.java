@@ -0,0 +1,132 @@
+package io.descoped.dc.server.task;
+
+import java.time.ZonedDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.BitSet;
+
+/**
+ * Standard five field cron expression: minute, hour, day of month, month and day of week.
+ * <p>
+ * A field is '*', a value, a range 'a-b', a step '*&#47;n' or 'a-b/n', or a comma separated list of these. Day of
+ * week is 0-7 where both 0 and 7 are Sunday. When both day of month and day of week are restricted, a day matches if
+ * either field matches.
+ */
+class CronExpression {
+
+    private final String expression;
+    private final BitSet minutes;
+    private final BitSet hours;
+    private final BitSet daysOfMonth;
+    private final BitSet months;
+    private final BitSet daysOfWeek;
+    private final boolean daysOfMonthRestricted;
+    private final boolean daysOfWeekRestricted;
+
+    private CronExpression(String expression) {
+        String[] fields = expression.trim().split("\\s+");
+        if (fields.length != 5) {
+            throw new IllegalArgumentException("Cron expression must have 5 fields: " + expression);
+        }
+        this.expression = expression;
+        this.minutes = parseField(fields[0], 0, 59);
+        this.hours = parseField(fields[1], 0, 23);
+        this.daysOfMonth = parseField(fields[2], 1, 31);
+        this.months = parseField(fields[3], 1, 12);
+        this.daysOfWeek = parseField(fields[4], 0, 7);
+        if (daysOfWeek.get(7)) {
+            daysOfWeek.set(0);
+        }
+        this.daysOfMonthRestricted = !"*".equals(fields[2]);
+        this.daysOfWeekRestricted = !"*".equals(fields[4]);
+    }
+
+    static CronExpression parse(String expression) {
+        return new CronExpression(expression);
+    }
+
+    private static BitSet parseField(String field, int min, int max) {
+        BitSet values = new BitSet(max + 1);
+        for (String part : field.split(",")) {
+            int step = 1;
+            int slash = part.indexOf('/');
+            if (slash > -1) {
+                step = parseValue(part.substring(slash + 1), 1, max);
+                part = part.substring(0, slash);
+            }
+            int from;
+            int to;
+            if ("*".equals(part)) {
+                from = min;
+                to = max;
+            } else if (part.indexOf('-') > -1) {
+                from = parseValue(part.substring(0, part.indexOf('-')), min, max);
+                to = parseValue(part.substring(part.indexOf('-') + 1), min, max);
+                if (from > to) {
+                    throw new IllegalArgumentException("Invalid cron range: " + field);
+                }
+            } else {
+                from = parseValue(part, min, max);
+                to = slash > -1 ? max : from;
+            }
+            for (int value = from; value <= to; value += step) {
+                values.set(value);
+            }
+        }
+        return values;
+    }
+
+    private static int parseValue(String value, int min, int max) {
+        int parsed;
+        try {
+            parsed = Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid cron value: " + value);
+        }
+        if (parsed < min || parsed > max) {
+            throw new IllegalArgumentException("Cron value " + parsed + " is out of range [" + min + ", " + max + "]");
+        }
+        return parsed;
+    }
+
+    /**
+     * Returns the first matching time strictly after the given time, or throws if there is none within four years.
+     */
+    ZonedDateTime next(ZonedDateTime after) {
+        ZonedDateTime time = after.truncatedTo(ChronoUnit.MINUTES).plusMinutes(1);
+        ZonedDateTime limit = time.plusYears(4);
+        while (time.isBefore(limit)) {
+            if (!months.get(time.getMonthValue())) {
+                time = time.withDayOfMonth(1).truncatedTo(ChronoUnit.DAYS).plusMonths(1);
+                continue;
+            }
+            if (!matchesDay(time)) {
+                time = time.truncatedTo(ChronoUnit.DAYS).plusDays(1);
+                continue;
+            }
+            if (!hours.get(time.getHour())) {
+                time = time.truncatedTo(ChronoUnit.HOURS).plusHours(1);
+                continue;
+            }
+            if (!minutes.get(time.getMinute())) {
+                time = time.plusMinutes(1);
+                continue;
+            }
+            return time;
+        }
+        throw new IllegalStateException("Cron expression never matches: " + expression);
+    }
+
+    private boolean matchesDay(ZonedDateTime time) {
+        boolean dayOfMonth = daysOfMonth.get(time.getDayOfMonth());
+        boolean dayOfWeek = daysOfWeek.get(time.getDayOfWeek().getValue() % 7);
+        if (daysOfMonthRestricted && daysOfWeekRestricted) {
+            return dayOfMonth || dayOfWeek;
+        }
+        return dayOfMonth && dayOfWeek;
+    }
+
+    @Override
+    public String toString() {
+        return expression;
+    }
+}
@@ -0,0 +1,67 @@
+package io.descoped.dc.server.task;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free event rate over a sliding window of one second slots, plus the total since creation.
+ * <p>
+ * A slot is reset by the first recording in a new second. A recording that races with the reset may be lost, which is
+ * acceptable for a live rate.
+ */
+class RateMeter {
+
+    static final int WINDOW_SECONDS = 10;
+
+    private final long startNanos = System.nanoTime();
+    private final LongAdder total = new LongAdder();
+    private final AtomicLongArray slotSecond = new AtomicLongArray(WINDOW_SECONDS);
+    private final AtomicLongArray slotCount = new AtomicLongArray(WINDOW_SECONDS);
+
+    void record(long amount) {
+        total.add(amount);
+        long second = second(System.nanoTime());
+        int slot = (int) (second % WINDOW_SECONDS);
+        long slotSecondValue = slotSecond.get(slot);
+        if (slotSecondValue != second && slotSecond.compareAndSet(slot, slotSecondValue, second)) {
+            slotCount.set(slot, 0);
+        }
+        slotCount.addAndGet(slot, amount);
+    }
+
+    private long second(long nanos) {
+        return TimeUnit.NANOSECONDS.toSeconds(nanos - startNanos);
+    }
+
+    long total() {
+        return total.sum();
+    }
+
+    /**
+     * Average rate per second since creation.
+     */
+    double averageRate() {
+        double elapsedSeconds = (System.nanoTime() - startNanos) / (double) TimeUnit.SECONDS.toNanos(1);
+        return elapsedSeconds <= 0 ? 0 : total.sum() / elapsedSeconds;
+    }
+
+    /**
+     * Rate per second over the completed seconds of the window.
+     */
+    double currentRate() {
+        long now = second(System.nanoTime());
+        long windowSeconds = Math.min(WINDOW_SECONDS - 1, now);
+        if (windowSeconds == 0) {
+            return 0;
+        }
+        long sum = 0;
+        for (int slot = 0; slot < WINDOW_SECONDS; slot++) {
+            long second = slotSecond.get(slot);
+            if (second < now && second >= now - windowSeconds) {
+                sum += slotCount.get(slot);
+            }
+        }
+        return sum / (double) windowSeconds;
+    }
+}
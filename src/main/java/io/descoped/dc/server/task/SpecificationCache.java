@@ -0,0 +1,144 @@
+package io.descoped.dc.server.task;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import io.descoped.dc.api.node.builder.SpecificationBuilder;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Bounded LRU cache of deserialized specifications, keyed by the SHA-256 of the specification JSON and a fingerprint
+ * of the worker configuration. Repeat submissions of an unchanged specification, e.g. by the {@link TaskScheduler},
+ * reuse the deserialized builder. A capacity of zero disables the cache.
+ * <p>
+ * An entry keeps the specification JSON next to the builder, so the checkpoint of a task stores the submitted JSON
+ * instead of serializing the builder again. The cached builder is shared by every worker of the specification and must
+ * never be mutated: the worker only reads it when it builds its own specification graph, and callers that need to
+ * change a specification deserialize a builder of their own.
+ */
+class SpecificationCache {
+
+    private final int capacity;
+    private final String configurationFingerprint;
+    private final Map<String, Entry> specificationByKey;
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong evictionCount = new AtomicLong();
+
+    SpecificationCache(int capacity, String configurationFingerprint) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("capacity must not be negative");
+        }
+        this.capacity = capacity;
+        this.configurationFingerprint = configurationFingerprint;
+        this.specificationByKey = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                if (size() > SpecificationCache.this.capacity) {
+                    evictionCount.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Returns the cached specification for the JSON, or deserializes and caches it. Deserialization runs outside the
+     * cache lock, so two threads that miss on the same key may both deserialize it.
+     */
+    Entry get(String specificationJson, Function<String, SpecificationBuilder> deserializer) {
+        if (capacity == 0) {
+            missCount.incrementAndGet();
+            return new Entry(deserializer.apply(specificationJson), specificationJson);
+        }
+        String key = key(specificationJson);
+        Entry entry;
+        synchronized (specificationByKey) {
+            entry = specificationByKey.get(key);
+        }
+        if (entry != null) {
+            hitCount.incrementAndGet();
+            return entry;
+        }
+        missCount.incrementAndGet();
+        entry = new Entry(deserializer.apply(specificationJson), specificationJson);
+        synchronized (specificationByKey) {
+            specificationByKey.put(key, entry);
+        }
+        return entry;
+    }
+
+    String key(String specificationJson) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(configurationFingerprint.getBytes(StandardCharsets.UTF_8));
+            byte[] hash = digest.digest(specificationJson.getBytes(StandardCharsets.UTF_8));
+            StringBuilder key = new StringBuilder(hash.length * 2);
+            for (byte b : hash) {
+                key.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return key.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    void clear() {
+        synchronized (specificationByKey) {
+            specificationByKey.clear();
+        }
+    }
+
+    int size() {
+        synchronized (specificationByKey) {
+            return specificationByKey.size();
+        }
+    }
+
+    Stats stats() {
+        long hits = hitCount.get();
+        long misses = missCount.get();
+        return new Stats(capacity, size(), hits, misses, evictionCount.get(), hits + misses == 0 ? 0 : (double) hits / (hits + misses));
+    }
+
+    static class Entry {
+        final SpecificationBuilder specification;
+        final String json;
+
+        Entry(SpecificationBuilder specification, String json) {
+            this.specification = specification;
+            this.json = json;
+        }
+    }
+
+    public static class Stats {
+        @JsonProperty("capacity")
+        public final int capacity;
+        @JsonProperty("size")
+        public final int size;
+        @JsonProperty("hits")
+        public final long hits;
+        @JsonProperty("misses")
+        public final long misses;
+        @JsonProperty("evictions")
+        public final long evictions;
+        @JsonProperty("hit-ratio")
+        public final double hitRatio;
+
+        Stats(int capacity, int size, long hits, long misses, long evictions, double hitRatio) {
+            this.capacity = capacity;
+            this.size = size;
+            this.hits = hits;
+            this.misses = misses;
+            this.evictions = evictions;
+            this.hitRatio = hitRatio;
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package io.descoped.dc.server.task;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A cancelled task. The status is CANCELLING until the worker has been terminated and the task is done.
+ */
+public class TaskCancellation {
+
+    @JsonProperty("specification-id")
+    public final String specificationId;
+    @JsonProperty("task-id")
+    public final String taskId;
+    private final CompletableFuture<Void> completion;
+
+    TaskCancellation(String specificationId, String taskId, CompletableFuture<Void> completion) {
+        this.specificationId = specificationId;
+        this.taskId = taskId;
+        this.completion = completion;
+    }
+
+    @JsonProperty("status")
+    public Status status() {
+        return completion.isDone() ? Status.DONE : Status.CANCELLING;
+    }
+
+    /**
+     * Returns a future that completes when the task is done.
+     */
+    public CompletableFuture<Void> completion() {
+        return completion;
+    }
+
+    @Override
+    public String toString() {
+        return "TaskCancellation{" +
+                "specificationId='" + specificationId + '\'' +
+                ", taskId='" + taskId + '\'' +
+                ", status=" + status() +
+                '}';
+    }
+
+    public enum Status {
+        CANCELLING,
+        DONE
+    }
+}
@@ -0,0 +1,43 @@
+package io.descoped.dc.server.task;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.time.Instant;
+import java.util.Map;
+
+public class TaskCheckpoint {
+
+    @JsonProperty("specification-id")
+    public final String specificationId;
+    @JsonProperty("running")
+    public final boolean running;
+    @JsonProperty("priority")
+    public final TaskPriority priority;
+    @JsonProperty("weight")
+    public final int weight;
+    @JsonProperty("positions")
+    public final Map<String, String> positions;
+    @JsonProperty("updated")
+    public final String updated;
+
+    TaskCheckpoint(String specificationId, boolean running, TaskPriority priority, int weight, Map<String, String> positions, long updated) {
+        this.specificationId = specificationId;
+        this.running = running;
+        this.priority = priority;
+        this.weight = weight;
+        this.positions = positions;
+        this.updated = Instant.ofEpochMilli(updated).toString();
+    }
+
+    @Override
+    public String toString() {
+        return "TaskCheckpoint{" +
+                "specificationId='" + specificationId + '\'' +
+                ", running=" + running +
+                ", priority=" + priority +
+                ", weight=" + weight +
+                ", positions=" + positions +
+                ", updated='" + updated + '\'' +
+                '}';
+    }
+}
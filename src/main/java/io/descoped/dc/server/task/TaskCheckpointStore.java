@@ -0,0 +1,464 @@
+package io.descoped.dc.server.task;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.descoped.dc.api.util.CommonUtils;
+import io.descoped.dc.server.content.InterceptingContentStore;
+import io.descoped.dc.server.db.LmdbEnvironment;
+import org.lmdbjava.CursorIterable;
+import org.lmdbjava.Dbi;
+import org.lmdbjava.Txn;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Durable checkpoints of the last published position per specification and topic, stored in LMDB.
+ * <p>
+ * All checkpoints are loaded into memory when the store is opened, so a lookup never touches the database. Published
+ * positions are coalesced in memory and written by a background flush, so a worker is never blocked by a write
+ * transaction and a crash loses at most one flush interval of positions. Start and end of a task are written
+ * immediately, as they decide which tasks are resumed on restart.
+ * <p>
+ * A specification continues from its checkpoint in one of two ways. A position variable that is an expression, e.g.
+ * of contentStream.lastOrInitialPosition, asks the content store for the last position, and the checkpoint is returned
+ * when the content store has none. A position variable with a fixed initial value, e.g. "fromPosition" : "1", never
+ * asks, so the resumed specification gets the checkpointed position of its topic as the value instead, see
+ * {@link Checkpoint#resumedSpecification()}.
+ */
+class TaskCheckpointStore implements AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TaskCheckpointStore.class);
+    private static final byte VERSION = 1;
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private final LmdbEnvironment lmdbEnvironment;
+    private final Dbi<ByteBuffer> db;
+    private final Map<String, Checkpoint> checkpointBySpecificationId = new ConcurrentHashMap<>();
+    private final Set<String> dirty = ConcurrentHashMap.newKeySet();
+    private final ScheduledExecutorService flushExecutor;
+    private final Object writeLock = new Object();
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    TaskCheckpointStore(LmdbEnvironment lmdbEnvironment, Duration flushInterval) {
+        this.lmdbEnvironment = lmdbEnvironment;
+        this.db = lmdbEnvironment.open();
+        load();
+        this.flushExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "task-checkpoint-flush");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long flushMillis = Math.max(1, flushInterval.toMillis());
+        flushExecutor.scheduleWithFixedDelay(this::flushSafely, flushMillis, flushMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void load() {
+        try (Txn<ByteBuffer> txn = lmdbEnvironment.env().txnRead(); CursorIterable<ByteBuffer> iterable = db.iterate(txn)) {
+            for (CursorIterable.KeyVal<ByteBuffer> keyVal : iterable) {
+                String specificationId = UTF_8.decode(keyVal.key()).toString();
+                checkpointBySpecificationId.put(specificationId, Checkpoint.fromByteBuffer(specificationId, keyVal.val()));
+            }
+        }
+        LOG.info("Loaded {} task checkpoints from: {}", checkpointBySpecificationId.size(), lmdbEnvironment.getDatabaseDir());
+    }
+
+    /**
+     * Returns a tracker that checkpoints the positions published by one task of the specification.
+     */
+    Tracker tracker(String specificationId, String specification, TaskPriority priority, int weight) {
+        if (specificationId.getBytes(UTF_8).length > lmdbEnvironment.maxKeySize()) {
+            LOG.warn("The specification id '{}' is too long to be checkpointed!", specificationId);
+            return null;
+        }
+        return new Tracker(specificationId, specification, priority, weight);
+    }
+
+    Checkpoint get(String specificationId) {
+        return checkpointBySpecificationId.get(specificationId);
+    }
+
+    String lastPosition(String specificationId, String topic) {
+        Checkpoint checkpoint = checkpointBySpecificationId.get(specificationId);
+        return checkpoint == null ? null : checkpoint.positions.get(topic);
+    }
+
+    List<Checkpoint> list() {
+        List<Checkpoint> checkpoints = new ArrayList<>(checkpointBySpecificationId.values());
+        checkpoints.sort((a, b) -> a.specificationId.compareTo(b.specificationId));
+        return checkpoints;
+    }
+
+    /**
+     * Returns the checkpoints of the tasks that were running when the store was last closed.
+     */
+    List<Checkpoint> running() {
+        List<Checkpoint> checkpoints = new ArrayList<>();
+        for (Checkpoint checkpoint : list()) {
+            if (checkpoint.running && checkpoint.specification != null) {
+                checkpoints.add(checkpoint);
+            }
+        }
+        return checkpoints;
+    }
+
+    boolean remove(String specificationId) {
+        if (checkpointBySpecificationId.remove(specificationId) == null) {
+            return false;
+        }
+        dirty.remove(specificationId);
+        synchronized (writeLock) {
+            if (closed.get()) {
+                return true;
+            }
+            try (Txn<ByteBuffer> txn = lmdbEnvironment.env().txnWrite()) {
+                db.delete(txn, key(specificationId));
+                txn.commit();
+            }
+        }
+        LOG.info("Removed checkpoint: {}", specificationId);
+        return true;
+    }
+
+    private void begin(Tracker tracker) {
+        checkpointBySpecificationId.compute(tracker.specificationId, (id, checkpoint) ->
+                (checkpoint == null ? Checkpoint.empty(id) : checkpoint).begin(tracker.specification, tracker.priority, tracker.weight));
+        write(tracker.specificationId);
+    }
+
+    private void position(String specificationId, String topic, String position) {
+        checkpointBySpecificationId.compute(specificationId, (id, checkpoint) ->
+                (checkpoint == null ? Checkpoint.empty(id) : checkpoint).position(topic, position));
+        dirty.add(specificationId);
+    }
+
+    private void end(String specificationId) {
+        Checkpoint checkpoint = checkpointBySpecificationId.computeIfPresent(specificationId, (id, current) -> current.end());
+        if (checkpoint != null) {
+            write(specificationId);
+        }
+    }
+
+    private void write(String specificationId) {
+        dirty.remove(specificationId);
+        writeAll(List.of(specificationId));
+    }
+
+    /**
+     * Writes the coalesced positions of all checkpoints that changed since the previous flush, in one transaction.
+     */
+    void flush() {
+        if (dirty.isEmpty()) {
+            return;
+        }
+        List<String> specificationIds = new ArrayList<>(dirty);
+        dirty.removeAll(specificationIds);
+        writeAll(specificationIds);
+    }
+
+    private void flushSafely() {
+        try {
+            flush();
+        } catch (RuntimeException e) {
+            LOG.error("Unable to flush task checkpoints!\n{}", CommonUtils.captureStackTrace(e));
+        }
+    }
+
+    private void writeAll(List<String> specificationIds) {
+        synchronized (writeLock) {
+            if (closed.get()) {
+                return;
+            }
+            try (Txn<ByteBuffer> txn = lmdbEnvironment.env().txnWrite()) {
+                for (String specificationId : specificationIds) {
+                    // read under the write lock, so an older copy never overwrites a newer one
+                    Checkpoint checkpoint = checkpointBySpecificationId.get(specificationId);
+                    if (checkpoint != null) {
+                        db.put(txn, key(specificationId), checkpoint.toByteBuffer());
+                    }
+                }
+                txn.commit();
+            }
+        }
+    }
+
+    private static ByteBuffer key(String specificationId) {
+        byte[] bytes = specificationId.getBytes(UTF_8);
+        return ByteBuffer.allocateDirect(bytes.length).put(bytes).flip();
+    }
+
+    boolean isClosed() {
+        return closed.get();
+    }
+
+    @Override
+    public void close() {
+        flushExecutor.shutdownNow();
+        flushSafely();
+        if (closed.compareAndSet(false, true)) {
+            synchronized (writeLock) {
+                lmdbEnvironment.close();
+            }
+        }
+    }
+
+    /**
+     * Checkpoints one task. The task is marked as running when its worker starts and as ended when its worker
+     * finishes or closes its content store. Positions are taken from publish, and the checkpointed position is
+     * returned as the last position of a topic when the content store has none.
+     */
+    class Tracker implements InterceptingContentStore.Listener {
+        final String specificationId;
+        final String specification;
+        final TaskPriority priority;
+        final int weight;
+        private boolean started;
+        private boolean ended;
+
+        Tracker(String specificationId, String specification, TaskPriority priority, int weight) {
+            this.specificationId = specificationId;
+            this.specification = specification;
+            this.priority = priority;
+            this.weight = weight;
+        }
+
+        synchronized void begin() {
+            if (!started && !ended) {
+                started = true;
+                TaskCheckpointStore.this.begin(this);
+            }
+        }
+
+        synchronized void end() {
+            if (started && !ended) {
+                ended = true;
+                TaskCheckpointStore.this.end(specificationId);
+            }
+        }
+
+        @Override
+        public void afterPublish(String topic, String[] positions, long durationNanos) {
+            if (topic != null && positions.length > 0) {
+                position(specificationId, topic, positions[positions.length - 1]);
+            }
+        }
+
+        @Override
+        public String lastPosition(String topic, String lastPosition) {
+            if (lastPosition != null) {
+                return lastPosition;
+            }
+            String checkpointedPosition = TaskCheckpointStore.this.lastPosition(specificationId, topic);
+            if (checkpointedPosition != null) {
+                LOG.info("Resume specification: {} [topic: {}] from checkpointed position: {}", specificationId, topic, checkpointedPosition);
+            }
+            return checkpointedPosition;
+        }
+
+        @Override
+        public void onClose() {
+            end();
+        }
+    }
+
+    /**
+     * Immutable checkpoint of one specification. Updates return a copy.
+     */
+    static class Checkpoint {
+        static final String RESUME_VARIABLE = "global.checkpoint.resumeVariable";
+        static final String RESUME_FROM = "global.checkpoint.resumeFrom";
+
+        final String specificationId;
+        final String specification;
+        final TaskPriority priority;
+        final int weight;
+        final boolean running;
+        final long updated;
+        final Map<String, String> positions;
+
+        Checkpoint(String specificationId, String specification, TaskPriority priority, int weight, boolean running,
+                   long updated, Map<String, String> positions) {
+            this.specificationId = specificationId;
+            this.specification = specification;
+            this.priority = priority;
+            this.weight = weight;
+            this.running = running;
+            this.updated = updated;
+            this.positions = positions;
+        }
+
+        static Checkpoint empty(String specificationId) {
+            return new Checkpoint(specificationId, null, TaskPriority.NORMAL, 1, false, System.currentTimeMillis(), Collections.emptyMap());
+        }
+
+        Checkpoint begin(String specification, TaskPriority priority, int weight) {
+            return new Checkpoint(specificationId, specification, priority, weight, true, System.currentTimeMillis(), positions);
+        }
+
+        Checkpoint end() {
+            return new Checkpoint(specificationId, specification, priority, weight, false, System.currentTimeMillis(), positions);
+        }
+
+        Checkpoint position(String topic, String position) {
+            Map<String, String> copy = new LinkedHashMap<>(positions);
+            copy.put(topic, position);
+            return new Checkpoint(specificationId, specification, priority, weight, running, System.currentTimeMillis(),
+                    Collections.unmodifiableMap(copy));
+        }
+
+        /**
+         * Returns the specification with its resume variable set from the checkpointed position of its topic, which is
+         * the global.topic of the specification context. A specification opts in by naming the variable in the
+         * global state {@value #RESUME_VARIABLE}. The variable is set to the position after the last published one, or
+         * with {@value #RESUME_FROM} = last to the last published position itself, for an upstream that pages from
+         * after a given position. The position after is only known for integer positions. The specification is
+         * returned unchanged if it hasn't opted in, has no checkpointed position, or can't be resumed.
+         */
+        String resumedSpecification() {
+            if (specification == null) {
+                return null;
+            }
+            try {
+                JsonNode root = MAPPER.readTree(specification);
+                String topic = null;
+                String resumeVariable = null;
+                String resumeFrom = null;
+                for (JsonNode context : root.path("configure")) {
+                    JsonNode globalState = context.path("globalState");
+                    topic = globalState.path("global.topic").isTextual() ? globalState.path("global.topic").asText() : topic;
+                    resumeVariable = globalState.path(RESUME_VARIABLE).isTextual() ? globalState.path(RESUME_VARIABLE).asText() : resumeVariable;
+                    resumeFrom = globalState.path(RESUME_FROM).isTextual() ? globalState.path(RESUME_FROM).asText() : resumeFrom;
+                }
+                String position = topic == null ? null : positions.get(topic);
+                if (position == null) {
+                    return specification;
+                }
+                if (resumeVariable == null) {
+                    // a start position read from the content store is still resumed, by the last position of the tracker
+                    LOG.info("Unable to resume a fixed start position of specification: {}, which has no {}",
+                            specificationId, RESUME_VARIABLE);
+                    return specification;
+                }
+                String resumePosition;
+                if ("last".equals(resumeFrom)) {
+                    resumePosition = position;
+                } else if (resumeFrom == null || "next".equals(resumeFrom)) {
+                    try {
+                        resumePosition = Long.toString(Math.addExact(Long.parseLong(position), 1));
+                    } catch (NumberFormatException | ArithmeticException e) {
+                        LOG.warn("Unable to resume specification: {} [topic: {}] after position: {}, which is not an integer",
+                                specificationId, topic, position);
+                        return specification;
+                    }
+                } else {
+                    LOG.warn("Unable to resume specification: {}. Unknown {}: {}", specificationId, RESUME_FROM, resumeFrom);
+                    return specification;
+                }
+                boolean resumed = false;
+                for (JsonNode context : root.path("configure")) {
+                    JsonNode variables = context.path("variables");
+                    JsonNode value = variables.path(resumeVariable);
+                    // an expression is evaluated by the worker, e.g. from the last position of the content store
+                    if (value.isValueNode() && !value.asText().contains("${")) {
+                        ((ObjectNode) variables).put(resumeVariable, resumePosition);
+                        resumed = true;
+                    }
+                }
+                if (!resumed) {
+                    LOG.warn("Unable to resume specification: {}. It has no variable {} with a fixed value", specificationId, resumeVariable);
+                    return specification;
+                }
+                LOG.info("Resume specification: {} [topic: {}] with {} = {}", specificationId, topic, resumeVariable, resumePosition);
+                return MAPPER.writeValueAsString(root);
+            } catch (JsonProcessingException e) {
+                LOG.warn("Unable to set the checkpointed position of specification: {}. Resuming from its initial position.\n{}",
+                        specificationId, CommonUtils.captureStackTrace(e));
+                return specification;
+            }
+        }
+
+        TaskCheckpoint view() {
+            return new TaskCheckpoint(specificationId, running, priority, weight, positions, updated);
+        }
+
+        ByteBuffer toByteBuffer() {
+            byte[] specificationBytes = specification == null ? null : specification.getBytes(UTF_8);
+            List<byte[]> positionBytes = new ArrayList<>(positions.size() * 2);
+            int size = 1 + 1 + 1 + 4 + 8 + 4 + (specificationBytes == null ? 0 : specificationBytes.length) + 4;
+            for (Map.Entry<String, String> entry : positions.entrySet()) {
+                byte[] topic = entry.getKey().getBytes(UTF_8);
+                byte[] position = entry.getValue().getBytes(UTF_8);
+                positionBytes.add(topic);
+                positionBytes.add(position);
+                size += 4 + topic.length + 4 + position.length;
+            }
+            ByteBuffer buffer = ByteBuffer.allocateDirect(size);
+            buffer.put(VERSION);
+            buffer.put((byte) (running ? 1 : 0));
+            buffer.put((byte) priority.ordinal());
+            buffer.putInt(weight);
+            buffer.putLong(updated);
+            putBytes(buffer, specificationBytes);
+            buffer.putInt(positions.size());
+            for (byte[] bytes : positionBytes) {
+                putBytes(buffer, bytes);
+            }
+            return buffer.flip();
+        }
+
+        static Checkpoint fromByteBuffer(String specificationId, ByteBuffer buffer) {
+            byte version = buffer.get();
+            if (version != VERSION) {
+                throw new IllegalStateException("Unsupported checkpoint version: " + version);
+            }
+            boolean running = buffer.get() == 1;
+            TaskPriority priority = TaskPriority.values()[buffer.get()];
+            int weight = buffer.getInt();
+            long updated = buffer.getLong();
+            byte[] specificationBytes = getBytes(buffer);
+            int count = buffer.getInt();
+            Map<String, String> positions = new LinkedHashMap<>();
+            for (int n = 0; n < count; n++) {
+                positions.put(new String(getBytes(buffer), UTF_8), new String(getBytes(buffer), UTF_8));
+            }
+            return new Checkpoint(specificationId, specificationBytes == null ? null : new String(specificationBytes, UTF_8),
+                    priority, weight, running, updated, Collections.unmodifiableMap(positions));
+        }
+
+        private static void putBytes(ByteBuffer buffer, byte[] bytes) {
+            if (bytes == null) {
+                buffer.putInt(-1);
+                return;
+            }
+            buffer.putInt(bytes.length);
+            buffer.put(bytes);
+        }
+
+        private static byte[] getBytes(ByteBuffer buffer) {
+            int length = buffer.getInt();
+            if (length < 0) {
+                return null;
+            }
+            byte[] bytes = new byte[length];
+            buffer.get(bytes);
+            return bytes;
+        }
+    }
+}
@@ -1,26 +1,46 @@
 package io.descoped.dc.server.task;
 
-import io.descoped.dc.api.Specification;
-import io.descoped.dc.api.http.HttpStatus;
 import io.descoped.dc.api.http.Request;
-import io.descoped.dc.api.node.builder.SpecificationBuilder;
 import io.descoped.dc.api.util.JsonParser;
 import io.descoped.dc.application.spi.Controller;
 import io.undertow.server.HttpServerExchange;
 import io.undertow.util.Headers;
+import io.undertow.util.SameThreadExecutor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
 import java.util.Deque;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 
 public class TaskController implements Controller {
 
     private static final Logger LOG = LoggerFactory.getLogger(TaskController.class);
 
+    static final int DEFAULT_PAGE_SIZE = 1000;
+    static final Duration DEFAULT_CANCEL_TIMEOUT = Duration.ofSeconds(30);
+
     private final WorkerService workerService;
+    private final JsonParser jsonParser = JsonParser.createJsonParser();
 
     public TaskController(WorkerService workerService) {
         this.workerService = workerService;
@@ -44,6 +64,16 @@ public class TaskController implements Controller {
         }
 
         if ("put".equalsIgnoreCase(exchange.getRequestMethod().toString())) {
+            if ("/tasks/schedules".equals(exchange.getRequestPath())) {
+                createSchedule(exchange);
+                return;
+            }
+
+            if ("/tasks/batch".equals(exchange.getRequestPath())) {
+                createWorkerTasks(exchange);
+                return;
+            }
+
             if ("/tasks".equals(exchange.getRequestPath())) {
                 createWorkerTask(exchange);
                 return;
@@ -55,9 +85,54 @@ public class TaskController implements Controller {
                 getTaskList(exchange);
                 return;
             }
+
+            if ("/tasks/metrics".equals(exchange.getRequestPath())) {
+                getTaskMetrics(exchange);
+                return;
+            }
+
+            if ("/tasks/schedules".equals(exchange.getRequestPath())) {
+                getScheduleList(exchange);
+                return;
+            }
+
+            if ("/tasks/checkpoints".equals(exchange.getRequestPath())) {
+                getCheckpointList(exchange);
+                return;
+            }
+
+            if ("/tasks/history".equals(exchange.getRequestPath())) {
+                getHistory(exchange);
+                return;
+            }
+
+            if (exchange.getRequestPath().startsWith("/tasks/") && exchange.getRequestPath().endsWith("/metrics")) {
+                getTaskMetrics(exchange, exchange.getRequestPath().split("/"));
+                return;
+            }
+
+            if (exchange.getRequestPath().startsWith("/tasks/") && exchange.getRequestPath().endsWith("/profile")) {
+                getTaskProfile(exchange, exchange.getRequestPath().split("/"));
+                return;
+            }
         }
 
         if ("delete".equalsIgnoreCase(exchange.getRequestMethod().toString())) {
+            if (exchange.getRequestPath().startsWith("/tasks/schedules/")) {
+                deleteSchedule(exchange);
+                return;
+            }
+
+            if (exchange.getRequestPath().startsWith("/tasks/checkpoints/")) {
+                deleteCheckpoint(exchange);
+                return;
+            }
+
+            if ("/tasks".equals(exchange.getRequestPath())) {
+                cancelTasks(exchange);
+                return;
+            }
+
             if (exchange.getRequestPath().startsWith("/tasks")) {
                 cancelTask(exchange);
                 return;
@@ -69,25 +144,309 @@ public class TaskController implements Controller {
 
 
     private void createWorkerTask(HttpServerExchange exchange) {
+        TaskPriority priority;
+        int weight;
+        boolean profile;
+        try {
+            priority = TaskPriority.parse(queryParameter(exchange, "priority"));
+            weight = parseWeight(exchange);
+            profile = parseBoolean(queryParameter(exchange, "profile"));
+        } catch (IllegalArgumentException e) {
+            LOG.warn("Bad task submission: {}", e.getMessage());
+            exchange.setStatusCode(400);
+            return;
+        }
+
         exchange.getRequestReceiver().receiveFullString((httpServerExchange, payload) -> {
-            SpecificationBuilder specificationBuilder = Specification.deserialize(payload);
-            String workerId = workerService.createOrRejectTask(specificationBuilder);
-            int statusCode = workerId != null ? HttpStatus.HTTP_CREATED.code() : HttpStatus.HTTP_CONFLICT.code();
-            exchange.setStatusCode(statusCode);
+            // 201 when started, 202 when queued, 409 when already running and 429 when the queue is full
+            TaskSubmission submission = workerService.submitTask(payload, priority, weight, profile);
+            if (profile && submission.taskId != null) {
+                exchange.getResponseHeaders().put(Headers.LOCATION, "/tasks/" + submission.taskId + "/profile");
+            }
+            exchange.setStatusCode(submission.statusCode());
         });
     }
 
+    // PUT /tasks/batch with one specification per line (NDJSON). Each line is submitted as soon as it has been read,
+    // and the result is streamed back as one line per specification in the same order.
+    private void createWorkerTasks(HttpServerExchange exchange) {
+        TaskPriority priority;
+        int weight;
+        try {
+            priority = TaskPriority.parse(queryParameter(exchange, "priority"));
+            weight = parseWeight(exchange);
+        } catch (IllegalArgumentException e) {
+            LOG.warn("Bad batch submission: {}", e.getMessage());
+            exchange.setStatusCode(400);
+            return;
+        }
+
+        exchange.startBlocking();
+        exchange.setStatusCode(200);
+        exchange.getResponseHeaders().put(Headers.CONTENT_TYPE, "application/x-ndjson");
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(exchange.getInputStream(), StandardCharsets.UTF_8))) {
+            try (Writer writer = new BufferedWriter(new OutputStreamWriter(exchange.getOutputStream(), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (line.isBlank()) {
+                        continue;
+                    }
+                    TaskSubmission submission;
+                    try {
+                        submission = workerService.submitTask(line, priority, weight);
+                    } catch (RuntimeException e) {
+                        LOG.warn("Bad specification in batch: {}", e.getMessage());
+                        submission = TaskSubmission.invalid(e.getMessage());
+                    }
+                    writer.write(jsonParser.toJSON(submission));
+                    writer.write('\n');
+                    writer.flush();
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        exchange.endExchange();
+    }
+
+    // PUT /tasks/schedules?interval=PT15M&jitter=PT1M&overlap=skip or PUT /tasks/schedules?cron=0 * * * *
+    private void createSchedule(HttpServerExchange exchange) {
+        exchange.getRequestReceiver().receiveFullString((httpServerExchange, payload) -> {
+            try {
+                String interval = queryParameter(exchange, "interval");
+                String jitter = queryParameter(exchange, "jitter");
+                TaskSchedule schedule = workerService.scheduleTask(
+                        payload,
+                        interval == null ? null : Duration.parse(interval),
+                        queryParameter(exchange, "cron"),
+                        jitter == null ? Duration.ZERO : Duration.parse(jitter),
+                        TaskSchedule.Overlap.parse(queryParameter(exchange, "overlap")),
+                        TaskPriority.parse(queryParameter(exchange, "priority")),
+                        parseWeight(exchange)
+                );
+                exchange.setStatusCode(201);
+                exchange.getResponseHeaders().put(Headers.CONTENT_TYPE, "application/json");
+                exchange.getResponseSender().send(jsonParser.toPrettyJSON(schedule));
+            } catch (IllegalArgumentException | DateTimeParseException e) {
+                LOG.warn("Bad schedule: {}", e.getMessage());
+                exchange.setStatusCode(400);
+            }
+        });
+    }
+
+    private void getScheduleList(HttpServerExchange exchange) {
+        List<TaskSchedule> schedules = workerService.listSchedules();
+        String responseBody = jsonParser.toPrettyJSON(schedules);
+
+        exchange.setStatusCode(200);
+        exchange.getResponseHeaders().put(Headers.CONTENT_TYPE, "application/json");
+        exchange.getResponseSender().send(responseBody);
+    }
+
+    // DELETE /tasks/schedules/SPECIFICATION_ID
+    private void deleteSchedule(HttpServerExchange exchange) {
+        String[] path = exchange.getRequestPath().substring(1).split("/");
+        if (path.length != 3) {
+            exchange.setStatusCode(400);
+            return;
+        }
+        if (!workerService.unscheduleTask(path[2])) {
+            exchange.setStatusCode(404);
+            return;
+        }
+        exchange.setStatusCode(200);
+    }
+
+    private void getCheckpointList(HttpServerExchange exchange) {
+        List<TaskCheckpoint> checkpoints = workerService.listCheckpoints();
+        String responseBody = jsonParser.toPrettyJSON(checkpoints);
+
+        exchange.setStatusCode(200);
+        exchange.getResponseHeaders().put(Headers.CONTENT_TYPE, "application/json");
+        exchange.getResponseSender().send(responseBody);
+    }
 
+    // DELETE /tasks/checkpoints/SPECIFICATION_ID
+    private void deleteCheckpoint(HttpServerExchange exchange) {
+        String[] path = exchange.getRequestPath().substring(1).split("/");
+        if (path.length != 3) {
+            exchange.setStatusCode(400);
+            return;
+        }
+        if (!workerService.removeCheckpoint(path[2])) {
+            exchange.setStatusCode(404);
+            return;
+        }
+        exchange.setStatusCode(200);
+    }
+
+    // GET /tasks/history?from=2024-01-01T00:00:00Z&to=2024-01-02T00:00:00Z&specification=SPECIFICATION_ID&limit=100
+    private void getHistory(HttpServerExchange exchange) {
+        List<TaskRun> runs;
+        try {
+            String from = queryParameter(exchange, "from");
+            String to = queryParameter(exchange, "to");
+            String limit = queryParameter(exchange, "limit");
+            runs = workerService.listHistory(
+                    from == null ? Instant.EPOCH : parseEpochMilliInstant(from),
+                    to == null ? Instant.now() : parseEpochMilliInstant(to),
+                    queryParameter(exchange, "specification"),
+                    limit == null ? DEFAULT_PAGE_SIZE : Math.min(parseLimit(limit), DEFAULT_PAGE_SIZE)
+            );
+        } catch (IllegalArgumentException | DateTimeParseException e) {
+            LOG.warn("Bad task history query: {}", e.getMessage());
+            exchange.setStatusCode(400);
+            return;
+        }
+        String responseBody = jsonParser.toPrettyJSON(runs);
+
+        exchange.setStatusCode(200);
+        exchange.getResponseHeaders().put(Headers.CONTENT_TYPE, "application/json");
+        exchange.getResponseSender().send(responseBody);
+    }
+
+    static int parseWeight(HttpServerExchange exchange) {
+        String weightParameter = queryParameter(exchange, "weight");
+        int weight = weightParameter == null ? 1 : Integer.parseInt(weightParameter);
+        if (weight < 1) {
+            throw new IllegalArgumentException("Task weight must be greater than zero: " + weight);
+        }
+        return weight;
+    }
+
+    static int parseLimit(String value) {
+        int limit = Integer.parseInt(value);
+        if (limit < 1) {
+            throw new IllegalArgumentException("Limit must be greater than zero: " + limit);
+        }
+        return limit;
+    }
+
+    // the task history is stored by epoch millis, which don't cover the whole range of an Instant
+    static Instant parseEpochMilliInstant(String value) {
+        Instant instant = Instant.parse(value);
+        try {
+            instant.toEpochMilli();
+        } catch (ArithmeticException e) {
+            throw new IllegalArgumentException("Instant is out of range: " + value);
+        }
+        return instant;
+    }
+
+    static boolean parseBoolean(String value) {
+        if (value == null || "false".equalsIgnoreCase(value)) {
+            return false;
+        }
+        if ("true".equalsIgnoreCase(value)) {
+            return true;
+        }
+        throw new IllegalArgumentException("Not a boolean: " + value);
+    }
+
+    static String queryParameter(HttpServerExchange exchange, String name) {
+        Deque<String> values = exchange.getQueryParameters().get(name);
+        return values == null ? null : values.peekFirst();
+    }
+
+
+    // GET /tasks?specification=SPECIFICATION_ID&status=RUNNING&cursor=TASK_ID&limit=100
     private void getTaskList(HttpServerExchange exchange) {
-        List<WorkManager.Task> tasks = workerService.list();
-        JsonParser jsonParser = JsonParser.createJsonParser();
-        String responseBody = jsonParser.toPrettyJSON(tasks);
+        TaskListSnapshot.View view = workerService.taskListView();
+        exchange.getResponseHeaders().put(Headers.ETAG, view.etag);
+        if (view.etag.equals(exchange.getRequestHeaders().getFirst(Headers.IF_NONE_MATCH))) {
+            exchange.setStatusCode(304);
+            return;
+        }
+
+        TaskListSnapshot.Query query;
+        try {
+            String status = queryParameter(exchange, "status");
+            String limit = queryParameter(exchange, "limit");
+            query = new TaskListSnapshot.Query(
+                    queryParameter(exchange, "specification"),
+                    status == null ? null : WorkManager.TaskStatus.valueOf(status.toUpperCase()),
+                    queryParameter(exchange, "cursor"),
+                    limit == null ? DEFAULT_PAGE_SIZE : Math.min(Integer.parseInt(limit), DEFAULT_PAGE_SIZE)
+            );
+        } catch (IllegalArgumentException e) {
+            LOG.warn("Bad task list query: {}", e.getMessage());
+            exchange.setStatusCode(400);
+            return;
+        }
+
+        TaskListSnapshot.Page page = view.page(query, jsonParser::toJSON);
+        if (page.nextCursor != null) {
+            exchange.getResponseHeaders().put(Headers.LINK, "<" + nextPageLink(query, page.nextCursor) + ">; rel=\"next\"");
+        }
+        exchange.setStatusCode(200);
+        exchange.getResponseHeaders().put(Headers.CONTENT_TYPE, "application/json");
+        exchange.getResponseSender().send(ByteBuffer.wrap(page.body));
+    }
+
+    static String nextPageLink(TaskListSnapshot.Query query, String nextCursor) {
+        StringBuilder link = new StringBuilder("/tasks?cursor=").append(nextCursor).append("&limit=").append(query.limit);
+        if (query.specificationId != null) {
+            link.append("&specification=").append(URLEncoder.encode(query.specificationId, StandardCharsets.UTF_8));
+        }
+        if (query.status != null) {
+            link.append("&status=").append(query.status);
+        }
+        return link.toString();
+    }
+
+    private void getTaskMetrics(HttpServerExchange exchange) {
+        Map<String, Object> metrics = workerService.metrics();
+        String responseBody = jsonParser.toPrettyJSON(metrics);
 
         exchange.setStatusCode(200);
         exchange.getResponseHeaders().put(Headers.CONTENT_TYPE, "application/json");
         exchange.getResponseSender().send(responseBody);
     }
 
+    // GET /tasks/TASK_ID/metrics
+    private void getTaskMetrics(HttpServerExchange exchange, String[] path) {
+        if (path.length != 4) {
+            exchange.setStatusCode(400);
+            return;
+        }
+        TaskMetrics.Snapshot metrics;
+        try {
+            metrics = workerService.taskMetrics(path[2]);
+        } catch (IllegalArgumentException e) {
+            exchange.setStatusCode(400);
+            return;
+        }
+        if (metrics == null) {
+            exchange.setStatusCode(404);
+            return;
+        }
+        exchange.setStatusCode(200);
+        exchange.getResponseHeaders().put(Headers.CONTENT_TYPE, "application/json");
+        exchange.getResponseSender().send(jsonParser.toJSON(metrics));
+    }
+
+    // GET /tasks/TASK_ID/profile
+    private void getTaskProfile(HttpServerExchange exchange, String[] path) {
+        if (path.length != 4) {
+            exchange.setStatusCode(400);
+            return;
+        }
+        TaskProfiler.Profile profile;
+        try {
+            profile = workerService.taskProfile(path[2]);
+        } catch (IllegalArgumentException e) {
+            exchange.setStatusCode(400);
+            return;
+        }
+        if (profile == null) {
+            exchange.setStatusCode(404);
+            return;
+        }
+        exchange.setStatusCode(200);
+        exchange.getResponseHeaders().put(Headers.CONTENT_TYPE, "application/json");
+        exchange.getResponseSender().send(jsonParser.toPrettyJSON(profile));
+    }
+
     private void cancelTask(HttpServerExchange exchange) {
         String[] path = exchange.getRequestPath().substring(1).split("/");
         if (path.length != 2) {
@@ -104,4 +463,44 @@ public class TaskController implements Controller {
         }
         exchange.setStatusCode(200);
     }
+
+    // DELETE /tasks?specification=SPECIFICATION_ID&specification=SPECIFICATION_ID&timeout=PT30S
+    // Responds when the cancelled tasks are done or at the timeout, with 200 if all of them are done and 202 if some
+    // are still CANCELLING. The worker thread is released while waiting.
+    private void cancelTasks(HttpServerExchange exchange) {
+        Deque<String> specificationIds = exchange.getQueryParameters().get("specification");
+        Duration timeout;
+        try {
+            String timeoutParameter = queryParameter(exchange, "timeout");
+            timeout = timeoutParameter == null ? DEFAULT_CANCEL_TIMEOUT : Duration.parse(timeoutParameter);
+            if (timeout.isNegative()) {
+                throw new IllegalArgumentException("Cancel timeout must not be negative: " + timeout);
+            }
+        } catch (IllegalArgumentException | DateTimeParseException e) {
+            LOG.warn("Bad task cancellation: {}", e.getMessage());
+            exchange.setStatusCode(400);
+            return;
+        }
+        if (specificationIds == null || specificationIds.isEmpty()) {
+            exchange.setStatusCode(400);
+            return;
+        }
+
+        List<TaskCancellation> cancellations = new ArrayList<>();
+        for (String specificationId : new LinkedHashSet<>(specificationIds)) {
+            cancellations.addAll(workerService.cancelTasks(specificationId));
+        }
+        if (cancellations.isEmpty()) {
+            exchange.setStatusCode(404);
+            return;
+        }
+        CompletableFuture<Void> done = CompletableFuture.allOf(cancellations.stream().map(TaskCancellation::completion).toArray(CompletableFuture[]::new))
+                .completeOnTimeout(null, timeout.toMillis(), TimeUnit.MILLISECONDS);
+        exchange.dispatch(SameThreadExecutor.INSTANCE, () -> done.whenComplete((result, throwable) -> {
+            boolean allDone = cancellations.stream().allMatch(cancellation -> cancellation.status() == TaskCancellation.Status.DONE);
+            exchange.setStatusCode(allDone ? 200 : 202);
+            exchange.getResponseHeaders().put(Headers.CONTENT_TYPE, "application/json");
+            exchange.getResponseSender().send(jsonParser.toPrettyJSON(cancellations));
+        }));
+    }
 }
@@ -0,0 +1,269 @@
+package io.descoped.dc.server.task;
+
+import io.descoped.dc.server.db.LmdbEnvironment;
+import org.lmdbjava.CursorIterable;
+import org.lmdbjava.Dbi;
+import org.lmdbjava.KeyRange;
+import org.lmdbjava.Txn;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Ring store of finished task runs in LMDB, bounded by a max number of runs and a retention period.
+ * <p>
+ * Runs are keyed by finish time and a sequence number, so the key order is the time index: a time-range query is a
+ * range scan, and the oldest runs are the first keys. Runs beyond the limits are removed from the start of the ring
+ * when a run is appended, so the store never grows beyond its limits and nothing is kept in memory.
+ */
+class TaskHistoryStore implements AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TaskHistoryStore.class);
+    private static final byte VERSION = 1;
+    static final int KEY_SIZE = 16;
+    static final int MAX_ERROR_LENGTH = 4096;
+    // bounds the write transaction of an append that follows a lowered limit
+    static final int MAX_REMOVALS_PER_APPEND = 1000;
+
+    private final LmdbEnvironment lmdbEnvironment;
+    private final Dbi<ByteBuffer> db;
+    private final int maxRuns;
+    private final long retentionMillis;
+    private final Object writeLock = new Object();
+    private final AtomicBoolean closed = new AtomicBoolean();
+    private long size;
+    private long sequence;
+
+    /**
+     * @param maxRuns   the max number of runs
+     * @param retention the max age of a run, or zero to keep runs until the max number of runs is reached
+     */
+    TaskHistoryStore(LmdbEnvironment lmdbEnvironment, int maxRuns, Duration retention) {
+        if (maxRuns < 1) {
+            throw new IllegalArgumentException("maxRuns must be greater than zero: " + maxRuns);
+        }
+        this.lmdbEnvironment = lmdbEnvironment;
+        this.db = lmdbEnvironment.open();
+        this.maxRuns = maxRuns;
+        this.retentionMillis = retention.toMillis();
+        try (Txn<ByteBuffer> txn = lmdbEnvironment.env().txnRead()) {
+            size = db.stat(txn).entries;
+            try (CursorIterable<ByteBuffer> iterable = db.iterate(txn, KeyRange.allBackward())) {
+                for (CursorIterable.KeyVal<ByteBuffer> keyVal : iterable) {
+                    sequence = keyVal.key().getLong(8) + 1;
+                    break;
+                }
+            }
+        }
+        LOG.info("Opened task history with {} runs: {}", size, lmdbEnvironment.getDatabaseDir());
+    }
+
+    void append(Run run) {
+        synchronized (writeLock) {
+            if (closed.get()) {
+                return;
+            }
+            try (Txn<ByteBuffer> txn = lmdbEnvironment.env().txnWrite()) {
+                db.put(txn, key(run.finished, sequence++), run.toByteBuffer());
+                size++;
+                List<ByteBuffer> expired = new ArrayList<>();
+                long cutoff = retentionMillis > 0 ? run.finished - retentionMillis : Long.MIN_VALUE;
+                try (CursorIterable<ByteBuffer> iterable = db.iterate(txn)) {
+                    for (CursorIterable.KeyVal<ByteBuffer> keyVal : iterable) {
+                        boolean full = size - expired.size() > maxRuns;
+                        if (!(full || keyVal.key().getLong(0) < cutoff) || expired.size() == MAX_REMOVALS_PER_APPEND) {
+                            break;
+                        }
+                        expired.add(copy(keyVal.key()));
+                    }
+                }
+                for (ByteBuffer key : expired) {
+                    db.delete(txn, key);
+                }
+                size -= expired.size();
+                txn.commit();
+            }
+        }
+    }
+
+    /**
+     * Returns the runs that finished within the time range, newest first.
+     *
+     * @param fromMillis      the earliest finish time, inclusive
+     * @param toMillis        the latest finish time, inclusive
+     * @param specificationId the specification of the runs, or null for all
+     * @param limit           the max number of runs
+     */
+    List<Run> query(long fromMillis, long toMillis, String specificationId, int limit) {
+        List<Run> runs = new ArrayList<>();
+        if (fromMillis > toMillis || limit < 1) {
+            return runs;
+        }
+        // under the write lock, so the environment can't be closed during the scan
+        synchronized (writeLock) {
+            if (closed.get()) {
+                return runs;
+            }
+            try (Txn<ByteBuffer> txn = lmdbEnvironment.env().txnRead();
+                 CursorIterable<ByteBuffer> iterable = db.iterate(txn, KeyRange.closedBackward(key(toMillis, Long.MAX_VALUE), key(fromMillis, 0)))) {
+                for (CursorIterable.KeyVal<ByteBuffer> keyVal : iterable) {
+                    Run run = Run.fromByteBuffer(keyVal.key().getLong(0), keyVal.val());
+                    if (specificationId == null || specificationId.equals(run.specificationId)) {
+                        runs.add(run);
+                        if (runs.size() == limit) {
+                            break;
+                        }
+                    }
+                }
+            }
+        }
+        return runs;
+    }
+
+    long size() {
+        synchronized (writeLock) {
+            return size;
+        }
+    }
+
+    static ByteBuffer key(long finishedMillis, long sequence) {
+        return ByteBuffer.allocateDirect(KEY_SIZE).putLong(Math.max(0, finishedMillis)).putLong(sequence).flip();
+    }
+
+    private static ByteBuffer copy(ByteBuffer key) {
+        return ByteBuffer.allocateDirect(key.remaining()).put(key.duplicate()).flip();
+    }
+
+    @Override
+    public void close() {
+        synchronized (writeLock) {
+            if (closed.compareAndSet(false, true)) {
+                lmdbEnvironment.close();
+            }
+        }
+    }
+
+    /**
+     * The immutable record of one finished task. The binary encoding starts with a version byte, so the format can
+     * evolve.
+     */
+    static class Run {
+        final UUID taskId;
+        final String specificationId;
+        final String specificationName;
+        final String status;
+        final String error;
+        final long started;
+        final long finished;
+        final long positions;
+        final long documents;
+        final long bytes;
+        final Map<String, String> lastPositions;
+
+        Run(UUID taskId, String specificationId, String specificationName, String status, String error, long started,
+            long finished, long positions, long documents, long bytes, Map<String, String> lastPositions) {
+            this.taskId = taskId;
+            this.specificationId = specificationId;
+            this.specificationName = specificationName;
+            this.status = status;
+            this.error = error == null || error.length() <= MAX_ERROR_LENGTH ? error : error.substring(0, MAX_ERROR_LENGTH);
+            this.started = started;
+            this.finished = finished;
+            this.positions = positions;
+            this.documents = documents;
+            this.bytes = bytes;
+            this.lastPositions = lastPositions;
+        }
+
+        TaskRun view() {
+            return new TaskRun(taskId.toString(), specificationId, specificationName, status, error, started, finished,
+                    positions, documents, bytes, lastPositions);
+        }
+
+        ByteBuffer toByteBuffer() {
+            List<byte[]> strings = new ArrayList<>();
+            strings.add(bytes(specificationId));
+            strings.add(bytes(specificationName));
+            strings.add(bytes(status));
+            strings.add(bytes(error));
+            for (Map.Entry<String, String> entry : lastPositions.entrySet()) {
+                strings.add(bytes(entry.getKey()));
+                strings.add(bytes(entry.getValue()));
+            }
+            int size = 1 + 16 + 8 + 8 + 8 + 8 + 4;
+            for (byte[] string : strings) {
+                size += 4 + (string == null ? 0 : string.length);
+            }
+            ByteBuffer buffer = ByteBuffer.allocateDirect(size);
+            buffer.put(VERSION);
+            buffer.putLong(taskId.getMostSignificantBits());
+            buffer.putLong(taskId.getLeastSignificantBits());
+            buffer.putLong(started);
+            buffer.putLong(positions);
+            buffer.putLong(documents);
+            buffer.putLong(bytes);
+            buffer.putInt(lastPositions.size());
+            for (byte[] string : strings) {
+                putBytes(buffer, string);
+            }
+            return buffer.flip();
+        }
+
+        static Run fromByteBuffer(long finished, ByteBuffer buffer) {
+            byte version = buffer.get();
+            if (version != VERSION) {
+                throw new IllegalStateException("Unsupported task run version: " + version);
+            }
+            UUID taskId = new UUID(buffer.getLong(), buffer.getLong());
+            long started = buffer.getLong();
+            long positions = buffer.getLong();
+            long documents = buffer.getLong();
+            long bytes = buffer.getLong();
+            int count = buffer.getInt();
+            String specificationId = getString(buffer);
+            String specificationName = getString(buffer);
+            String status = getString(buffer);
+            String error = getString(buffer);
+            Map<String, String> lastPositions = new LinkedHashMap<>();
+            for (int n = 0; n < count; n++) {
+                lastPositions.put(getString(buffer), getString(buffer));
+            }
+            return new Run(taskId, specificationId, specificationName, status, error, started, finished, positions, documents,
+                    bytes, Collections.unmodifiableMap(lastPositions));
+        }
+
+        private static byte[] bytes(String string) {
+            return string == null ? null : string.getBytes(UTF_8);
+        }
+
+        private static void putBytes(ByteBuffer buffer, byte[] bytes) {
+            if (bytes == null) {
+                buffer.putInt(-1);
+                return;
+            }
+            buffer.putInt(bytes.length);
+            buffer.put(bytes);
+        }
+
+        private static String getString(ByteBuffer buffer) {
+            int length = buffer.getInt();
+            if (length < 0) {
+                return null;
+            }
+            byte[] bytes = new byte[length];
+            buffer.get(bytes);
+            return new String(bytes, UTF_8);
+        }
+    }
+}
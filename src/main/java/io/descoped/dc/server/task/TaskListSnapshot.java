@@ -0,0 +1,167 @@
+package io.descoped.dc.server.task;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * Copy-on-write snapshot of the task list, updated when a task is registered, started and removed, and when the
+ * resource usage of running tasks is refreshed.
+ * <p>
+ * Readers get an immutable {@link View} without locking. Each view has a version that changes on every update, and
+ * it caches the rendered pages that have been requested for it, so repeated polls for an unchanged task list are
+ * served without filtering or serializing the tasks again.
+ */
+class TaskListSnapshot {
+
+    static final int MAX_CACHED_PAGES = 64;
+
+    // tells the versions of a restarted server apart
+    private final String epoch = Long.toHexString(System.currentTimeMillis());
+    private final Map<String, WorkManager.Task> taskById = new TreeMap<>();
+    private volatile View view = new View(epoch, 0, List.of());
+
+    synchronized void put(WorkManager.Task task) {
+        taskById.put(task.taskId, task);
+        publish();
+    }
+
+    /**
+     * Replaces the tasks that are still in the list with the same status, and publishes a new view only if any of them
+     * changed. A task whose status has changed in between was updated by a newer put.
+     */
+    synchronized void update(List<WorkManager.Task> tasks) {
+        boolean changed = false;
+        for (WorkManager.Task task : tasks) {
+            WorkManager.Task current = taskById.get(task.taskId);
+            if (current != null && current.status == task.status && !current.equals(task)) {
+                taskById.put(task.taskId, task);
+                changed = true;
+            }
+        }
+        if (changed) {
+            publish();
+        }
+    }
+
+    synchronized void remove(String taskId) {
+        if (taskById.remove(taskId) != null) {
+            publish();
+        }
+    }
+
+    private void publish() {
+        view = new View(epoch, view.version + 1, List.copyOf(taskById.values()));
+    }
+
+    View view() {
+        return view;
+    }
+
+    static class View {
+        final long version;
+        final String etag;
+        final List<WorkManager.Task> tasks;
+        final String[] taskIds;
+        final Map<Query, Page> pageByQuery = new ConcurrentHashMap<>();
+
+        View(String epoch, long version, List<WorkManager.Task> tasks) {
+            this.version = version;
+            this.etag = "\"" + epoch + "-" + version + "\"";
+            this.tasks = tasks;
+            this.taskIds = tasks.stream().map(task -> task.taskId).toArray(String[]::new);
+        }
+
+        /**
+         * Returns the tasks after the cursor (a task id) that match the filters, sorted by task id. The page is rendered
+         * once per view and query.
+         */
+        Page page(Query query, Function<List<WorkManager.Task>, String> renderer) {
+            Page page = pageByQuery.get(query);
+            if (page != null) {
+                return page;
+            }
+            page = createPage(query, renderer);
+            if (pageByQuery.size() < MAX_CACHED_PAGES) {
+                pageByQuery.put(query, page);
+            }
+            return page;
+        }
+
+        private Page createPage(Query query, Function<List<WorkManager.Task>, String> renderer) {
+            int from = 0;
+            if (query.cursor != null) {
+                int index = Arrays.binarySearch(taskIds, query.cursor);
+                from = index >= 0 ? index + 1 : -index - 1;
+            }
+            List<WorkManager.Task> pageTasks = new ArrayList<>(Math.min(query.limit, tasks.size()));
+            String nextCursor = null;
+            for (int i = from; i < tasks.size(); i++) {
+                WorkManager.Task task = tasks.get(i);
+                if (!query.matches(task)) {
+                    continue;
+                }
+                if (pageTasks.size() == query.limit) {
+                    nextCursor = pageTasks.get(pageTasks.size() - 1).taskId;
+                    break;
+                }
+                pageTasks.add(task);
+            }
+            return new Page(renderer.apply(pageTasks).getBytes(StandardCharsets.UTF_8), nextCursor);
+        }
+    }
+
+    static class Query {
+        final String specificationId;
+        final WorkManager.TaskStatus status;
+        final String cursor;
+        final int limit;
+
+        Query(String specificationId, WorkManager.TaskStatus status, String cursor, int limit) {
+            if (limit < 1) {
+                throw new IllegalArgumentException("limit must be greater than zero: " + limit);
+            }
+            this.specificationId = specificationId;
+            this.status = status;
+            this.cursor = cursor;
+            this.limit = limit;
+        }
+
+        boolean matches(WorkManager.Task task) {
+            return (specificationId == null || specificationId.equals(task.specificationId)) &&
+                    (status == null || status == task.status);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Query query = (Query) o;
+            return limit == query.limit &&
+                    Objects.equals(specificationId, query.specificationId) &&
+                    status == query.status &&
+                    Objects.equals(cursor, query.cursor);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(specificationId, status, cursor, limit);
+        }
+    }
+
+    static class Page {
+        final byte[] body;
+        final String nextCursor;
+
+        Page(byte[] body, String nextCursor) {
+            this.body = body;
+            this.nextCursor = nextCursor;
+        }
+    }
+}
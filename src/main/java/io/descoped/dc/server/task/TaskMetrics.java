@@ -0,0 +1,212 @@
+package io.descoped.dc.server.task;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import io.descoped.dc.core.executor.WorkerStatus;
+import io.descoped.dc.core.health.HealthWorkerMonitor;
+import io.descoped.dc.server.content.InterceptingContentStore;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Live throughput and latency of one task, recorded from the content store of its worker.
+ * <p>
+ * Upstream latency is the HTTP request duration of each upstream response, however many documents the response is
+ * split into. Stage time is the total time spent in
+ * the upstream requests, buffering and publishing. The worker status is taken from the {@link HealthWorkerMonitor}
+ * that is registered for the worker when it starts. The CPU time and allocated bytes of the worker threads are read
+ * from its {@link WorkerResources} tracker, if any.
+ */
+class TaskMetrics implements InterceptingContentStore.Listener {
+
+    private final long createdNanos = System.nanoTime();
+    private final RateMeter positions = new RateMeter();
+    private final RateMeter documents = new RateMeter();
+    private final RateMeter bytes = new RateMeter();
+    private final LatencyHistogram upstreamLatency = new LatencyHistogram();
+    private final LatencyHistogram bufferLatency = new LatencyHistogram();
+    private final LatencyHistogram publishLatency = new LatencyHistogram();
+    private final LongAdder upstreamNanos = new LongAdder();
+    private final LongAdder bufferNanos = new LongAdder();
+    private final LongAdder publishNanos = new LongAdder();
+    private final Map<String, String> lastPositionByTopic = new ConcurrentHashMap<>();
+    private final WorkerResources.Tracker resources;
+    private volatile HealthWorkerMonitor monitor;
+    private volatile long startedMillis;
+
+    TaskMetrics() {
+        this(null);
+    }
+
+    TaskMetrics(WorkerResources.Tracker resources) {
+        this.resources = resources;
+    }
+
+    /**
+     * Called when the worker starts.
+     */
+    void monitor(HealthWorkerMonitor monitor) {
+        this.monitor = monitor;
+        this.startedMillis = System.currentTimeMillis();
+    }
+
+    @Override
+    public void onResponse(String url, int statusCode, long durationNanos) {
+        upstreamLatency.record(durationNanos);
+        upstreamNanos.add(durationNanos);
+    }
+
+    @Override
+    public void afterBuffer(String topic, String position, int bytes, long durationNanos) {
+        this.documents.record(1);
+        this.bytes.record(bytes);
+        bufferLatency.record(durationNanos);
+        bufferNanos.add(durationNanos);
+    }
+
+    @Override
+    public void afterPublish(String topic, String[] positions, long durationNanos) {
+        this.positions.record(positions.length);
+        if (topic != null && positions.length > 0) {
+            lastPositionByTopic.put(topic, positions[positions.length - 1]);
+        }
+        publishLatency.record(durationNanos);
+        publishNanos.add(durationNanos);
+    }
+
+    WorkerStatus workerStatus() {
+        HealthWorkerMonitor healthWorkerMonitor = monitor;
+        return healthWorkerMonitor == null ? null : healthWorkerMonitor.status();
+    }
+
+    long startedMillis() {
+        return startedMillis;
+    }
+
+    long positions() {
+        return positions.total();
+    }
+
+    long documents() {
+        return documents.total();
+    }
+
+    long bytes() {
+        return bytes.total();
+    }
+
+    Map<String, String> lastPositions() {
+        return new TreeMap<>(lastPositionByTopic);
+    }
+
+    long cpuMillis() {
+        return resources == null ? 0 : TimeUnit.NANOSECONDS.toMillis(resources.cpuNanos());
+    }
+
+    long allocatedBytes() {
+        return resources == null ? 0 : resources.allocatedBytes();
+    }
+
+    /**
+     * Called when the worker has finished.
+     */
+    void release() {
+        if (resources != null) {
+            resources.release();
+        }
+    }
+
+    Snapshot snapshot(WorkManager.JobId jobId) {
+        HealthWorkerMonitor healthWorkerMonitor = monitor;
+        Map<String, Long> stageMillis = new LinkedHashMap<>();
+        stageMillis.put("upstream", TimeUnit.NANOSECONDS.toMillis(upstreamNanos.sum()));
+        stageMillis.put("buffer", TimeUnit.NANOSECONDS.toMillis(bufferNanos.sum()));
+        stageMillis.put("publish", TimeUnit.NANOSECONDS.toMillis(publishNanos.sum()));
+        return new Snapshot(
+                jobId.workerId.toString(),
+                jobId.specificationId,
+                jobId.status(),
+                healthWorkerMonitor == null ? null : healthWorkerMonitor.status(),
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - createdNanos),
+                new Rate(positions),
+                new Rate(documents),
+                new Rate(bytes),
+                upstreamLatency.snapshot(),
+                bufferLatency.snapshot(),
+                publishLatency.snapshot(),
+                stageMillis,
+                cpuMillis(),
+                allocatedBytes()
+        );
+    }
+
+    public static class Rate {
+        @JsonProperty("total")
+        public final long total;
+        @JsonProperty("per-second")
+        public final double perSecond;
+        @JsonProperty("average-per-second")
+        public final double averagePerSecond;
+
+        Rate(RateMeter rateMeter) {
+            this.total = rateMeter.total();
+            this.perSecond = rateMeter.currentRate();
+            this.averagePerSecond = rateMeter.averageRate();
+        }
+    }
+
+    public static class Snapshot {
+        @JsonProperty("task-id")
+        public final String taskId;
+        @JsonProperty("specification-id")
+        public final String specificationId;
+        @JsonProperty("status")
+        public final WorkManager.TaskStatus status;
+        @JsonProperty("worker-status")
+        public final WorkerStatus workerStatus;
+        @JsonProperty("elapsed-ms")
+        public final long elapsedMillis;
+        @JsonProperty("positions")
+        public final Rate positions;
+        @JsonProperty("documents")
+        public final Rate documents;
+        @JsonProperty("bytes")
+        public final Rate bytes;
+        @JsonProperty("upstream-latency")
+        public final LatencyHistogram.Snapshot upstreamLatency;
+        @JsonProperty("buffer-latency")
+        public final LatencyHistogram.Snapshot bufferLatency;
+        @JsonProperty("publish-latency")
+        public final LatencyHistogram.Snapshot publishLatency;
+        @JsonProperty("stage-time-ms")
+        public final Map<String, Long> stageTimeMillis;
+        @JsonProperty("cpu-ms")
+        public final long cpuMillis;
+        @JsonProperty("allocated-bytes")
+        public final long allocatedBytes;
+
+        Snapshot(String taskId, String specificationId, WorkManager.TaskStatus status, WorkerStatus workerStatus,
+                 long elapsedMillis, Rate positions, Rate documents, Rate bytes, LatencyHistogram.Snapshot upstreamLatency,
+                 LatencyHistogram.Snapshot bufferLatency, LatencyHistogram.Snapshot publishLatency, Map<String, Long> stageTimeMillis,
+                 long cpuMillis, long allocatedBytes) {
+            this.taskId = taskId;
+            this.specificationId = specificationId;
+            this.status = status;
+            this.workerStatus = workerStatus;
+            this.elapsedMillis = elapsedMillis;
+            this.positions = positions;
+            this.documents = documents;
+            this.bytes = bytes;
+            this.upstreamLatency = upstreamLatency;
+            this.bufferLatency = bufferLatency;
+            this.publishLatency = publishLatency;
+            this.stageTimeMillis = stageTimeMillis;
+            this.cpuMillis = cpuMillis;
+            this.allocatedBytes = allocatedBytes;
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package io.descoped.dc.server.task;
+
+/**
+ * Priority class of a submitted task. Queued tasks are started by weighted fair queuing across the classes, so a
+ * class gets a share of the free worker slots that is proportional to its weight. Lower classes are slowed down, but
+ * never starved.
+ */
+public enum TaskPriority {
+
+    HIGH(8),
+    NORMAL(4),
+    LOW(1);
+
+    final int weight;
+
+    TaskPriority(int weight) {
+        this.weight = weight;
+    }
+
+    static TaskPriority parse(String value) {
+        if (value == null || value.isEmpty()) {
+            return NORMAL;
+        }
+        return TaskPriority.valueOf(value.toUpperCase());
+    }
+}
@@ -0,0 +1,297 @@
+package io.descoped.dc.server.task;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import io.descoped.dc.server.content.InterceptingContentStore;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Profiles where the worker threads of one task spend wall time, CPU time and allocations.
+ * <p>
+ * The execution plan runs inside the worker, so the profile is cut at the content store calls of the worker threads.
+ * A thread's time from the end of one call to the start of the next is the "process" node, i.e. the parsing,
+ * splitting and sequencing of the execution plan, minus the upstream request of the response that it produced, which
+ * is the "fetch" node. Each call is counted in the "buffer" node by document kind, or in the "publish" node, and by
+ * topic. A call includes the time other listeners hold it back, e.g. by the content budget. The time
+ * of a thread before its first call is not profiled. CPU time and allocations of the upstream requests are spent on
+ * the threads of the HTTP client, so only their wall time is known.
+ * <p>
+ * The counters are read from the {@link ThreadMXBean} of the current thread, which is cheap on HotSpot. A counter
+ * that isn't supported is reported as zero.
+ */
+class TaskProfiler implements InterceptingContentStore.Listener {
+
+    static final String FETCH = "fetch";
+    static final String PROCESS = "process";
+    static final String BUFFER = "buffer";
+    static final String PUBLISH = "publish";
+
+    private final Counters counters;
+    private final long startedNanos;
+    private final Node root = new Node("task");
+    private final Node fetch = root.child(FETCH);
+    private final Node process = root.child(PROCESS);
+    private final Node buffer = root.child(BUFFER);
+    private final Node publish = root.child(PUBLISH);
+    private final Map<Thread, Mark> marks = new ConcurrentHashMap<>();
+    private volatile long finishedNanos = -1;
+
+    TaskProfiler() {
+        this(Counters.THREAD);
+    }
+
+    TaskProfiler(Counters counters) {
+        this.counters = counters;
+        this.startedNanos = counters.nanoTime();
+    }
+
+    @Override
+    public void beforeCall(String method, String topic) {
+        Mark mark = marks.computeIfAbsent(Thread.currentThread(), thread -> new Mark());
+        long nanos = counters.nanoTime();
+        long cpuNanos = counters.cpuNanos();
+        long allocatedBytes = counters.allocatedBytes();
+        if (mark.nanos >= 0) {
+            mark.processNanos = nanos - mark.nanos;
+            process.record(mark.processNanos, delta(cpuNanos, mark.cpuNanos), delta(allocatedBytes, mark.allocatedBytes));
+        }
+        mark.set(nanos, cpuNanos, allocatedBytes);
+    }
+
+    @Override
+    public void onResponse(String url, int statusCode, long durationNanos) {
+        Mark mark = marks.get(Thread.currentThread());
+        if (durationNanos < 0) {
+            return;
+        }
+        fetch.record(durationNanos, 0, 0);
+        if (mark != null && mark.processNanos > 0) {
+            // the request was made by the execution plan before this call, so it is part of the process time
+            long fetchNanos = Math.min(durationNanos, mark.processNanos);
+            process.wallNanos.add(-fetchNanos);
+            mark.processNanos = 0;
+        }
+    }
+
+    @Override
+    public void afterCall(String method, String topic) {
+        Mark mark = marks.get(Thread.currentThread());
+        if (mark == null) {
+            return;
+        }
+        long nanos = counters.nanoTime();
+        long cpuNanos = counters.cpuNanos();
+        long allocatedBytes = counters.allocatedBytes();
+        Node node = "publish".equals(method) ? publish : buffer.child(documentKind(method));
+        node.child(String.valueOf(topic)).record(nanos - mark.nanos, delta(cpuNanos, mark.cpuNanos),
+                delta(allocatedBytes, mark.allocatedBytes));
+        mark.set(nanos, cpuNanos, allocatedBytes);
+        mark.processNanos = 0;
+    }
+
+    @Override
+    public void onClose() {
+        finishedNanos = counters.nanoTime();
+        marks.clear();
+    }
+
+    static String documentKind(String method) {
+        switch (method) {
+            case "addPaginationDocument":
+                return "page";
+            case "bufferPaginationEntryDocument":
+                return "entry";
+            default:
+                return "document";
+        }
+    }
+
+    private static long delta(long value, long previous) {
+        return value < 0 || previous < 0 ? 0 : Math.max(0, value - previous);
+    }
+
+    /**
+     * Returns the profile tree. The wall time of the task is the elapsed time of the profile, while the nodes below
+     * are summed over all worker threads.
+     */
+    Profile profile(String taskId, String specificationId) {
+        long finished = finishedNanos;
+        long elapsedNanos = (finished < 0 ? counters.nanoTime() : finished) - startedNanos;
+        return new Profile(taskId, specificationId, finished >= 0, root.view(elapsedNanos));
+    }
+
+    private static class Mark {
+        long nanos = -1;
+        long cpuNanos;
+        long allocatedBytes;
+        long processNanos;
+
+        void set(long nanos, long cpuNanos, long allocatedBytes) {
+            this.nanos = nanos;
+            this.cpuNanos = cpuNanos;
+            this.allocatedBytes = allocatedBytes;
+        }
+    }
+
+    static class Node {
+        final String name;
+        final LongAdder count = new LongAdder();
+        final LongAdder wallNanos = new LongAdder();
+        final LongAdder cpuNanos = new LongAdder();
+        final LongAdder allocatedBytes = new LongAdder();
+        // insertion ordered, so the nodes are listed in pipeline order
+        final Map<String, Node> children = Collections.synchronizedMap(new LinkedHashMap<>());
+
+        Node(String name) {
+            this.name = name;
+        }
+
+        Node child(String name) {
+            return children.computeIfAbsent(name, Node::new);
+        }
+
+        void record(long wallNanos, long cpuNanos, long allocatedBytes) {
+            count.increment();
+            this.wallNanos.add(wallNanos);
+            this.cpuNanos.add(cpuNanos);
+            this.allocatedBytes.add(allocatedBytes);
+        }
+
+        /**
+         * A node without own records is the sum of its children.
+         */
+        ProfileNode view(long rootWallNanos) {
+            List<ProfileNode> childViews = new ArrayList<>();
+            synchronized (children) {
+                for (Node child : children.values()) {
+                    childViews.add(child.view(-1));
+                }
+            }
+            long nodeCount = count.sum();
+            long wall = nodeCount > 0 ? wallNanos.sum() : 0;
+            long cpu = cpuNanos.sum();
+            long allocated = allocatedBytes.sum();
+            if (nodeCount == 0) {
+                for (ProfileNode child : childViews) {
+                    nodeCount += child.count;
+                    wall += child.wallNanos;
+                    cpu += child.cpuNanos;
+                    allocated += child.allocatedBytes;
+                }
+            }
+            return new ProfileNode(name, nodeCount, rootWallNanos >= 0 ? rootWallNanos : Math.max(0, wall), cpu, allocated, childViews);
+        }
+    }
+
+    /**
+     * The counters of the current thread.
+     */
+    interface Counters {
+
+        Counters THREAD = new ThreadCounters();
+
+        long nanoTime();
+
+        /**
+         * @return the CPU time of the current thread, or -1 if not supported
+         */
+        long cpuNanos();
+
+        /**
+         * @return the bytes allocated by the current thread, or -1 if not supported
+         */
+        long allocatedBytes();
+    }
+
+    static class ThreadCounters implements Counters {
+
+        private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        private final com.sun.management.ThreadMXBean allocations = threads instanceof com.sun.management.ThreadMXBean ?
+                (com.sun.management.ThreadMXBean) threads : null;
+        private final boolean cpuSupported = threads.isCurrentThreadCpuTimeSupported();
+        private final boolean allocationsSupported = allocations != null && allocations.isThreadAllocatedMemorySupported();
+
+        @Override
+        public long nanoTime() {
+            return System.nanoTime();
+        }
+
+        @Override
+        public long cpuNanos() {
+            try {
+                return cpuSupported ? threads.getCurrentThreadCpuTime() : -1;
+            } catch (UnsupportedOperationException e) {
+                return -1;
+            }
+        }
+
+        @Override
+        public long allocatedBytes() {
+            try {
+                return allocationsSupported ? allocations.getCurrentThreadAllocatedBytes() : -1;
+            } catch (UnsupportedOperationException e) {
+                return -1;
+            }
+        }
+    }
+
+    public static class Profile {
+        @JsonProperty("task-id")
+        public final String taskId;
+        @JsonProperty("specification-id")
+        public final String specificationId;
+        @JsonProperty("finished")
+        public final boolean finished;
+        @JsonProperty("root")
+        public final ProfileNode root;
+
+        Profile(String taskId, String specificationId, boolean finished, ProfileNode root) {
+            this.taskId = taskId;
+            this.specificationId = specificationId;
+            this.finished = finished;
+            this.root = root;
+        }
+    }
+
+    public static class ProfileNode {
+        @JsonProperty("name")
+        public final String name;
+        @JsonProperty("count")
+        public final long count;
+        @JsonProperty("wall-ms")
+        public final double wallMillis;
+        @JsonProperty("cpu-ms")
+        public final double cpuMillis;
+        @JsonProperty("allocated-bytes")
+        public final long allocatedBytes;
+        @JsonProperty("children")
+        public final List<ProfileNode> children;
+
+        final long wallNanos;
+        final long cpuNanos;
+
+        ProfileNode(String name, long count, long wallNanos, long cpuNanos, long allocatedBytes, List<ProfileNode> children) {
+            this.name = name;
+            this.count = count;
+            this.wallNanos = wallNanos;
+            this.cpuNanos = cpuNanos;
+            this.wallMillis = millis(wallNanos);
+            this.cpuMillis = millis(cpuNanos);
+            this.allocatedBytes = allocatedBytes;
+            this.children = children;
+        }
+
+        static double millis(long nanos) {
+            return TimeUnit.NANOSECONDS.toMicros(nanos) / 1000.0;
+        }
+    }
+}
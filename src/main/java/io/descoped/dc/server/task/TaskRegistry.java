@@ -0,0 +1,103 @@
+package io.descoped.dc.server.task;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Registry of running tasks indexed by worker id and by specification id.
+ * <p>
+ * Both indexes are updated with per-key atomic operations. A task is added to the specification index before the
+ * worker index on registration, and removed from the worker index before the specification index on remove, so
+ * {@link #contains(String)} never reports a specification as idle while one of its tasks is still reachable.
+ */
+class TaskRegistry {
+
+    private final Map<UUID, Entry> byWorkerId = new ConcurrentHashMap<>();
+    private final Map<String, Map<UUID, Entry>> bySpecificationId = new ConcurrentHashMap<>();
+
+    /**
+     * Registers the task unless a task of the same specification is already registered. The check and the
+     * registration are one atomic operation on the specification index. Returns false if the task was not registered.
+     */
+    boolean registerIfIdle(WorkManager.JobId jobId) {
+        Entry entry = new Entry(jobId);
+        Map<UUID, Entry> registered = bySpecificationId.compute(jobId.specificationId, (specificationId, entries) -> {
+            if (entries != null) {
+                return entries;
+            }
+            Map<UUID, Entry> specificationEntries = new ConcurrentHashMap<>();
+            specificationEntries.put(jobId.workerId, entry);
+            return specificationEntries;
+        });
+        if (registered.get(jobId.workerId) != entry) {
+            return false;
+        }
+        byWorkerId.put(jobId.workerId, entry);
+        return true;
+    }
+
+    /**
+     * Attaches the worker future once a registered (queued) task has been started.
+     */
+    void attach(UUID workerId, CompletableFuture<?> future) {
+        Entry entry = byWorkerId.get(workerId);
+        if (entry != null) {
+            entry.future = future;
+        }
+    }
+
+    WorkManager.JobId get(UUID workerId) {
+        Entry entry = byWorkerId.get(workerId);
+        return entry == null ? null : entry.jobId;
+    }
+
+    boolean contains(String specificationId) {
+        return bySpecificationId.containsKey(specificationId);
+    }
+
+    List<WorkManager.JobId> getBySpecificationId(String specificationId) {
+        Map<UUID, Entry> entries = bySpecificationId.get(specificationId);
+        if (entries == null) {
+            return Collections.emptyList();
+        }
+        List<WorkManager.JobId> jobIds = new ArrayList<>(entries.size());
+        entries.values().forEach(entry -> jobIds.add(entry.jobId));
+        return jobIds;
+    }
+
+    WorkManager.JobId remove(UUID workerId) {
+        Entry entry = byWorkerId.remove(workerId);
+        if (entry == null) {
+            return null;
+        }
+        bySpecificationId.computeIfPresent(entry.jobId.specificationId, (specificationId, entries) -> {
+            entries.remove(workerId);
+            return entries.isEmpty() ? null : entries;
+        });
+        return entry.jobId;
+    }
+
+    List<WorkManager.JobId> list() {
+        List<WorkManager.JobId> jobIds = new ArrayList<>(byWorkerId.size());
+        byWorkerId.values().forEach(entry -> jobIds.add(entry.jobId));
+        return jobIds;
+    }
+
+    int size() {
+        return byWorkerId.size();
+    }
+
+    static class Entry {
+        final WorkManager.JobId jobId;
+        volatile CompletableFuture<?> future;
+
+        Entry(WorkManager.JobId jobId) {
+            this.jobId = jobId;
+        }
+    }
+}
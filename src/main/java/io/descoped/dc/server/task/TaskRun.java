@@ -0,0 +1,61 @@
+package io.descoped.dc.server.task;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.time.Instant;
+import java.util.Map;
+
+public class TaskRun {
+
+    @JsonProperty("task-id")
+    public final String taskId;
+    @JsonProperty("specification-id")
+    public final String specificationId;
+    @JsonProperty("specification-name")
+    public final String specificationName;
+    @JsonProperty("status")
+    public final String status;
+    @JsonProperty("error")
+    public final String error;
+    @JsonProperty("started")
+    public final String started;
+    @JsonProperty("finished")
+    public final String finished;
+    @JsonProperty("duration-ms")
+    public final long durationMillis;
+    @JsonProperty("positions")
+    public final long positions;
+    @JsonProperty("documents")
+    public final long documents;
+    @JsonProperty("bytes")
+    public final long bytes;
+    @JsonProperty("last-positions")
+    public final Map<String, String> lastPositions;
+
+    TaskRun(String taskId, String specificationId, String specificationName, String status, String error, long started,
+            long finished, long positions, long documents, long bytes, Map<String, String> lastPositions) {
+        this.taskId = taskId;
+        this.specificationId = specificationId;
+        this.specificationName = specificationName;
+        this.status = status;
+        this.error = error;
+        this.started = started == 0 ? null : Instant.ofEpochMilli(started).toString();
+        this.finished = Instant.ofEpochMilli(finished).toString();
+        this.durationMillis = started == 0 ? 0 : finished - started;
+        this.positions = positions;
+        this.documents = documents;
+        this.bytes = bytes;
+        this.lastPositions = lastPositions;
+    }
+
+    @Override
+    public String toString() {
+        return "TaskRun{" +
+                "taskId='" + taskId + '\'' +
+                ", specificationId='" + specificationId + '\'' +
+                ", status='" + status + '\'' +
+                ", finished='" + finished + '\'' +
+                ", durationMillis=" + durationMillis +
+                '}';
+    }
+}
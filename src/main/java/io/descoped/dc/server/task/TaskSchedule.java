@@ -0,0 +1,92 @@
+package io.descoped.dc.server.task;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class TaskSchedule {
+
+    @JsonProperty("specification-id")
+    public final String specificationId;
+    @JsonProperty("interval")
+    public final String interval;
+    @JsonProperty("cron")
+    public final String cron;
+    @JsonProperty("jitter")
+    public final String jitter;
+    @JsonProperty("overlap")
+    public final Overlap overlap;
+    @JsonProperty("priority")
+    public final TaskPriority priority;
+    @JsonProperty("weight")
+    public final int weight;
+    @JsonProperty("next-run")
+    public final String nextRun;
+    @JsonProperty("last-run")
+    public final String lastRun;
+    @JsonProperty("fired")
+    public final long fired;
+    @JsonProperty("skipped")
+    public final long skipped;
+    @JsonProperty("coalesced")
+    public final long coalesced;
+    @JsonProperty("rejected")
+    public final long rejected;
+
+    TaskSchedule(String specificationId, String interval, String cron, String jitter, Overlap overlap, TaskPriority priority,
+                 int weight, String nextRun, String lastRun, long fired, long skipped, long coalesced, long rejected) {
+        this.specificationId = specificationId;
+        this.interval = interval;
+        this.cron = cron;
+        this.jitter = jitter;
+        this.overlap = overlap;
+        this.priority = priority;
+        this.weight = weight;
+        this.nextRun = nextRun;
+        this.lastRun = lastRun;
+        this.fired = fired;
+        this.skipped = skipped;
+        this.coalesced = coalesced;
+        this.rejected = rejected;
+    }
+
+    @Override
+    public String toString() {
+        return "TaskSchedule{" +
+                "specificationId='" + specificationId + '\'' +
+                ", interval='" + interval + '\'' +
+                ", cron='" + cron + '\'' +
+                ", jitter='" + jitter + '\'' +
+                ", overlap=" + overlap +
+                ", priority=" + priority +
+                ", weight=" + weight +
+                ", nextRun='" + nextRun + '\'' +
+                ", lastRun='" + lastRun + '\'' +
+                ", fired=" + fired +
+                ", skipped=" + skipped +
+                ", coalesced=" + coalesced +
+                ", rejected=" + rejected +
+                '}';
+    }
+
+    /**
+     * What to do when a schedule fires while the previous run of the specification is still queued or running.
+     */
+    public enum Overlap {
+        /**
+         * Drop the run.
+         */
+        SKIP,
+        /**
+         * Start one run as soon as the previous run completes. Overlapping fires are merged into that single run.
+         */
+        COALESCE;
+
+        static Overlap parse(String value) {
+            if (value == null || value.isEmpty()) {
+                return SKIP;
+            }
+            return Overlap.valueOf(value.toUpperCase());
+        }
+    }
+}
@@ -0,0 +1,301 @@
+package io.descoped.dc.server.task;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import io.descoped.dc.api.util.CommonUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+/**
+ * Periodic submission of specifications, by a fixed interval or a cron expression.
+ * <p>
+ * Each run is delayed by a random jitter between zero and the configured jitter, so schedules that share an interval
+ * or cron expression don't submit at the same instant. The next run is computed from the nominal (unjittered) time
+ * of the previous run, so the jitter doesn't accumulate.
+ * <p>
+ * A schedule that fires while its specification is still queued or running is handled by its {@link
+ * TaskSchedule.Overlap} policy. A coalesced run is submitted by {@link #onTaskFinished(String)}. If that
+ * notification is missed, the run is submitted by the next fire instead.
+ */
+class TaskScheduler {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TaskScheduler.class);
+
+    private final Predicate<String> isRunning;
+    private final Submitter submitter;
+    private final ZoneId zoneId;
+    private final ScheduledExecutorService executor;
+    private final Map<String, Entry> entryBySpecificationId = new ConcurrentHashMap<>();
+
+    private final AtomicLong firedCount = new AtomicLong();
+    private final AtomicLong skippedCount = new AtomicLong();
+    private final AtomicLong coalescedCount = new AtomicLong();
+    private final AtomicLong rejectedCount = new AtomicLong();
+
+    TaskScheduler(Predicate<String> isRunning, Submitter submitter, ZoneId zoneId) {
+        this.isRunning = isRunning;
+        this.submitter = submitter;
+        this.zoneId = zoneId;
+        this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "task-scheduler");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Registers a schedule for the specification. An existing schedule for the same specification is replaced.
+     * Exactly one of interval and cron must be given.
+     */
+    TaskSchedule schedule(String specificationId, String specification, Duration interval, String cron, Duration jitter,
+                          TaskSchedule.Overlap overlap, TaskPriority priority, int weight) {
+        if (specificationId == null || specificationId.isEmpty()) {
+            throw new IllegalArgumentException("The specification id is empty!");
+        }
+        if ((interval == null) == (cron == null)) {
+            throw new IllegalArgumentException("Either interval or cron must be given");
+        }
+        if (interval != null && (interval.isNegative() || interval.isZero())) {
+            throw new IllegalArgumentException("Interval must be positive: " + interval);
+        }
+        if (jitter.isNegative()) {
+            throw new IllegalArgumentException("Jitter must not be negative: " + jitter);
+        }
+        if (weight < 1) {
+            throw new IllegalArgumentException("Task weight must be greater than zero: " + weight);
+        }
+        CronExpression cronExpression = cron == null ? null : CronExpression.parse(cron);
+
+        Entry entry = new Entry(specificationId, specification, interval, cronExpression, jitter, overlap, priority, weight);
+        Entry previous = entryBySpecificationId.put(specificationId, entry);
+        if (previous != null) {
+            previous.cancel();
+            LOG.info("Replaced schedule: {}", specificationId);
+        }
+
+        ZonedDateTime now = ZonedDateTime.now(zoneId);
+        scheduleNext(entry, interval != null ? now : cronExpression.next(now));
+        LOG.info("Scheduled specification: {} [interval: {}, cron: {}, jitter: {}, overlap: {}]", specificationId, interval, cron, jitter, overlap);
+        return entry.view();
+    }
+
+    boolean unschedule(String specificationId) {
+        Entry entry = entryBySpecificationId.remove(specificationId);
+        if (entry == null) {
+            return false;
+        }
+        entry.cancel();
+        LOG.info("Unscheduled specification: {}", specificationId);
+        return true;
+    }
+
+    List<TaskSchedule> list() {
+        List<TaskSchedule> schedules = new ArrayList<>(entryBySpecificationId.size());
+        entryBySpecificationId.values().forEach(entry -> schedules.add(entry.view()));
+        return schedules;
+    }
+
+    /**
+     * Submits a coalesced run once the previous run of the specification has completed.
+     */
+    void onTaskFinished(String specificationId) {
+        Entry entry = entryBySpecificationId.get(specificationId);
+        if (entry == null || !entry.pendingRun.get()) {
+            return;
+        }
+        executor.execute(() -> {
+            if (!entry.cancelled && entry.pendingRun.compareAndSet(true, false)) {
+                submit(entry);
+            }
+        });
+    }
+
+    private void scheduleNext(Entry entry, ZonedDateTime nominal) {
+        long jitterMillis = entry.jitter.toMillis();
+        long delayMillis = Math.max(0, Duration.between(ZonedDateTime.now(zoneId), nominal).toMillis());
+        if (jitterMillis > 0) {
+            delayMillis += ThreadLocalRandom.current().nextLong(jitterMillis + 1);
+        }
+        synchronized (entry) {
+            if (entry.cancelled) {
+                return;
+            }
+            entry.nominal = nominal;
+            entry.nextRun = Instant.now().plusMillis(delayMillis);
+            entry.future = executor.schedule(() -> fire(entry), delayMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void fire(Entry entry) {
+        if (entry.cancelled) {
+            return;
+        }
+        try {
+            if (isRunning.test(entry.specificationId)) {
+                onOverlap(entry);
+            } else {
+                entry.pendingRun.set(false);
+                submit(entry);
+            }
+        } catch (RuntimeException e) {
+            LOG.error("Scheduled run of specification: {} failed!\n{}", entry.specificationId, CommonUtils.captureStackTrace(e));
+        } finally {
+            scheduleNext(entry, nextNominal(entry));
+        }
+    }
+
+    private ZonedDateTime nextNominal(Entry entry) {
+        ZonedDateTime now = ZonedDateTime.now(zoneId);
+        if (entry.cron != null) {
+            return entry.cron.next(now);
+        }
+        ZonedDateTime next = entry.nominal.plus(entry.interval);
+        // don't catch up on runs that were missed while the scheduler thread was busy
+        return next.isBefore(now) ? now : next;
+    }
+
+    private void onOverlap(Entry entry) {
+        if (entry.overlap == TaskSchedule.Overlap.COALESCE) {
+            entry.pendingRun.set(true);
+            entry.coalesced.incrementAndGet();
+            coalescedCount.incrementAndGet();
+            LOG.info("Specification: {} is still running. Coalesced scheduled run.", entry.specificationId);
+        } else {
+            entry.skipped.incrementAndGet();
+            skippedCount.incrementAndGet();
+            LOG.info("Specification: {} is still running. Skipped scheduled run.", entry.specificationId);
+        }
+    }
+
+    private void submit(Entry entry) {
+        entry.lastRun = Instant.now();
+        TaskSubmission submission = submitter.submit(entry.specification, entry.priority, entry.weight);
+        switch (submission.status) {
+            case CREATED:
+            case QUEUED:
+                entry.fired.incrementAndGet();
+                firedCount.incrementAndGet();
+                break;
+            case CONFLICT:
+                // started by someone else in between the running check and the submission
+                onOverlap(entry);
+                break;
+            default:
+                entry.rejected.incrementAndGet();
+                rejectedCount.incrementAndGet();
+                LOG.warn("Scheduled run of specification: {} was rejected. Queue is full!", entry.specificationId);
+        }
+    }
+
+    Stats stats() {
+        return new Stats(entryBySpecificationId.size(), firedCount.get(), skippedCount.get(), coalescedCount.get(), rejectedCount.get());
+    }
+
+    void shutdown() {
+        entryBySpecificationId.values().forEach(Entry::cancel);
+        entryBySpecificationId.clear();
+        executor.shutdownNow();
+    }
+
+    @FunctionalInterface
+    interface Submitter {
+        TaskSubmission submit(String specification, TaskPriority priority, int weight);
+    }
+
+    static class Entry {
+        final String specificationId;
+        final String specification;
+        final Duration interval;
+        final CronExpression cron;
+        final Duration jitter;
+        final TaskSchedule.Overlap overlap;
+        final TaskPriority priority;
+        final int weight;
+        final AtomicBoolean pendingRun = new AtomicBoolean();
+        final AtomicLong fired = new AtomicLong();
+        final AtomicLong skipped = new AtomicLong();
+        final AtomicLong coalesced = new AtomicLong();
+        final AtomicLong rejected = new AtomicLong();
+        volatile boolean cancelled;
+        volatile ZonedDateTime nominal;
+        volatile Instant nextRun;
+        volatile Instant lastRun;
+        ScheduledFuture<?> future;
+
+        Entry(String specificationId, String specification, Duration interval, CronExpression cron, Duration jitter,
+              TaskSchedule.Overlap overlap, TaskPriority priority, int weight) {
+            this.specificationId = specificationId;
+            this.specification = specification;
+            this.interval = interval;
+            this.cron = cron;
+            this.jitter = jitter;
+            this.overlap = overlap;
+            this.priority = priority;
+            this.weight = weight;
+        }
+
+        synchronized void cancel() {
+            cancelled = true;
+            if (future != null) {
+                future.cancel(false);
+            }
+        }
+
+        TaskSchedule view() {
+            Instant next = nextRun;
+            Instant last = lastRun;
+            return new TaskSchedule(
+                    specificationId,
+                    interval == null ? null : interval.toString(),
+                    cron == null ? null : cron.toString(),
+                    jitter.toString(),
+                    overlap,
+                    priority,
+                    weight,
+                    next == null || cancelled ? null : next.toString(),
+                    last == null ? null : last.toString(),
+                    fired.get(),
+                    skipped.get(),
+                    coalesced.get(),
+                    rejected.get()
+            );
+        }
+    }
+
+    public static class Stats {
+        @JsonProperty("schedules")
+        public final int schedules;
+        @JsonProperty("fired")
+        public final long fired;
+        @JsonProperty("skipped")
+        public final long skipped;
+        @JsonProperty("coalesced")
+        public final long coalesced;
+        @JsonProperty("rejected")
+        public final long rejected;
+
+        Stats(int schedules, long fired, long skipped, long coalesced, long rejected) {
+            this.schedules = schedules;
+            this.fired = fired;
+            this.skipped = skipped;
+            this.coalesced = coalesced;
+            this.rejected = rejected;
+        }
+    }
+}
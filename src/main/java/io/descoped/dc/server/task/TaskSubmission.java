@@ -0,0 +1,98 @@
+package io.descoped.dc.server.task;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.util.Objects;
+
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class TaskSubmission {
+
+    @JsonProperty("specification-id")
+    public final String specificationId;
+    @JsonProperty("task-id")
+    public final String taskId;
+    @JsonProperty("status")
+    public final Status status;
+    @JsonProperty("error")
+    public final String error;
+
+    TaskSubmission(String specificationId, String taskId, Status status) {
+        this(specificationId, taskId, status, null);
+    }
+
+    TaskSubmission(String specificationId, String taskId, Status status, String error) {
+        this.specificationId = specificationId;
+        this.taskId = taskId;
+        this.status = status;
+        this.error = error;
+    }
+
+    static TaskSubmission created(String specificationId, String taskId) {
+        return new TaskSubmission(specificationId, taskId, Status.CREATED);
+    }
+
+    static TaskSubmission queued(String specificationId, String taskId) {
+        return new TaskSubmission(specificationId, taskId, Status.QUEUED);
+    }
+
+    static TaskSubmission conflict(String specificationId) {
+        return new TaskSubmission(specificationId, null, Status.CONFLICT);
+    }
+
+    static TaskSubmission rejected(String specificationId) {
+        return new TaskSubmission(specificationId, null, Status.REJECTED);
+    }
+
+    static TaskSubmission invalid(String error) {
+        return new TaskSubmission(null, null, Status.INVALID, error);
+    }
+
+    public boolean isAccepted() {
+        return status == Status.CREATED || status == Status.QUEUED;
+    }
+
+    public int statusCode() {
+        return status.statusCode;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        TaskSubmission that = (TaskSubmission) o;
+        return Objects.equals(specificationId, that.specificationId) &&
+                Objects.equals(taskId, that.taskId) &&
+                status == that.status &&
+                Objects.equals(error, that.error);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(specificationId, taskId, status, error);
+    }
+
+    @Override
+    public String toString() {
+        return "TaskSubmission{" +
+                "specificationId='" + specificationId + '\'' +
+                ", taskId='" + taskId + '\'' +
+                ", status=" + status +
+                ", error='" + error + '\'' +
+                '}';
+    }
+
+    public enum Status {
+        CREATED(201),
+        QUEUED(202),
+        CONFLICT(409),
+        INVALID(400),
+        REJECTED(429);
+
+        final int statusCode;
+
+        Status(int statusCode) {
+            this.statusCode = statusCode;
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package io.descoped.dc.server.task;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * Self-clocked weighted fair queue over the task priority classes.
+ * <p>
+ * Every queued task is given a virtual finish tag: {@code max(virtualTime, lastFinish[class]) + 1 / (classWeight *
+ * taskWeight)}. Poll returns the class head with the smallest tag and advances the virtual time to it. Tasks within a
+ * class are served in FIFO order. A class that has been idle does not bank credit, because its next tag starts at the
+ * current virtual time.
+ * <p>
+ * Not thread-safe. Guarded by the {@link WorkerPool} lock.
+ */
+class WeightedFairQueue<E> {
+
+    private final Map<TaskPriority, Deque<Entry<E>>> queueByPriority = new EnumMap<>(TaskPriority.class);
+    private final Map<TaskPriority, Double> lastFinishByPriority = new EnumMap<>(TaskPriority.class);
+    private double virtualTime;
+    private int size;
+
+    WeightedFairQueue() {
+        for (TaskPriority priority : TaskPriority.values()) {
+            queueByPriority.put(priority, new ArrayDeque<>());
+            lastFinishByPriority.put(priority, 0.0);
+        }
+    }
+
+    void offer(E element, TaskPriority priority, int weight) {
+        if (weight < 1) {
+            throw new IllegalArgumentException("weight must be greater than zero");
+        }
+        double start = Math.max(virtualTime, lastFinishByPriority.get(priority));
+        double finish = start + 1.0 / ((double) priority.weight * weight);
+        lastFinishByPriority.put(priority, finish);
+        queueByPriority.get(priority).offer(new Entry<>(element, finish));
+        size++;
+    }
+
+    E poll() {
+        Deque<Entry<E>> next = null;
+        for (Deque<Entry<E>> queue : queueByPriority.values()) {
+            Entry<E> head = queue.peek();
+            if (head != null && (next == null || head.finish < next.peek().finish)) {
+                next = queue;
+            }
+        }
+        if (next == null) {
+            return null;
+        }
+        Entry<E> entry = next.poll();
+        virtualTime = entry.finish;
+        size--;
+        return entry.element;
+    }
+
+    boolean removeIf(Predicate<E> filter) {
+        boolean removed = false;
+        for (Deque<Entry<E>> queue : queueByPriority.values()) {
+            int before = queue.size();
+            if (queue.removeIf(entry -> filter.test(entry.element))) {
+                size -= before - queue.size();
+                removed = true;
+            }
+        }
+        return removed;
+    }
+
+    int size() {
+        return size;
+    }
+
+    int size(TaskPriority priority) {
+        return queueByPriority.get(priority).size();
+    }
+
+    static class Entry<E> {
+        final E element;
+        final double finish;
+
+        Entry(E element, double finish) {
+            this.element = element;
+            this.finish = finish;
+        }
+    }
+}
@@ -1,102 +1,332 @@
 package io.descoped.dc.server.task;
 
 import com.fasterxml.jackson.annotation.JsonProperty;
-import io.descoped.dc.api.context.ExecutionContext;
 import io.descoped.dc.api.util.CommonUtils;
 import io.descoped.dc.core.executor.Worker;
-import io.descoped.dc.core.executor.WorkerException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
-import java.util.stream.Collectors;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
 
 public class WorkManager {
 
     private static final Logger LOG = LoggerFactory.getLogger(WorkManager.class);
-    private final Map<JobId, CompletableFuture<ExecutionContext>> workerFutures = new ConcurrentHashMap<>();
-    private final Map<String, Lock> lockBySpecificationId = new ConcurrentHashMap<>();
+    static final long RESOURCE_REFRESH_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+    final TaskRegistry registry = new TaskRegistry();
+    final TaskListSnapshot taskList = new TaskListSnapshot();
+    private final WorkerPool workerPool;
+    private final ExecutorService terminator = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "task-terminator");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private volatile BiConsumer<JobId, Throwable> completionListener;
+    private final AtomicLong lastResourceRefreshNanos = new AtomicLong(System.nanoTime());
 
-    WorkManager() {
+    WorkManager(int maxConcurrentWorkers, int queueCapacity) {
+        this.workerPool = new WorkerPool(maxConcurrentWorkers, queueCapacity, this::launch);
     }
 
-    void lock(String specificationId) {
-        Lock lock = lockBySpecificationId.computeIfAbsent(specificationId, l -> new ReentrantLock());
+    boolean isRunning(String specificationId) {
+        return registry.contains(specificationId);
+    }
+
+    /**
+     * Builds and submits the worker. Returns null if a task of the same specification is already queued or running.
+     */
+    Submission submit(Worker.WorkerBuilder workerBuilder, TaskPriority priority, int weight, TaskMetrics metrics,
+                      TaskCheckpointStore.Tracker checkpoint, ContentBudget.Tracker contentBudget) {
+        String specificationId = workerBuilder.getSpecificationBuilder().getId();
+        Worker worker = workerBuilder.build();
+        return submit(new JobId(worker.getWorkerId(), specificationId, worker.getSpecificationName(), worker, priority, weight, metrics,
+                checkpoint, contentBudget));
+    }
+
+    /**
+     * Registers the task and either starts it, queues it until a worker slot is released, or rejects it when the
+     * queue is full. A rejected task is removed from the registry before returning. Queued tasks are started by
+     * weighted fair queuing on priority class and weight.
+     * <p>
+     * The registration is atomic per specification, so at most one task of a specification is queued or running.
+     * Returns null if the specification is already registered.
+     */
+    Submission submit(JobId jobId) {
+        if (!registry.registerIfIdle(jobId)) {
+            return null;
+        }
+        taskList.put(jobId.toTask());
+        WorkerPool.Admission admission = workerPool.submit(jobId);
+        if (admission == WorkerPool.Admission.REJECTED) {
+            complete(jobId);
+            LOG.warn("Rejected worker: {}. Queue is full!", jobId.workerId);
+        } else if (admission == WorkerPool.Admission.QUEUED) {
+            LOG.info("Queued worker: {} [{}, weight: {}]", jobId.workerId, jobId.priority, jobId.weight);
+        }
+
+        return new Submission(jobId, admission);
+    }
+
+    private void launch(JobId jobId) {
+        if (!jobId.transition(TaskStatus.QUEUED, TaskStatus.RUNNING)) {
+            // cancelled in between being dequeued and launched
+            complete(jobId);
+            workerPool.release();
+            return;
+        }
+        // updated before the worker is started, so a fast worker can't be removed from the list before this update
+        publish(jobId);
+        CompletableFuture<?> future;
         try {
-            lock.lockInterruptibly();
-        } catch (InterruptedException e) {
-            throw new WorkerException(e);
+            future = runWorker(jobId);
+        } catch (RuntimeException | Error e) {
+            complete(jobId);
+            throw e;
+        }
+        registry.attach(jobId.workerId, future);
+        future.whenComplete((output, throwable) -> {
+            if (throwable != null) {
+                LOG.error("Worker failed: {}", CommonUtils.captureStackTrace(throwable));
+            }
+            // a worker that fails before its observer is notified is removed here
+            complete(jobId);
+            workerPool.release();
+            BiConsumer<JobId, Throwable> listener = completionListener;
+            if (listener != null) {
+                try {
+                    listener.accept(jobId, throwable);
+                } catch (RuntimeException e) {
+                    LOG.error("Completion listener failed for worker: {}\n{}", jobId.workerId, CommonUtils.captureStackTrace(e));
+                }
+            }
+        });
+        if (jobId.status() == TaskStatus.CANCELLING) {
+            // cancelled in between the transition to running and the start of the worker
+            terminateAsync(jobId);
         }
     }
 
-    void unlock(String specificationId) {
-        Lock lock = lockBySpecificationId.get(specificationId);
-        lock.unlock();
+    /**
+     * Sets a listener that is called once for every started worker when its future completes, with the failure of the
+     * worker or null.
+     */
+    void onWorkerCompleted(BiConsumer<JobId, Throwable> listener) {
+        this.completionListener = listener;
     }
 
-    boolean isRunning(String specificationId) {
-        return workerFutures.keySet().stream().anyMatch(jobId -> jobId.specificationId.equals(specificationId));
+    CompletableFuture<?> runWorker(JobId jobId) {
+        return jobId.worker.runAsync();
     }
 
-    JobId run(Worker.WorkerBuilder workerBuilder) {
-        String specificationId = workerBuilder.getSpecificationBuilder().getId();
-        Worker worker = workerBuilder.build();
-        JobId jobId = new JobId(worker.getWorkerId(), specificationId, worker.getSpecificationName(), worker);
+    void terminateWorker(JobId jobId) {
+        jobId.worker.terminate();
+    }
 
-        CompletableFuture<ExecutionContext> future = worker
-                .runAsync()
-                .handle((output, throwable) -> {
-                    LOG.error("Worker failed: {}", CommonUtils.captureStackTrace(throwable));
-                    return output;
-                });
+    /**
+     * Terminates the worker on a terminator thread, so a cancel doesn't wait for the worker to stop its threads.
+     */
+    private void terminateAsync(JobId jobId) {
+        terminator.execute(() -> {
+            try {
+                terminateWorker(jobId);
+            } catch (RuntimeException e) {
+                LOG.error("Unable to terminate worker: {}\n{}", jobId.workerId, CommonUtils.captureStackTrace(e));
+            }
+        });
+    }
 
-        workerFutures.put(jobId, future);
+    List<Task> list() {
+        return taskList.view().tasks;
+    }
 
-        return jobId;
+    /**
+     * Returns the task list. The resource usage of running tasks in the list is refreshed at most once per refresh
+     * interval, so polls of an unchanged task list are still served from the cached pages of the view in between.
+     */
+    TaskListSnapshot.View taskListView() {
+        long now = System.nanoTime();
+        long lastRefresh = lastResourceRefreshNanos.get();
+        if (now - lastRefresh >= RESOURCE_REFRESH_INTERVAL_NANOS && lastResourceRefreshNanos.compareAndSet(lastRefresh, now)) {
+            List<Task> running = new ArrayList<>();
+            for (JobId jobId : registry.list()) {
+                if (jobId.status() == TaskStatus.RUNNING || jobId.status() == TaskStatus.CANCELLING) {
+                    running.add(jobId.toTask());
+                }
+            }
+            taskList.update(running);
+        }
+        return taskList.view();
     }
 
-    List<Task> list() {
-        return workerFutures.keySet().stream()
-                .map(jobId -> new Task(jobId.workerId.toString(), jobId.specificationId, jobId.specificationName))
-                .collect(Collectors.toList());
+    WorkerPool.Stats poolStats() {
+        return workerPool.stats();
     }
 
+    /**
+     * Cancels a task. A queued task is removed from the queue and completed. A running task is moved to CANCELLING
+     * and terminated, and is completed when its worker finishes. Returns false if the task is not found or has
+     * already completed.
+     */
     boolean cancel(UUID workerId) {
-        if (list().stream().noneMatch(task -> task.taskId.equals(workerId.toString()))) {
+        return cancelAsync(workerId) != null;
+    }
+
+    /**
+     * Cancels a task like {@link #cancel(UUID)} without waiting for the worker to be terminated. Returns a future
+     * that completes when the task is done, or null if the task is not found or has already completed.
+     */
+    CompletableFuture<Void> cancelAsync(UUID workerId) {
+        JobId jobId = registry.get(workerId);
+        if (jobId == null) {
             LOG.warn("Cannot cancel workerId: {}. Not found!", workerId);
-            return false;
+            return null;
         }
 
-        JobId jobId = workerFutures.keySet().stream().filter(key -> key.workerId.equals(workerId)).findFirst().orElseThrow();
-        LOG.warn("Cancel worker: {}", jobId.workerId);
-        jobId.worker.terminate();
-        return true;
+        if (jobId.transition(TaskStatus.QUEUED, TaskStatus.CANCELLING)) {
+            // if the task was dequeued in between, the launch sees CANCELLING and completes it instead
+            if (workerPool.cancelQueued(jobId)) {
+                complete(jobId);
+            }
+            LOG.warn("Cancel queued worker: {}", jobId.workerId);
+            return jobId.completion.copy();
+        }
+
+        if (jobId.transition(TaskStatus.RUNNING, TaskStatus.CANCELLING)) {
+            publish(jobId);
+            LOG.warn("Cancel worker: {}", jobId.workerId);
+            terminateAsync(jobId);
+            return jobId.completion.copy();
+        }
+
+        return jobId.status() == TaskStatus.CANCELLING ? jobId.completion.copy() : null;
+    }
+
+    /**
+     * Cancels the tasks of a specification. Returns the task ids and the futures that complete when each task is done.
+     */
+    Map<UUID, CompletableFuture<Void>> cancelSpecification(String specificationId) {
+        Map<UUID, CompletableFuture<Void>> completions = new LinkedHashMap<>();
+        for (JobId jobId : registry.getBySpecificationId(specificationId)) {
+            CompletableFuture<Void> completion = cancelAsync(jobId.workerId);
+            if (completion != null) {
+                completions.put(jobId.workerId, completion);
+            }
+        }
+        return completions;
     }
 
     JobId get(UUID workerId) {
-        return workerFutures.keySet().stream().filter(key -> key.workerId.equals(workerId)).findFirst().orElse(null);
+        return registry.get(workerId);
     }
 
     void remove(UUID workerId) {
-        JobId jobId = workerFutures.keySet().stream().filter(key -> key.workerId.equals(workerId)).findFirst().orElseThrow();
-        if (workerFutures.remove(jobId) != null) {
-            LOG.info("Removed Worker: {}", workerId);
-        } else {
-            LOG.error("Unable to remove Worker: {}", workerId);
+        JobId jobId = registry.get(workerId);
+        if (jobId == null || !complete(jobId)) {
+            LOG.debug("Worker: {} is already removed", workerId);
+        }
+    }
+
+    /**
+     * Moves the task to DONE and removes it from the registry and the task list. Only the call that makes the
+     * transition removes the task, so completion by the worker observer and by the worker future can race.
+     */
+    private boolean complete(JobId jobId) {
+        if (!jobId.done()) {
+            return false;
+        }
+        if (jobId.metrics != null) {
+            jobId.metrics.release();
+        }
+        // the worker observer and the content store are not told about every end of a worker, e.g. a failed worker,
+        // and the resources are released before the task is removed, so a task that is gone holds none
+        if (jobId.contentBudget != null) {
+            jobId.contentBudget.release();
+        }
+        registry.remove(jobId.workerId);
+        taskList.remove(jobId.workerId.toString());
+        LOG.info("Removed Worker: {}", jobId.workerId);
+        jobId.completion.complete(null);
+        return true;
+    }
+
+    /**
+     * Updates the status in the task list. The status is read after the update, so a task that completed in
+     * between is not left behind in the list.
+     */
+    private void publish(JobId jobId) {
+        taskList.put(jobId.toTask());
+        if (jobId.status() == TaskStatus.DONE) {
+            taskList.remove(jobId.workerId.toString());
         }
     }
 
-    void cancel() {
-        CompletableFuture.allOf(workerFutures.values().toArray(new CompletableFuture[0]))
-                .completeOnTimeout(null, 0, TimeUnit.MILLISECONDS);
+    /**
+     * Cancels all tasks and waits until they are done or the timeout has elapsed. The queued tasks are cancelled
+     * first, so they aren't started by the slots released by the running tasks, and the running workers are
+     * terminated in parallel. Returns false if some tasks were still running at the timeout.
+     */
+    boolean drain(Duration timeout) {
+        List<CompletableFuture<Void>> completions = new ArrayList<>();
+        List<JobId> jobIds = registry.list();
+        for (TaskStatus status : List.of(TaskStatus.QUEUED, TaskStatus.RUNNING, TaskStatus.CANCELLING)) {
+            for (JobId jobId : jobIds) {
+                if (jobId.status() == status) {
+                    CompletableFuture<Void> completion = cancelAsync(jobId.workerId);
+                    if (completion != null) {
+                        completions.add(completion);
+                    }
+                }
+            }
+        }
+        boolean drained = false;
+        try {
+            CompletableFuture.allOf(completions.toArray(new CompletableFuture[0])).get(timeout.toMillis(), TimeUnit.MILLISECONDS);
+            drained = true;
+        } catch (TimeoutException e) {
+            LOG.warn("{} tasks were not done within the shutdown timeout of {}", registry.size(), timeout);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            // the completion futures are only completed normally
+            throw new IllegalStateException(e);
+        }
+        terminator.shutdown();
+        return drained;
+    }
+
+    /**
+     * The lifecycle of a task. Transitions are made by compare-and-set on the task: QUEUED to RUNNING on launch,
+     * QUEUED or RUNNING to CANCELLING on cancel, and any state to DONE on completion.
+     */
+    enum TaskStatus {
+        QUEUED,
+        RUNNING,
+        CANCELLING,
+        DONE;
+    }
+
+    static class Submission {
+        final JobId jobId;
+        final WorkerPool.Admission admission;
+
+        Submission(JobId jobId, WorkerPool.Admission admission) {
+            this.jobId = jobId;
+            this.admission = admission;
+        }
     }
 
     static class JobId {
@@ -104,12 +334,58 @@ public class WorkManager {
         final String specificationId;
         final String specificationName;
         final Worker worker;
+        final TaskPriority priority;
+        final int weight;
+        final TaskMetrics metrics;
+        final TaskCheckpointStore.Tracker checkpoint;
+        final ContentBudget.Tracker contentBudget;
+        private final AtomicReference<TaskStatus> status = new AtomicReference<>(TaskStatus.QUEUED);
+        // completed when the task is done and removed from the registry
+        private final CompletableFuture<Void> completion = new CompletableFuture<>();
 
         JobId(UUID workerId, String specificationId, String specificationName, Worker worker) {
+            this(workerId, specificationId, specificationName, worker, TaskPriority.NORMAL, 1);
+        }
+
+        JobId(UUID workerId, String specificationId, String specificationName, Worker worker, TaskPriority priority, int weight) {
+            this(workerId, specificationId, specificationName, worker, priority, weight, null);
+        }
+
+        JobId(UUID workerId, String specificationId, String specificationName, Worker worker, TaskPriority priority, int weight, TaskMetrics metrics) {
+            this(workerId, specificationId, specificationName, worker, priority, weight, metrics, null, null);
+        }
+
+        JobId(UUID workerId, String specificationId, String specificationName, Worker worker, TaskPriority priority, int weight, TaskMetrics metrics,
+              TaskCheckpointStore.Tracker checkpoint, ContentBudget.Tracker contentBudget) {
             this.workerId = workerId;
             this.specificationId = specificationId;
             this.specificationName = specificationName;
             this.worker = worker;
+            this.priority = priority;
+            this.weight = weight;
+            this.metrics = metrics;
+            this.checkpoint = checkpoint;
+            this.contentBudget = contentBudget;
+        }
+
+        TaskStatus status() {
+            return status.get();
+        }
+
+        boolean transition(TaskStatus expected, TaskStatus next) {
+            return status.compareAndSet(expected, next);
+        }
+
+        /**
+         * Returns true if this call moved the task to DONE.
+         */
+        boolean done() {
+            return status.getAndSet(TaskStatus.DONE) != TaskStatus.DONE;
+        }
+
+        Task toTask() {
+            return new Task(workerId.toString(), specificationId, specificationName, status.get(), priority, weight,
+                    metrics == null ? 0 : metrics.cpuMillis(), metrics == null ? 0 : metrics.allocatedBytes());
         }
 
         @Override
@@ -132,6 +408,8 @@ public class WorkManager {
                     "workerId=" + workerId +
                     ", specificationId='" + specificationId + '\'' +
                     ", specificationName='" + specificationName + '\'' +
+                    ", priority=" + priority +
+                    ", weight=" + weight +
                     '}';
         }
     }
@@ -143,11 +421,27 @@ public class WorkManager {
         public final String specificationId;
         @JsonProperty("description")
         public final String description;
+        @JsonProperty("status")
+        public final TaskStatus status;
+        @JsonProperty("priority")
+        public final TaskPriority priority;
+        @JsonProperty("weight")
+        public final int weight;
+        @JsonProperty("cpu-ms")
+        public final long cpuMillis;
+        @JsonProperty("allocated-bytes")
+        public final long allocatedBytes;
 
-        Task(String taskId, String specificationId, String description) {
+        Task(String taskId, String specificationId, String description, TaskStatus status, TaskPriority priority, int weight,
+             long cpuMillis, long allocatedBytes) {
             this.taskId = taskId;
             this.specificationId = specificationId;
             this.description = description;
+            this.status = status;
+            this.priority = priority;
+            this.weight = weight;
+            this.cpuMillis = cpuMillis;
+            this.allocatedBytes = allocatedBytes;
         }
 
         @Override
@@ -157,12 +451,17 @@ public class WorkManager {
             Task task = (Task) o;
             return taskId.equals(task.taskId) &&
                     specificationId.equals(task.specificationId) &&
-                    Objects.equals(description, task.description);
+                    Objects.equals(description, task.description) &&
+                    status == task.status &&
+                    priority == task.priority &&
+                    weight == task.weight &&
+                    cpuMillis == task.cpuMillis &&
+                    allocatedBytes == task.allocatedBytes;
         }
 
         @Override
         public int hashCode() {
-            return Objects.hash(taskId, specificationId, description);
+            return Objects.hash(taskId, specificationId, description, status, priority, weight, cpuMillis, allocatedBytes);
         }
 
         @Override
@@ -171,6 +470,9 @@ public class WorkManager {
                     "taskd='" + taskId + '\'' +
                     ", specificationId='" + specificationId + '\'' +
                     ", description='" + description + '\'' +
+                    ", status=" + status +
+                    ", priority=" + priority +
+                    ", weight=" + weight +
                     '}';
         }
     }
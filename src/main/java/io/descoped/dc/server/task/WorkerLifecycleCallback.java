@@ -10,16 +10,12 @@ import io.descoped.dc.core.executor.WorkerStatus;
 public class WorkerLifecycleCallback {
 
     enum Kind {
-        ON_START_BEFORE_TRY_LOCK,
-        ON_START_AFTER_TRY_LOCK,
-        ON_START_BEFORE_UNLOCK,
-        ON_START_AFTER_UNLOCK,
-        ON_FINISH_BEFORE_TRY_LOCK,
-        ON_FINISH_AFTER_TRY_LOCK,
+        ON_START_BEGIN,
+        ON_START_END,
+        ON_FINISH_BEGIN,
         ON_FINISH_BEFORE_REMOVE_WORKER,
         ON_FINISH_AFTER_REMOVE_WORKER,
-        ON_FINISH_BEFORE_UNLOCK,
-        ON_FINISH_AFTER_UNLOCK;
+        ON_FINISH_END;
     }
 
     final Kind kind;
@@ -0,0 +1,278 @@
+package io.descoped.dc.server.task;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import io.descoped.dc.api.util.CommonUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * Admission control for workers. At most maxConcurrentWorkers run at the same time, and up to queueCapacity
+ * submissions wait for a free slot. Submissions beyond that are rejected. Free slots are given to the waiting
+ * submissions by weighted fair queuing on their priority class and weight (see {@link WeightedFairQueue}).
+ * <p>
+ * The launcher is always invoked outside the pool lock.
+ */
+class WorkerPool {
+
+    private static final Logger LOG = LoggerFactory.getLogger(WorkerPool.class);
+
+    private final int maxConcurrentWorkers;
+    private final int queueCapacity;
+    private final Consumer<WorkManager.JobId> launcher;
+    private final Lock lock = new ReentrantLock();
+    private final WeightedFairQueue<Pending> pending = new WeightedFairQueue<>();
+    private int inFlight;
+
+    private final AtomicLong submittedCount = new AtomicLong();
+    private final AtomicLong startedCount = new AtomicLong();
+    private final AtomicLong queuedCount = new AtomicLong();
+    private final AtomicLong rejectedCount = new AtomicLong();
+    private final AtomicLong totalWaitNanos = new AtomicLong();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+    private final AtomicLong dequeuedCount = new AtomicLong();
+    private final Map<TaskPriority, QueueLatency> queueLatencyByPriority = new EnumMap<>(TaskPriority.class);
+
+    WorkerPool(int maxConcurrentWorkers, int queueCapacity, Consumer<WorkManager.JobId> launcher) {
+        if (maxConcurrentWorkers < 1) {
+            throw new IllegalArgumentException("maxConcurrentWorkers must be greater than zero");
+        }
+        if (queueCapacity < 0) {
+            throw new IllegalArgumentException("queueCapacity must not be negative");
+        }
+        this.maxConcurrentWorkers = maxConcurrentWorkers;
+        this.queueCapacity = queueCapacity;
+        this.launcher = launcher;
+        for (TaskPriority priority : TaskPriority.values()) {
+            queueLatencyByPriority.put(priority, new QueueLatency());
+        }
+    }
+
+    Admission submit(WorkManager.JobId jobId) {
+        submittedCount.incrementAndGet();
+        lock.lock();
+        try {
+            if (inFlight >= maxConcurrentWorkers) {
+                if (pending.size() >= queueCapacity) {
+                    rejectedCount.incrementAndGet();
+                    return Admission.REJECTED;
+                }
+                pending.offer(new Pending(jobId, System.nanoTime()), jobId.priority, jobId.weight);
+                queuedCount.incrementAndGet();
+                queueLatencyByPriority.get(jobId.priority).queued.incrementAndGet();
+                return Admission.QUEUED;
+            }
+            inFlight++;
+        } finally {
+            lock.unlock();
+        }
+        launch(jobId);
+        return Admission.STARTED;
+    }
+
+    /**
+     * Frees the slot held by a started worker and launches the next queued worker, if any.
+     */
+    void release() {
+        Pending next;
+        lock.lock();
+        try {
+            next = pending.poll();
+            if (next == null) {
+                inFlight--;
+                return;
+            }
+        } finally {
+            lock.unlock();
+        }
+        long waitNanos = System.nanoTime() - next.enqueuedNanos;
+        dequeuedCount.incrementAndGet();
+        totalWaitNanos.addAndGet(waitNanos);
+        maxWaitNanos.accumulateAndGet(waitNanos, Math::max);
+        queueLatencyByPriority.get(next.jobId.priority).record(waitNanos);
+        launch(next.jobId);
+    }
+
+    /**
+     * Removes a worker that is still waiting in the queue. Returns false if the worker has already been started.
+     */
+    boolean cancelQueued(WorkManager.JobId jobId) {
+        lock.lock();
+        try {
+            return pending.removeIf(p -> p.jobId.equals(jobId));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void launch(WorkManager.JobId jobId) {
+        startedCount.incrementAndGet();
+        try {
+            launcher.accept(jobId);
+        } catch (RuntimeException | Error e) {
+            LOG.error("Unable to launch worker: {}\n{}", jobId.workerId, CommonUtils.captureStackTrace(e));
+            release();
+            throw e;
+        }
+    }
+
+    int queueDepth() {
+        lock.lock();
+        try {
+            return pending.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int queueDepth(TaskPriority priority) {
+        lock.lock();
+        try {
+            return pending.size(priority);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int inFlight() {
+        lock.lock();
+        try {
+            return inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    Stats stats() {
+        long dequeued = dequeuedCount.get();
+        Map<TaskPriority, PriorityStats> priorityStats = new LinkedHashMap<>();
+        queueLatencyByPriority.forEach((priority, latency) -> priorityStats.put(priority, latency.stats(priority, queueDepth(priority))));
+        return new Stats(
+                maxConcurrentWorkers,
+                queueCapacity,
+                inFlight(),
+                queueDepth(),
+                submittedCount.get(),
+                startedCount.get(),
+                queuedCount.get(),
+                rejectedCount.get(),
+                dequeued == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(totalWaitNanos.get() / dequeued),
+                TimeUnit.NANOSECONDS.toMillis(maxWaitNanos.get()),
+                priorityStats
+        );
+    }
+
+    enum Admission {
+        STARTED,
+        QUEUED,
+        REJECTED;
+    }
+
+    static class Pending {
+        final WorkManager.JobId jobId;
+        final long enqueuedNanos;
+
+        Pending(WorkManager.JobId jobId, long enqueuedNanos) {
+            this.jobId = jobId;
+            this.enqueuedNanos = enqueuedNanos;
+        }
+    }
+
+    static class QueueLatency {
+        final AtomicLong queued = new AtomicLong();
+        final AtomicLong dequeued = new AtomicLong();
+        final AtomicLong totalWaitNanos = new AtomicLong();
+        final AtomicLong maxWaitNanos = new AtomicLong();
+
+        void record(long waitNanos) {
+            dequeued.incrementAndGet();
+            totalWaitNanos.addAndGet(waitNanos);
+            maxWaitNanos.accumulateAndGet(waitNanos, Math::max);
+        }
+
+        PriorityStats stats(TaskPriority priority, int queueDepth) {
+            long dequeuedCount = dequeued.get();
+            return new PriorityStats(
+                    priority.weight,
+                    queueDepth,
+                    queued.get(),
+                    dequeuedCount,
+                    dequeuedCount == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(totalWaitNanos.get() / dequeuedCount),
+                    TimeUnit.NANOSECONDS.toMillis(maxWaitNanos.get())
+            );
+        }
+    }
+
+    public static class PriorityStats {
+        @JsonProperty("weight")
+        public final int weight;
+        @JsonProperty("queue-depth")
+        public final int queueDepth;
+        @JsonProperty("queued")
+        public final long queued;
+        @JsonProperty("dequeued")
+        public final long dequeued;
+        @JsonProperty("average-queue-wait-ms")
+        public final long averageQueueWaitMillis;
+        @JsonProperty("max-queue-wait-ms")
+        public final long maxQueueWaitMillis;
+
+        PriorityStats(int weight, int queueDepth, long queued, long dequeued, long averageQueueWaitMillis, long maxQueueWaitMillis) {
+            this.weight = weight;
+            this.queueDepth = queueDepth;
+            this.queued = queued;
+            this.dequeued = dequeued;
+            this.averageQueueWaitMillis = averageQueueWaitMillis;
+            this.maxQueueWaitMillis = maxQueueWaitMillis;
+        }
+    }
+
+    public static class Stats {
+        @JsonProperty("max-concurrent-workers")
+        public final int maxConcurrentWorkers;
+        @JsonProperty("queue-capacity")
+        public final int queueCapacity;
+        @JsonProperty("in-flight")
+        public final int inFlight;
+        @JsonProperty("queue-depth")
+        public final int queueDepth;
+        @JsonProperty("submitted")
+        public final long submitted;
+        @JsonProperty("started")
+        public final long started;
+        @JsonProperty("queued")
+        public final long queued;
+        @JsonProperty("rejected")
+        public final long rejected;
+        @JsonProperty("average-queue-wait-ms")
+        public final long averageQueueWaitMillis;
+        @JsonProperty("max-queue-wait-ms")
+        public final long maxQueueWaitMillis;
+        @JsonProperty("priority-classes")
+        public final Map<TaskPriority, PriorityStats> priorityClasses;
+
+        Stats(int maxConcurrentWorkers, int queueCapacity, int inFlight, int queueDepth, long submitted, long started,
+              long queued, long rejected, long averageQueueWaitMillis, long maxQueueWaitMillis,
+              Map<TaskPriority, PriorityStats> priorityClasses) {
+            this.maxConcurrentWorkers = maxConcurrentWorkers;
+            this.queueCapacity = queueCapacity;
+            this.inFlight = inFlight;
+            this.queueDepth = queueDepth;
+            this.submitted = submitted;
+            this.started = started;
+            this.queued = queued;
+            this.rejected = rejected;
+            this.averageQueueWaitMillis = averageQueueWaitMillis;
+            this.maxQueueWaitMillis = maxQueueWaitMillis;
+            this.priorityClasses = priorityClasses;
+        }
+    }
+}
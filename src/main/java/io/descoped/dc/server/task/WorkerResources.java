@@ -0,0 +1,161 @@
+package io.descoped.dc.server.task;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import io.descoped.dc.server.content.InterceptingContentStore;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Accounts the CPU time and allocated bytes of worker threads per worker, and in total per specification.
+ * <p>
+ * Workers share pooled threads, and the threads of a worker aren't known outside the worker, so the counters of a
+ * thread are read at every content store call it makes, and the CPU time and allocations since its previous call are
+ * charged to the worker of the call. The work of a thread after its last call, and of threads that never call the
+ * content store, e.g. the threads of the HTTP client, is not counted. Counters that the JVM doesn't support for a
+ * thread are counted as zero.
+ */
+class WorkerResources {
+
+    private final TaskProfiler.Counters counters;
+    // the counters of the thread at its previous call: CPU time and allocated bytes
+    private final ThreadLocal<long[]> marks = ThreadLocal.withInitial(() -> new long[]{-1, -1});
+    private final Set<Tracker> running = ConcurrentHashMap.newKeySet();
+    private final Map<String, Usage> finishedBySpecification = new ConcurrentHashMap<>();
+
+    WorkerResources() {
+        this(TaskProfiler.Counters.THREAD);
+    }
+
+    WorkerResources(TaskProfiler.Counters counters) {
+        this.counters = counters;
+    }
+
+    Tracker tracker(String specificationId) {
+        Tracker tracker = new Tracker(specificationId);
+        running.add(tracker);
+        return tracker;
+    }
+
+    private void account(Tracker tracker) {
+        long[] mark = marks.get();
+        long cpuNanos = counters.cpuNanos();
+        long allocatedBytes = counters.allocatedBytes();
+        if (cpuNanos >= 0 && mark[0] >= 0) {
+            tracker.cpuNanos.add(Math.max(0, cpuNanos - mark[0]));
+        }
+        if (allocatedBytes >= 0 && mark[1] >= 0) {
+            tracker.allocatedBytes.add(Math.max(0, allocatedBytes - mark[1]));
+        }
+        mark[0] = cpuNanos;
+        mark[1] = allocatedBytes;
+    }
+
+    /**
+     * Returns the usage per specification of the running and finished tasks since the server was started.
+     */
+    Stats stats() {
+        Map<String, Usage> usageBySpecification = new TreeMap<>();
+        finishedBySpecification.forEach((specificationId, usage) -> usageBySpecification.merge(specificationId, usage.copy(), Usage::add));
+        for (Tracker tracker : running) {
+            Usage usage = new Usage();
+            usage.record(tracker);
+            usageBySpecification.merge(tracker.specificationId, usage, Usage::add);
+        }
+        return new Stats(usageBySpecification);
+    }
+
+    /**
+     * The usage of one worker.
+     */
+    class Tracker implements InterceptingContentStore.Listener {
+        final String specificationId;
+        private final LongAdder cpuNanos = new LongAdder();
+        private final LongAdder allocatedBytes = new LongAdder();
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        Tracker(String specificationId) {
+            this.specificationId = specificationId;
+        }
+
+        @Override
+        public void beforeCall(String method, String topic) {
+            account(this);
+        }
+
+        @Override
+        public void afterCall(String method, String topic) {
+            account(this);
+        }
+
+        long cpuNanos() {
+            return cpuNanos.sum();
+        }
+
+        long allocatedBytes() {
+            return allocatedBytes.sum();
+        }
+
+        /**
+         * Called when the worker has finished, so its usage is added to the total of its specification.
+         */
+        void release() {
+            if (released.compareAndSet(false, true)) {
+                finishedBySpecification.computeIfAbsent(specificationId, id -> new Usage()).record(this);
+                running.remove(this);
+            }
+        }
+    }
+
+    static class Usage {
+        final LongAdder tasks = new LongAdder();
+        final LongAdder cpuNanos = new LongAdder();
+        final LongAdder allocatedBytes = new LongAdder();
+
+        void record(Tracker tracker) {
+            tasks.increment();
+            cpuNanos.add(tracker.cpuNanos());
+            allocatedBytes.add(tracker.allocatedBytes());
+        }
+
+        Usage copy() {
+            return new Usage().add(this);
+        }
+
+        Usage add(Usage other) {
+            tasks.add(other.tasks.sum());
+            cpuNanos.add(other.cpuNanos.sum());
+            allocatedBytes.add(other.allocatedBytes.sum());
+            return this;
+        }
+    }
+
+    public static class SpecificationUsage {
+        @JsonProperty("tasks")
+        public final long tasks;
+        @JsonProperty("cpu-ms")
+        public final long cpuMillis;
+        @JsonProperty("allocated-bytes")
+        public final long allocatedBytes;
+
+        SpecificationUsage(Usage usage) {
+            this.tasks = usage.tasks.sum();
+            this.cpuMillis = TimeUnit.NANOSECONDS.toMillis(usage.cpuNanos.sum());
+            this.allocatedBytes = usage.allocatedBytes.sum();
+        }
+    }
+
+    public static class Stats {
+        @JsonProperty("by-specification")
+        public final Map<String, SpecificationUsage> bySpecification = new TreeMap<>();
+
+        Stats(Map<String, Usage> usageBySpecification) {
+            usageBySpecification.forEach((specificationId, usage) -> bySpecification.put(specificationId, new SpecificationUsage(usage)));
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package io.descoped.dc.server.task;
 
 import io.descoped.config.DynamicConfiguration;
+import io.descoped.dc.api.Specification;
 import io.descoped.dc.api.content.ContentStore;
 import io.descoped.dc.api.node.builder.SpecificationBuilder;
 import io.descoped.dc.api.util.CommonUtils;
@@ -12,22 +13,34 @@ import io.descoped.dc.core.executor.Worker;
 import io.descoped.dc.core.executor.WorkerObservable;
 import io.descoped.dc.core.executor.WorkerObserver;
 import io.descoped.dc.core.executor.WorkerStatus;
-import io.descoped.dc.core.health.HealthWorkerHistoryResource;
 import io.descoped.dc.core.health.HealthWorkerMonitor;
 import io.descoped.dc.core.health.HealthWorkerResource;
 import io.descoped.dc.server.content.ContentStoreComponent;
+import io.descoped.dc.server.content.InterceptingContentStore;
+import io.descoped.dc.server.db.LmdbEnvironment;
 import io.descoped.dc.server.ssl.BusinessSSLResourceComponent;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Consumer;
 
+import static io.descoped.dc.server.db.SequenceDbHelper.getSequenceDatabaseLocation;
+
 public class WorkerService implements Service {
 
     private static final Logger LOG = LoggerFactory.getLogger(WorkerService.class);
@@ -35,12 +48,22 @@ public class WorkerService implements Service {
     private final DynamicConfiguration configuration;
     private final MetricsResourceFactory metricsResourceFactory;
     private final HealthResourceFactory healthResourceFactory;
-    private final WorkManager workManager = new WorkManager();
+    private final WorkManager workManager;
     private final BusinessSSLResourceComponent businessSSLResourceComponent;
     private final boolean printExecutionPlan;
     private final WorkerObserver workerObserver;
     private final Consumer<WorkerLifecycleCallback> workerLifecycleCallback;
     private final ContentStore contentStore;
+    private final TaskScheduler taskScheduler;
+    private final Map<String, String> workerConfiguration;
+    private final SpecificationCache specificationCache;
+    private final TaskCheckpointStore checkpointStore;
+    private final ContentBudget contentBudget;
+    private final TaskHistoryStore historyStore;
+    private final Map<UUID, TaskHistoryStore.Run> recentRuns;
+    private final Map<UUID, TaskProfile> profiles;
+    private final WorkerResources workerResources;
+    private final Duration shutdownTimeout;
 
     public WorkerService(DynamicConfiguration configuration,
                          MetricsResourceFactory metricsResourceFactory,
@@ -66,111 +89,408 @@ public class WorkerService implements Service {
         this.workerLifecycleCallback = workerLifecycleCallback;
         this.workerObserver = new WorkerObserver(this::onWorkerStart, this::onWorkerFinish);
         this.contentStore = contentStoreComponent.getDelegate();
+        // the configuration is immutable once the server has started, so workers share one copy of it
+        this.workerConfiguration = configuration.asMap();
+        int specificationCacheSize = configuration.evaluateToString("data.collector.task.specificationCache.size") != null ?
+                configuration.evaluateToInt("data.collector.task.specificationCache.size") : 256;
+        this.specificationCache = new SpecificationCache(specificationCacheSize, workerConfiguration.hashCode() + "/" + printExecutionPlan);
+        int maxConcurrentWorkers = configuration.evaluateToString("data.collector.task.maxConcurrentWorkers") != null ?
+                configuration.evaluateToInt("data.collector.task.maxConcurrentWorkers") : 256;
+        int queueCapacity = configuration.evaluateToString("data.collector.task.queueCapacity") != null ?
+                configuration.evaluateToInt("data.collector.task.queueCapacity") : 1024;
+        this.workManager = new WorkManager(maxConcurrentWorkers, queueCapacity);
+        String schedulerTimeZone = configuration.evaluateToString("data.collector.task.scheduler.timeZone");
+        this.taskScheduler = new TaskScheduler(workManager::isRunning,
+                this::submitTask,
+                schedulerTimeZone == null ? ZoneId.systemDefault() : ZoneId.of(schedulerTimeZone));
+        boolean checkpointEnabled = configuration.evaluateToString("data.collector.task.checkpoint.enabled") != null &&
+                configuration.evaluateToBoolean("data.collector.task.checkpoint.enabled");
+        int checkpointFlushIntervalMillis = configuration.evaluateToString("data.collector.task.checkpoint.flushIntervalMillis") != null ?
+                configuration.evaluateToInt("data.collector.task.checkpoint.flushIntervalMillis") : 1000;
+        // off by default: a worker over the budget blocks until others publish
+        long contentBudgetMaxBytes = configuration.evaluateToString("data.collector.task.contentBudget.maxBytes") != null ?
+                Long.parseLong(configuration.evaluateToString("data.collector.task.contentBudget.maxBytes")) : 0;
+        this.contentBudget = contentBudgetMaxBytes > 0 ? new ContentBudget(contentBudgetMaxBytes,
+                configuration.evaluateToString("data.collector.task.contentBudget.maxBytesPerTopic") != null ?
+                        Long.parseLong(configuration.evaluateToString("data.collector.task.contentBudget.maxBytesPerTopic")) : 0,
+                Duration.ofMillis(configuration.evaluateToString("data.collector.task.contentBudget.maxWaitMillis") != null ?
+                        configuration.evaluateToInt("data.collector.task.contentBudget.maxWaitMillis") : 30000)) :
+                null;
+        this.checkpointStore = checkpointEnabled ?
+                new TaskCheckpointStore(new LmdbEnvironment(configuration, getSequenceDatabaseLocation(configuration), "task-checkpoints"),
+                        Duration.ofMillis(checkpointFlushIntervalMillis)) :
+                null;
+        boolean historyEnabled = configuration.evaluateToString("data.collector.task.history.enabled") != null &&
+                configuration.evaluateToBoolean("data.collector.task.history.enabled");
+        int maxHistoryRuns = configuration.evaluateToString("data.collector.task.history.maxRuns") != null ?
+                configuration.evaluateToInt("data.collector.task.history.maxRuns") : 10000;
+        this.historyStore = historyEnabled ?
+                new TaskHistoryStore(new LmdbEnvironment(configuration, getSequenceDatabaseLocation(configuration), "task-history"),
+                        maxHistoryRuns,
+                        Duration.ofDays(configuration.evaluateToString("data.collector.task.history.retentionDays") != null ?
+                                configuration.evaluateToInt("data.collector.task.history.retentionDays") : 30)) :
+                null;
+        // the newest runs, evicting the oldest, when the task history store is disabled
+        this.recentRuns = historyStore != null ? null : Collections.synchronizedMap(new LinkedHashMap<>() {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<UUID, TaskHistoryStore.Run> eldest) {
+                return size() > maxHistoryRuns;
+            }
+        });
+        workManager.onWorkerCompleted(this::recordRun);
+        boolean resourcesEnabled = configuration.evaluateToString("data.collector.task.resources.enabled") == null ||
+                configuration.evaluateToBoolean("data.collector.task.resources.enabled");
+        this.workerResources = resourcesEnabled ? new WorkerResources() : null;
+        this.shutdownTimeout = Duration.ofMillis(configuration.evaluateToString("data.collector.task.shutdownTimeoutMillis") != null ?
+                configuration.evaluateToInt("data.collector.task.shutdownTimeoutMillis") : 10000);
+        int maxProfiles = configuration.evaluateToString("data.collector.task.profile.maxProfiles") != null ?
+                configuration.evaluateToInt("data.collector.task.profile.maxProfiles") : 32;
+        // the profiles of the latest profiled tasks, so a profile can be read after its task has finished
+        this.profiles = Collections.synchronizedMap(new LinkedHashMap<>() {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<UUID, TaskProfile> eldest) {
+                return size() > maxProfiles;
+            }
+        });
     }
 
     void onWorkerStart(WorkerObservable observable) {
         Optional<Consumer<WorkerLifecycleCallback>> workerLifecycleConsumer = Optional.ofNullable(this.workerLifecycleCallback);
         AtomicReference<WorkerStatus> workerStatus = new AtomicReference<>(WorkerStatus.RUNNING);
 
-        workerLifecycleConsumer.ifPresent(callback -> callback.accept(new WorkerLifecycleCallback(WorkerLifecycleCallback.Kind.ON_START_BEFORE_TRY_LOCK, workManager, observable, workerStatus.get())));
-        workManager.lock(observable.specificationId());
-        workerLifecycleConsumer.ifPresent(callback -> callback.accept(new WorkerLifecycleCallback(WorkerLifecycleCallback.Kind.ON_START_AFTER_TRY_LOCK, workManager, observable, workerStatus.get())));
+        workerLifecycleConsumer.ifPresent(callback -> callback.accept(new WorkerLifecycleCallback(WorkerLifecycleCallback.Kind.ON_START_BEGIN, workManager, observable, workerStatus.get())));
         try {
             LOG.info("Start worker: {}", observable.workerId());
             HealthWorkerResource healthWorkerResource = healthResourceFactory.createAndAdddHealthResource(observable.workerId(), HealthWorkerResource.class);
             observable.context().services().register(HealthWorkerMonitor.class, healthWorkerResource.getMonitor());
+            WorkManager.JobId jobId = workManager.get(observable.workerId());
+            if (jobId != null && jobId.metrics != null) {
+                jobId.metrics.monitor(healthWorkerResource.getMonitor());
+            }
+            if (jobId != null && jobId.checkpoint != null) {
+                jobId.checkpoint.begin();
+            }
             workerStatus.set(healthWorkerResource.getMonitor().status());
         } finally {
-            workerLifecycleConsumer.ifPresent(callback -> callback.accept(new WorkerLifecycleCallback(WorkerLifecycleCallback.Kind.ON_START_BEFORE_UNLOCK, workManager, observable, workerStatus.get())));
-            workManager.unlock(observable.specificationId());
-            workerLifecycleConsumer.ifPresent(callback -> callback.accept(new WorkerLifecycleCallback(WorkerLifecycleCallback.Kind.ON_START_AFTER_UNLOCK, workManager, observable, workerStatus.get())));
+            workerLifecycleConsumer.ifPresent(callback -> callback.accept(new WorkerLifecycleCallback(WorkerLifecycleCallback.Kind.ON_START_END, workManager, observable, workerStatus.get())));
         }
     }
 
     void onWorkerFinish(WorkerObservable observable, WorkerStatus status) {
         Optional<Consumer<WorkerLifecycleCallback>> workerLifecycleConsumer = Optional.ofNullable(this.workerLifecycleCallback);
 
-        workerLifecycleConsumer.ifPresent(callback -> callback.accept(new WorkerLifecycleCallback(WorkerLifecycleCallback.Kind.ON_FINISH_BEFORE_TRY_LOCK, workManager, observable, status)));
-        workManager.lock(observable.specificationId());
-        workerLifecycleConsumer.ifPresent(callback -> callback.accept(new WorkerLifecycleCallback(WorkerLifecycleCallback.Kind.ON_FINISH_AFTER_TRY_LOCK, workManager, observable, status)));
+        workerLifecycleConsumer.ifPresent(callback -> callback.accept(new WorkerLifecycleCallback(WorkerLifecycleCallback.Kind.ON_FINISH_BEGIN, workManager, observable, status)));
         try {
             if (status == WorkerStatus.COMPLETED) {
                 LOG.info("Completed worker: [{}] {}", status, observable.workerId());
             } else {
                 LOG.error("Completed worker: [{}] {}", status, observable.workerId());
             }
+            WorkManager.JobId jobId = workManager.get(observable.workerId());
+            if (jobId != null && jobId.checkpoint != null) {
+                // ended before the task is removed, so it can't race with the start of the next task of the specification
+                jobId.checkpoint.end();
+            }
+            if (jobId != null && jobId.contentBudget != null) {
+                jobId.contentBudget.release();
+            }
             workerLifecycleConsumer.ifPresent(callback -> callback.accept(new WorkerLifecycleCallback(WorkerLifecycleCallback.Kind.ON_FINISH_BEFORE_REMOVE_WORKER, workManager, observable, status)));
             workManager.remove(observable.workerId());
             workerLifecycleConsumer.ifPresent(callback -> callback.accept(new WorkerLifecycleCallback(WorkerLifecycleCallback.Kind.ON_FINISH_AFTER_REMOVE_WORKER, workManager, observable, status)));
 
-            HealthWorkerResource healthWorkerResource = healthResourceFactory.getHealthResource(observable.workerId());
+            // the finished run is kept by the task history, as the health worker history can't evict old runs
             healthResourceFactory.removeHealthResource(observable.workerId());
-            healthResourceFactory.getHealthResource(HealthWorkerHistoryResource.class).add(healthWorkerResource);
         } finally {
-            workerLifecycleConsumer.ifPresent(callback -> callback.accept(new WorkerLifecycleCallback(WorkerLifecycleCallback.Kind.ON_FINISH_BEFORE_UNLOCK, workManager, observable, status)));
-            workManager.unlock(observable.specificationId());
-            workerLifecycleConsumer.ifPresent(callback -> callback.accept(new WorkerLifecycleCallback(WorkerLifecycleCallback.Kind.ON_FINISH_AFTER_UNLOCK, workManager, observable, status)));
+            workerLifecycleConsumer.ifPresent(callback -> callback.accept(new WorkerLifecycleCallback(WorkerLifecycleCallback.Kind.ON_FINISH_END, workManager, observable, status)));
         }
+        taskScheduler.onTaskFinished(observable.specificationId());
     }
 
     public String createOrRejectTask(SpecificationBuilder specificationBuilder) {
+        TaskSubmission submission = submitTask(specificationBuilder);
+        return submission.isAccepted() ? submission.taskId : null;
+    }
+
+    public TaskSubmission submitTask(SpecificationBuilder specificationBuilder) {
+        return submitTask(specificationBuilder, TaskPriority.NORMAL, 1);
+    }
+
+    /**
+     * Submit a task from its specification JSON. Unchanged specifications are deserialized once and then served from
+     * the specification cache.
+     */
+    public TaskSubmission submitTask(String specification, TaskPriority priority, int weight) {
+        return submitTask(specification, priority, weight, false);
+    }
+
+    /**
+     * Submit a task from its specification JSON, optionally with a profile of its pipeline.
+     */
+    public TaskSubmission submitTask(String specification, TaskPriority priority, int weight, boolean profile) {
+        SpecificationCache.Entry entry = specificationCache.get(specification, Specification::deserialize);
+        return submitTask(entry.specification, entry.json, priority, weight, profile);
+    }
+
+    /**
+     * Submit a task. The task is started immediately when a worker slot is available, otherwise it is queued.
+     * The submission is rejected when the queue is full. Queued tasks get free slots in proportion to the weight of
+     * their priority class multiplied by the task weight.
+     */
+    public TaskSubmission submitTask(SpecificationBuilder specificationBuilder, TaskPriority priority, int weight) {
+        return submitTask(specificationBuilder, priority, weight, false);
+    }
+
+    /**
+     * Submit a task. A profiled task records the wall time, CPU time and allocations of its pipeline, which is read by
+     * {@link #taskProfile(String)}.
+     */
+    public TaskSubmission submitTask(SpecificationBuilder specificationBuilder, TaskPriority priority, int weight, boolean profile) {
+        return submitTask(specificationBuilder, null, priority, weight, profile);
+    }
+
+    /**
+     * The specification JSON is stored with the checkpoint of the task. It is serialized from the builder only when the
+     * caller did not submit the JSON itself.
+     */
+    private TaskSubmission submitTask(SpecificationBuilder specificationBuilder, String specificationJson, TaskPriority priority,
+                                      int weight, boolean profile) {
+        if (weight < 1) {
+            throw new IllegalArgumentException("Task weight must be greater than zero: " + weight);
+        }
         if ("".equals(specificationBuilder.getId())) {
             LOG.warn("The specification id is empty!");
-            return null;
+            return TaskSubmission.conflict(specificationBuilder.getId());
         }
 
-        workManager.lock(specificationBuilder.getId());
-        try {
-            if (workManager.isRunning(specificationBuilder.getId())) {
-                LOG.warn("The specification '{}' is already running!", specificationBuilder.getId());
-                return null;
-            }
+        if (workManager.isRunning(specificationBuilder.getId())) {
+            LOG.warn("The specification '{}' is already running!", specificationBuilder.getId());
+            return TaskSubmission.conflict(specificationBuilder.getId());
+        }
 
-            Worker.WorkerBuilder workerBuilder = Worker.newBuilder()
-                    .configuration(configuration.asMap())
-                    .workerObserver(workerObserver)
-                    .specification(specificationBuilder)
-                    .contentStore(contentStore)
-                    .keepContentStoreOpenOnWorkerCompletion(false);
-
-            if (printExecutionPlan) {
-                workerBuilder
-                        .printConfiguration()
-                        .printExecutionPlan();
-            }
+        WorkerResources.Tracker resources = workerResources == null ? null : workerResources.tracker(specificationBuilder.getId());
+        TaskMetrics taskMetrics = new TaskMetrics(resources);
+        List<InterceptingContentStore.Listener> contentStoreListeners = new ArrayList<>();
+        TaskProfiler profiler = profile ? new TaskProfiler() : null;
+        if (profiler != null) {
+            // first, so the calls include the time the other listeners hold them back
+            contentStoreListeners.add(profiler);
+        }
+        contentStoreListeners.add(taskMetrics);
+        if (resources != null) {
+            contentStoreListeners.add(resources);
+        }
+        TaskCheckpointStore.Tracker checkpoint = checkpointStore == null ? null :
+                checkpointStore.tracker(specificationBuilder.getId(),
+                        specificationJson != null ? specificationJson : specificationBuilder.serialize(), priority, weight);
+        if (checkpoint != null) {
+            contentStoreListeners.add(checkpoint);
+        }
+        ContentBudget.Tracker contentBudgetTracker = contentBudget == null ? null : contentBudget.tracker();
+        if (contentBudgetTracker != null) {
+            contentStoreListeners.add(contentBudgetTracker);
+        }
+        Worker.WorkerBuilder workerBuilder = Worker.newBuilder()
+                .configuration(workerConfiguration)
+                .workerObserver(workerObserver)
+                .specification(specificationBuilder)
+                .contentStore(InterceptingContentStore.wrap(contentStore, contentStoreListeners))
+                .keepContentStoreOpenOnWorkerCompletion(false);
 
-            if (businessSSLResourceComponent == null || businessSSLResourceComponent.getDelegate() == null) {
-                String configuredCertBundlesPath = configuration.evaluateToString("data.collector.certs.directory");
-                Path certBundlesPath = configuredCertBundlesPath == null ? CommonUtils.currentPath() : Paths.get(configuredCertBundlesPath);
-                workerBuilder.buildCertificateFactory(certBundlesPath);
-            } else {
-                BusinessSSLResourceSupplier businessSSLBundleSupplier = businessSSLResourceComponent.getDelegate();
-                workerBuilder.useBusinessSSLResourceSupplier(businessSSLBundleSupplier.get());
-            }
+        if (printExecutionPlan) {
+            workerBuilder
+                    .printConfiguration()
+                    .printExecutionPlan();
+        }
 
-            return workManager.run(workerBuilder).workerId.toString();
-        } finally {
-            workManager.unlock(specificationBuilder.getId());
+        if (businessSSLResourceComponent == null || businessSSLResourceComponent.getDelegate() == null) {
+            String configuredCertBundlesPath = configuration.evaluateToString("data.collector.certs.directory");
+            Path certBundlesPath = configuredCertBundlesPath == null ? CommonUtils.currentPath() : Paths.get(configuredCertBundlesPath);
+            workerBuilder.buildCertificateFactory(certBundlesPath);
+        } else {
+            BusinessSSLResourceSupplier businessSSLBundleSupplier = businessSSLResourceComponent.getDelegate();
+            workerBuilder.useBusinessSSLResourceSupplier(businessSSLBundleSupplier.get());
         }
+
+        WorkManager.Submission submission = workManager.submit(workerBuilder, priority, weight, taskMetrics, checkpoint,
+                contentBudgetTracker);
+        if (submission == null) {
+            // submitted by someone else in between the running check and the registration
+            taskMetrics.release();
+            LOG.warn("The specification '{}' is already running!", specificationBuilder.getId());
+            return TaskSubmission.conflict(specificationBuilder.getId());
+        }
+        String taskId = submission.jobId.workerId.toString();
+        if (profiler != null && submission.admission != WorkerPool.Admission.REJECTED) {
+            profiles.put(submission.jobId.workerId, new TaskProfile(taskId, specificationBuilder.getId(), profiler));
+        }
+        switch (submission.admission) {
+            case STARTED:
+                return TaskSubmission.created(specificationBuilder.getId(), taskId);
+            case QUEUED:
+                return TaskSubmission.queued(specificationBuilder.getId(), taskId);
+            default:
+                return TaskSubmission.rejected(specificationBuilder.getId());
+        }
+    }
+
+    /**
+     * Submit the specification periodically, by a fixed interval or a cron expression. Each run is delayed by a random
+     * jitter up to the given jitter.
+     */
+    public TaskSchedule scheduleTask(String specification, Duration interval, String cron, Duration jitter,
+                                     TaskSchedule.Overlap overlap, TaskPriority priority, int weight) {
+        SpecificationBuilder specificationBuilder = specificationCache.get(specification, Specification::deserialize).specification;
+        return taskScheduler.schedule(specificationBuilder.getId(), specification, interval, cron, jitter, overlap, priority, weight);
+    }
+
+    public boolean unscheduleTask(String specificationId) {
+        return taskScheduler.unschedule(specificationId);
+    }
+
+    public List<TaskSchedule> listSchedules() {
+        return taskScheduler.list();
     }
 
     public List<WorkManager.Task> list() {
         return workManager.list();
     }
 
-    // TODO lock prevents onWorkerFinish to complete
+    /**
+     * Returns the live metrics of a queued or running task, or null if the task is not found.
+     */
+    public TaskMetrics.Snapshot taskMetrics(String taskId) {
+        WorkManager.JobId jobId = workManager.get(UUID.fromString(taskId));
+        if (jobId == null || jobId.metrics == null) {
+            return null;
+        }
+        return jobId.metrics.snapshot(jobId);
+    }
+
+    /**
+     * Returns the profile of a profiled task, or null if the task was not profiled or its profile has been evicted by
+     * more recent profiles.
+     */
+    public TaskProfiler.Profile taskProfile(String taskId) {
+        TaskProfile profile = profiles.get(UUID.fromString(taskId));
+        return profile == null ? null : profile.profiler.profile(profile.taskId, profile.specificationId);
+    }
+
+    public List<TaskCheckpoint> listCheckpoints() {
+        List<TaskCheckpoint> checkpoints = new ArrayList<>();
+        if (checkpointStore != null) {
+            checkpointStore.list().forEach(checkpoint -> checkpoints.add(checkpoint.view()));
+        }
+        return checkpoints;
+    }
+
+    /**
+     * Removes the checkpoint of a specification, so its next task starts from the initial position again.
+     */
+    public boolean removeCheckpoint(String specificationId) {
+        return checkpointStore != null && checkpointStore.remove(specificationId);
+    }
+
+    void recordRun(WorkManager.JobId jobId, Throwable failure) {
+        TaskMetrics metrics = jobId.metrics;
+        WorkerStatus workerStatus = metrics == null ? null : metrics.workerStatus();
+        if (failure != null && (workerStatus == null || workerStatus == WorkerStatus.RUNNING)) {
+            workerStatus = WorkerStatus.FAILED;
+        }
+        Throwable cause = failure instanceof CompletionException && failure.getCause() != null ? failure.getCause() : failure;
+        TaskHistoryStore.Run run = new TaskHistoryStore.Run(
+                jobId.workerId,
+                jobId.specificationId,
+                jobId.specificationName,
+                workerStatus == null ? null : workerStatus.name(),
+                cause == null ? null : cause.getClass().getName() + ": " + cause.getMessage(),
+                metrics == null ? 0 : metrics.startedMillis(),
+                System.currentTimeMillis(),
+                metrics == null ? 0 : metrics.positions(),
+                metrics == null ? 0 : metrics.documents(),
+                metrics == null ? 0 : metrics.bytes(),
+                metrics == null ? Map.of() : metrics.lastPositions()
+        );
+        if (historyStore != null) {
+            historyStore.append(run);
+        } else {
+            recentRuns.put(run.taskId, run);
+        }
+    }
+
+    /**
+     * Returns the finished runs within the time range, newest first. Without the task history store, the runs are the
+     * newest runs since the server was started.
+     */
+    public List<TaskRun> listHistory(Instant from, Instant to, String specificationId, int limit) {
+        List<TaskRun> runs = new ArrayList<>();
+        if (historyStore != null) {
+            for (TaskHistoryStore.Run run : historyStore.query(from.toEpochMilli(), to.toEpochMilli(), specificationId, limit)) {
+                runs.add(run.view());
+            }
+            return runs;
+        }
+        List<TaskHistoryStore.Run> recent;
+        synchronized (recentRuns) {
+            recent = new ArrayList<>(recentRuns.values());
+        }
+        for (int n = recent.size() - 1; n >= 0 && runs.size() < limit; n--) {
+            TaskHistoryStore.Run run = recent.get(n);
+            if (run.finished >= from.toEpochMilli() && run.finished <= to.toEpochMilli() &&
+                    (specificationId == null || specificationId.equals(run.specificationId))) {
+                runs.add(run.view());
+            }
+        }
+        return runs;
+    }
+
+    TaskListSnapshot.View taskListView() {
+        return workManager.taskListView();
+    }
+
+    public Map<String, Object> metrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("pool", workManager.poolStats());
+        metrics.put("scheduler", taskScheduler.stats());
+        metrics.put("specification-cache", specificationCache.stats());
+        if (contentBudget != null) {
+            metrics.put("content-budget", contentBudget.stats());
+        }
+        if (workerResources != null) {
+            metrics.put("resources", workerResources.stats());
+        }
+        return metrics;
+    }
+
+    /**
+     * Cancels a task without waiting for its worker to be terminated. Returns false if the task is not found or has
+     * already completed.
+     */
     public boolean cancelTask(String workerId) {
+        return cancelTaskAsync(workerId) != null;
+    }
+
+    /**
+     * Cancels a task without waiting for its worker to be terminated. Returns the cancellation, or null if the task
+     * is not found or has already completed.
+     */
+    public TaskCancellation cancelTaskAsync(String workerId) {
         WorkManager.JobId jobId = workManager.get(UUID.fromString(workerId));
         if (jobId == null) {
             LOG.warn("Worker '{}' NOT found! Maybe it was already completed.", workerId);
-            return false;
-        }
-        workManager.lock(jobId.specificationId);
-        try {
-            return workManager.cancel(UUID.fromString(workerId));
-        } finally {
-            workManager.unlock(jobId.specificationId);
+            return null;
         }
+        CompletableFuture<Void> completion = workManager.cancelAsync(jobId.workerId);
+        return completion == null ? null : new TaskCancellation(jobId.specificationId, workerId, completion);
+    }
+
+    /**
+     * Cancels the queued and running tasks of a specification without waiting for their workers to be terminated.
+     */
+    public List<TaskCancellation> cancelTasks(String specificationId) {
+        List<TaskCancellation> cancellations = new ArrayList<>();
+        workManager.cancelSpecification(specificationId).forEach((workerId, completion) ->
+                cancellations.add(new TaskCancellation(specificationId, workerId.toString(), completion)));
+        return cancellations;
     }
 
     @Override
@@ -178,17 +498,51 @@ public class WorkerService implements Service {
         return true;
     }
 
+    /**
+     * Resubmits the tasks that were running when the server was stopped. They continue from their checkpoints.
+     */
     @Override
     public void start() {
-        // nop
+        if (checkpointStore == null) {
+            return;
+        }
+        for (TaskCheckpointStore.Checkpoint checkpoint : checkpointStore.running()) {
+            try {
+                TaskSubmission submission = submitTask(checkpoint.resumedSpecification(), checkpoint.priority, checkpoint.weight);
+                LOG.info("Resumed specification: {} [{}]", checkpoint.specificationId, submission.status);
+            } catch (RuntimeException e) {
+                LOG.error("Unable to resume specification: {}\n{}", checkpoint.specificationId, CommonUtils.captureStackTrace(e));
+            }
+        }
     }
 
     @Override
     public void stop() {
         try {
-            workManager.cancel();
+            taskScheduler.shutdown();
+            if (checkpointStore != null) {
+                // closed before the workers are cancelled, so running tasks stay marked as running and are resumed
+                checkpointStore.close();
+            }
+            // the workers are terminated in parallel, and the server stops without them after the shutdown timeout
+            workManager.drain(shutdownTimeout);
+            if (historyStore != null) {
+                historyStore.close();
+            }
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
     }
+
+    private static class TaskProfile {
+        final String taskId;
+        final String specificationId;
+        final TaskProfiler profiler;
+
+        TaskProfile(String taskId, String specificationId, TaskProfiler profiler) {
+            this.taskId = taskId;
+            this.specificationId = specificationId;
+            this.profiler = profiler;
+        }
+    }
 }
@@ -17,6 +17,7 @@ module io.descoped.dc.server {
     requires io.descoped.secrets.provider.google.rest.api;
 
     requires java.instrument;
+    requires jdk.management;
 
     requires net.bytebuddy;
     requires net.bytebuddy.agent;
@@ -34,6 +34,8 @@ import static io.descoped.dc.api.Builders.sequence;
 import static io.descoped.dc.api.Builders.status;
 import static io.descoped.dc.api.Builders.whenVariableIsNull;
 import static io.descoped.dc.api.Builders.xpath;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 @ExtendWith(TestServerExtension.class)
 public class DockerServerTest {
@@ -70,6 +72,20 @@ public class DockerServerTest {
         Thread.sleep(3000);
     }
 
+    @Test
+    public void testPutTaskBatch() throws InterruptedException {
+        String spec = CommonUtils.readFileOrClasspathResource("worker.config/page-test.json").replace("PORT", Integer.valueOf(server.getTestServerServicePort()).toString());
+        // a separate specification id, so the batch doesn't conflict with testPutTask
+        String line = spec.replace("\"id\": \"TEST\"", "\"id\": \"TEST-BATCH\"").replaceAll("\\R", "");
+        String ndjson = line + "\n" + line + "\n";
+        String[] results = client.put("/tasks/batch", ndjson).expect200Ok().body().split("\n");
+        LOG.trace("batch: {}", String.join("\n", results));
+        assertEquals(2, results.length);
+        assertTrue(results[0].contains("\"CREATED\"") || results[0].contains("\"QUEUED\""), results[0]);
+        assertTrue(results[1].contains("\"CONFLICT\""), results[1]);
+        Thread.sleep(3000);
+    }
+
     @Test
     public void testHealth() {
         ResponseHelper<String> responseHelper = client.get("/health?config&contexts&threads").expect200Ok();
@@ -0,0 +1,64 @@
+package io.descoped.dc.server.content;
+
+import org.apache.tika.config.TikaConfig;
+import org.apache.tika.detect.DefaultDetector;
+import org.apache.tika.mime.MediaType;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class ContentTypeSnifferTest {
+
+    static byte[] bytes(String content) {
+        return content.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testExtensionsMatchTikaDetection() throws IOException {
+        TikaConfig config = TikaConfig.getDefaultConfig();
+        ContentTypeSniffer sniffer = new ContentTypeSniffer(() -> new DefaultDetector(config.getMimeRepository(), config.getServiceLoader()), 16);
+        assertEquals(".json", sniffer.extension("topic", "entry", bytes("{\"id\":1}")));
+        assertEquals(".json", sniffer.extension("topic", "entry", bytes("[1, 2]")));
+        assertEquals("", sniffer.extension("topic", "entry.json", bytes("[1, 2]")));
+        assertEquals(".xml", sniffer.extension("topic", "page", bytes("<feed><entry/></feed>")));
+        assertEquals(".atom+xml", sniffer.extension("topic", "atom", bytes("<?xml version=\"1.0\"?><feed xmlns=\"http://www.w3.org/2005/Atom\"/>")));
+        assertEquals(".html", sniffer.extension("topic", "html", bytes("<html><body>error</body></html>")));
+        assertEquals(".rtf", sniffer.extension("topic", "document", bytes("{\\rtf1 text}")));
+        assertEquals("", sniffer.extension("topic", "text", bytes("plain text")));
+        assertEquals(".octet-stream", sniffer.extension("topic", "binary", new byte[]{0, 1, 2, 3}));
+        assertEquals(3, sniffer.classified());
+    }
+
+    @Test
+    public void testDetectionIsCachedPerTopicKeyAndClass() throws IOException {
+        AtomicInteger detections = new AtomicInteger();
+        ContentTypeSniffer sniffer = new ContentTypeSniffer(() -> (input, metadata) -> {
+            detections.incrementAndGet();
+            return MediaType.application("xml");
+        }, 2);
+
+        for (int n = 0; n < 10; n++) {
+            assertEquals(".xml", sniffer.extension("topic-1", "page", bytes("<page>" + n + "</page>")));
+            // JSON is not detected
+            assertEquals(".json", sniffer.extension("topic-1", "page", bytes("{\"page\":" + n + "}")));
+        }
+        assertEquals(1, detections.get());
+        assertEquals(9, sniffer.cacheHits());
+
+        // another topic, or another class of the same key is detected again
+        sniffer.extension("topic-2", "page", bytes("<page/>"));
+        sniffer.extension("topic-1", "page", bytes("text"));
+        assertEquals(3, detections.get());
+
+        // the cache is full, and binary documents are never cached
+        sniffer.extension("topic-1", "other", bytes("<page/>"));
+        sniffer.extension("topic-1", "other", bytes("<page/>"));
+        sniffer.extension("topic-1", "binary", new byte[]{0});
+        sniffer.extension("topic-1", "binary", new byte[]{0});
+        assertEquals(7, detections.get());
+    }
+}
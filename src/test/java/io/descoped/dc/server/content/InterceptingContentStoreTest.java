@@ -0,0 +1,70 @@
+package io.descoped.dc.server.content;
+
+import io.descoped.dc.api.content.ContentStore;
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class InterceptingContentStoreTest {
+
+    static ContentStore recordingContentStore(List<String> invocations) {
+        return (ContentStore) Proxy.newProxyInstance(ContentStore.class.getClassLoader(), new Class<?>[]{ContentStore.class}, (proxy, method, args) -> {
+            invocations.add(method.getName());
+            if ("lastPosition".equals(method.getName())) {
+                return "42";
+            }
+            if ("isClosed".equals(method.getName())) {
+                throw new IllegalStateException("closed");
+            }
+            return null;
+        });
+    }
+
+    @Test
+    public void testPublishIsObservedAndForwarded() throws Exception {
+        List<String> invocations = new ArrayList<>();
+        List<String[]> published = new ArrayList<>();
+        List<Boolean> closed = new ArrayList<>();
+        ContentStore contentStore = InterceptingContentStore.wrap(recordingContentStore(invocations), List.of(new InterceptingContentStore.Listener() {
+            @Override
+            public void afterPublish(String topic, String[] positions, long durationNanos) {
+                assertEquals("topic", topic);
+                published.add(positions);
+            }
+
+            @Override
+            public void onClose() {
+                closed.add(true);
+            }
+        }));
+
+        contentStore.publish("topic", "1", "2");
+        assertEquals("42", contentStore.lastPosition("topic"));
+        contentStore.close();
+
+        assertEquals(List.of("publish", "lastPosition", "close"), invocations);
+        assertEquals(1, published.size());
+        assertArrayEquals(new String[]{"1", "2"}, published.get(0));
+        assertEquals(1, closed.size());
+    }
+
+    @Test
+    public void testDelegateExceptionsAreUnwrapped() {
+        ContentStore contentStore = InterceptingContentStore.wrap(recordingContentStore(new ArrayList<>()), List.of(new InterceptingContentStore.Listener() {
+        }));
+        assertThrows(IllegalStateException.class, contentStore::isClosed);
+    }
+
+    @Test
+    public void testWithoutListenersTheDelegateIsReturned() {
+        ContentStore delegate = recordingContentStore(new ArrayList<>());
+        assertSame(delegate, InterceptingContentStore.wrap(delegate, List.of()));
+    }
+}
@@ -0,0 +1,151 @@
+package io.descoped.dc.server.content;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class RawdataArchiveTest {
+
+    Path directory;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("rawdata-archive");
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    static Map<String, byte[]> files(int position) {
+        Map<String, byte[]> files = new LinkedHashMap<>();
+        files.put("entry.json", ("{\"position\":" + position + "}").getBytes(StandardCharsets.UTF_8));
+        files.put("page.xml", ("<page>" + "x".repeat(position * 100) + "</page>").getBytes(StandardCharsets.UTF_8));
+        return files;
+    }
+
+    Path archive(int sequence) {
+        return directory.resolve(String.format("topic-%06d.tar", sequence));
+    }
+
+    Map<String, byte[]> readLatest(String position) throws IOException {
+        Map<String, byte[]> latest = null;
+        for (int sequence = 1; sequence <= RawdataArchive.lastSequence(directory, "topic"); sequence++) {
+            Map<String, byte[]> files = RawdataArchive.read(archive(sequence), position);
+            latest = files != null ? files : latest;
+        }
+        return latest;
+    }
+
+    @Test
+    public void testPositionsAreReadByRandomAccess() throws IOException {
+        try (RawdataArchive archive = new RawdataArchive(directory, "topic", 8 * 1024, FileSync.never(), RawdataCompression.none())) {
+            for (int n = 0; n < 20; n++) {
+                archive.write(String.valueOf(n), files(n));
+            }
+            // a position that is exported again replaces the earlier one
+            archive.write("3", Map.of("entry.json", "{}".getBytes(StandardCharsets.UTF_8)));
+            String longKey = "k".repeat(150) + ".json";
+            archive.write("long", Map.of(longKey, "{\"long\":true}".getBytes(StandardCharsets.UTF_8)));
+            archive.flush();
+            int last = RawdataArchive.lastSequence(directory, "topic");
+            assertEquals("{\"long\":true}", new String(RawdataArchive.read(archive(last), "long").get(longKey), StandardCharsets.UTF_8));
+        }
+
+        // the archives are rolled over after 8 KB, and are a whole number of tar blocks
+        int archives = RawdataArchive.lastSequence(directory, "topic");
+        assertTrue(archives > 1);
+        for (int sequence = 1; sequence <= archives; sequence++) {
+            assertEquals(0, Files.size(archive(sequence)) % RawdataArchive.BLOCK_SIZE);
+            assertTrue(Files.exists(RawdataArchive.indexPath(archive(sequence))));
+        }
+        Map<String, byte[]> first = RawdataArchive.read(archive(1), "0");
+        assertEquals(files(0).keySet(), first.keySet());
+        assertArrayEquals(files(0).get("page.xml"), first.get("page.xml"));
+        assertNull(RawdataArchive.read(archive(1), "19"));
+        assertArrayEquals(files(19).get("page.xml"), readLatest("19").get("page.xml"));
+        assertEquals("{}", new String(readLatest("3").get("entry.json"), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testNumberingContinuesAfterExistingArchives() throws IOException {
+        try (RawdataArchive archive = new RawdataArchive(directory, "topic", 1024 * 1024, FileSync.never(), RawdataCompression.none())) {
+            archive.write("1", files(1));
+        }
+        try (RawdataArchive archive = new RawdataArchive(directory, "topic", 1024 * 1024, FileSync.never(), RawdataCompression.none())) {
+            archive.write("2", files(2));
+        }
+        assertArrayEquals(files(1).get("entry.json"), RawdataArchive.read(archive(1), "1").get("entry.json"));
+        assertArrayEquals(files(2).get("entry.json"), RawdataArchive.read(archive(2), "2").get("entry.json"));
+
+        // the archive ends with two zero blocks
+        byte[] bytes = Files.readAllBytes(archive(2));
+        byte[] end = Arrays.copyOfRange(bytes, bytes.length - 2 * RawdataArchive.BLOCK_SIZE, bytes.length);
+        assertArrayEquals(new byte[2 * RawdataArchive.BLOCK_SIZE], end);
+    }
+
+    @Test
+    public void testIndexIsWrittenWhenArchiveIsSynced() throws IOException {
+        FileSync sync = new FileSync(3, 0);
+        try (RawdataArchive archive = new RawdataArchive(directory, "topic", 1024 * 1024, sync, RawdataCompression.none())) {
+            archive.write("1", files(1));
+            archive.write("2", files(2));
+            assertNull(RawdataArchive.read(archive(1), "1"));
+            archive.write("3", files(3));
+            assertEquals(1, sync.syncs());
+            assertEquals(0, sync.pendingPositions());
+            assertArrayEquals(files(1).get("page.xml"), RawdataArchive.read(archive(1), "1").get("page.xml"));
+            assertArrayEquals(files(3).get("page.xml"), RawdataArchive.read(archive(1), "3").get("page.xml"));
+
+            archive.write("4", files(4));
+            assertNull(RawdataArchive.read(archive(1), "4"));
+        }
+        // the archive is synced when it is closed
+        assertEquals(2, sync.syncs());
+        assertArrayEquals(files(4).get("page.xml"), RawdataArchive.read(archive(1), "4").get("page.xml"));
+    }
+
+    @Test
+    public void testCompressedArchiveIsReadByPositionAndAsWhole() throws IOException {
+        try (RawdataArchive archive = new RawdataArchive(directory, "topic", 1024 * 1024, FileSync.never(), RawdataCompression.none())) {
+            archive.write("1", files(1));
+        }
+        RawdataCompression compression = RawdataCompression.gzip(6);
+        try (RawdataArchive archive = new RawdataArchive(directory, "topic", 1024 * 1024, FileSync.never(), compression)) {
+            for (int n = 2; n <= 20; n++) {
+                archive.write(String.valueOf(n), files(n));
+            }
+        }
+        // numbering continues after the uncompressed archive
+        Path compressed = directory.resolve("topic-000002.tar.gz");
+        assertEquals(2, RawdataArchive.lastSequence(directory, "topic"));
+        assertTrue(Files.exists(RawdataArchive.indexPath(compressed)));
+        assertTrue(compression.ratio() > 5);
+        assertArrayEquals(files(7).get("page.xml"), RawdataArchive.read(compressed, "7").get("page.xml"));
+        assertArrayEquals(files(20).get("entry.json"), RawdataArchive.read(compressed, "20").get("entry.json"));
+
+        // the gzip members of the positions are one tar stream
+        byte[] tar = RawdataCompression.decompress(Files.readAllBytes(compressed));
+        assertEquals(0, tar.length % RawdataArchive.BLOCK_SIZE);
+        byte[] end = Arrays.copyOfRange(tar, tar.length - 2 * RawdataArchive.BLOCK_SIZE, tar.length);
+        assertArrayEquals(new byte[2 * RawdataArchive.BLOCK_SIZE], end);
+    }
+}
@@ -0,0 +1,147 @@
+package io.descoped.dc.server.content;
+
+import io.descoped.dc.api.content.ContentStreamBuffer;
+import org.apache.tika.config.TikaConfig;
+import org.apache.tika.detect.DefaultDetector;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Compares the parallel rawdata exporter to the single-threaded loop it replaced, which is the exporter with zero
+ * writer threads: every buffer is detected and written on the consumer thread.
+ * <p>
+ * Each invocation exports the same buffers to a new directory, with one JSON entry and one XML page per buffer,
+ * either as a directory per position or to rolling tar archives of 64 MB, with or without batched fsync, and raw or
+ * gzip compressed at the default level. The files/s and MB/s counters are the rates of the invocation, counting the
+ * uncompressed bytes.
+ * <p>
+ * Run from the IDE using {@link #main(String[])}, or with the JMH runner on the test classpath.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class RawdataExporterBenchmark {
+
+    @Param({"0", "1", "4", "8"})
+    int writerThreads;
+
+    @Param({"files", "tar"})
+    String format;
+
+    // positions between fsyncs, zero leaves syncing to the operating system
+    @Param({"0", "100"})
+    int syncEveryPositions;
+
+    @Param({"none", "gzip"})
+    String compression;
+
+    @Param({"256"})
+    int maxPendingBuffers;
+
+    @Param({"5000"})
+    int buffers;
+
+    @Param({"1024", "65536"})
+    int entryBytes;
+
+    TikaConfig config;
+    ContentStreamBuffer[] input;
+    Path targetPath;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        config = TikaConfig.getDefaultConfig();
+        byte[] padding = new byte[entryBytes];
+        Arrays.fill(padding, (byte) 'x');
+        String value = new String(padding, StandardCharsets.UTF_8);
+        input = new ContentStreamBuffer[buffers];
+        for (int n = 0; n < buffers; n++) {
+            input[n] = RawdataExporterTest.buffer(String.valueOf(n), Map.of(
+                    "entry", ("{\"position\":" + n + ",\"value\":\"" + value + "\"}").getBytes(StandardCharsets.UTF_8),
+                    "page", ("<feed><value>" + value + "</value></feed>").getBytes(StandardCharsets.UTF_8)));
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void setUpInvocation() throws IOException {
+        targetPath = Files.createTempDirectory("rawdata-export-benchmark");
+    }
+
+    @TearDown(Level.Invocation)
+    public void tearDownInvocation() throws IOException {
+        try (Stream<Path> paths = Files.walk(targetPath)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public long export(Throughput throughput) throws IOException, InterruptedException {
+        long startNanos = System.nanoTime();
+        // a new sniffer, so the content type cache is empty like after a restart
+        ContentTypeSniffer sniffer = new ContentTypeSniffer(() -> new DefaultDetector(config.getMimeRepository(), config.getServiceLoader()), 1024);
+        RawdataOutput output = RawdataOutput.create(format, targetPath, "topic", 64L * 1024 * 1024,
+                new FileSync(syncEveryPositions, 0), RawdataCompression.create(compression, 6));
+        RawdataExporter exporter = new RawdataExporter("topic", output, sniffer, writerThreads, maxPendingBuffers);
+        try (exporter) {
+            for (ContentStreamBuffer buffer : input) {
+                exporter.export(buffer);
+            }
+        }
+        throughput.record(exporter.files(), exporter.bytes(), System.nanoTime() - startNanos);
+        return exporter.exportedBuffers();
+    }
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Throughput {
+        public double filesPerSecond;
+        public double megabytesPerSecond;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            filesPerSecond = 0;
+            megabytesPerSecond = 0;
+        }
+
+        void record(long files, long bytes, long elapsedNanos) {
+            double seconds = elapsedNanos / 1e9;
+            filesPerSecond = files / seconds;
+            megabytesPerSecond = bytes / (1024.0 * 1024.0) / seconds;
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(RawdataExporterBenchmark.class.getSimpleName())
+                .build()
+        ).run();
+    }
+}
@@ -0,0 +1,100 @@
+package io.descoped.dc.server.content;
+
+import io.descoped.dc.api.content.ContentStreamBuffer;
+import org.apache.tika.detect.Detector;
+import org.apache.tika.mime.MediaType;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class RawdataExporterTest {
+
+    static final Detector PLAIN_TEXT = (input, metadata) -> MediaType.TEXT_PLAIN;
+
+    Path targetPath;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        targetPath = Files.createTempDirectory("rawdata-export");
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        try (Stream<Path> paths = Files.walk(targetPath)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    static ContentStreamBuffer buffer(String position, Map<String, byte[]> data) {
+        return (ContentStreamBuffer) Proxy.newProxyInstance(ContentStreamBuffer.class.getClassLoader(), new Class[]{ContentStreamBuffer.class},
+                (proxy, method, args) -> switch (method.getName()) {
+                    case "position" -> position;
+                    case "keys" -> data.keySet();
+                    case "get" -> data.get((String) args[0]);
+                    case "data" -> data;
+                    default -> throw new UnsupportedOperationException(method.getName());
+                });
+    }
+
+    static ContentStreamBuffer buffer(int position) {
+        return buffer(String.valueOf(position), Map.of(
+                "entry", ("{\"position\":" + position + "}").getBytes(StandardCharsets.UTF_8),
+                "page", "<feed/>".getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    public void testBuffersAreWrittenInParallelAndAcknowledgedInOrder() throws Exception {
+        RawdataExporter exporter = new RawdataExporter("topic", new RawdataOutput.Directory(targetPath, FileSync.never(), RawdataCompression.none()), new ContentTypeSniffer(() -> PLAIN_TEXT, 16), 4, 8);
+        try (exporter) {
+            for (int n = 0; n < 200; n++) {
+                exporter.export(buffer(n));
+            }
+            exporter.flush();
+            assertEquals("199", exporter.exportedPosition());
+        }
+        assertEquals(200, exporter.exportedBuffers());
+        assertEquals(400, exporter.files());
+        for (int n = 0; n < 200; n++) {
+            assertEquals("{\"position\":" + n + "}", Files.readString(targetPath.resolve(n + "/entry.json")));
+            assertTrue(Files.exists(targetPath.resolve(n + "/page.xml")));
+        }
+    }
+
+    @Test
+    public void testExportedPositionStopsBeforeFailedWrite() throws Exception {
+        // the directory of position 5 can't be created
+        Files.writeString(targetPath.resolve("5"), "");
+
+        try (RawdataExporter exporter = new RawdataExporter("topic", new RawdataOutput.Directory(targetPath, FileSync.never(), RawdataCompression.none()), new ContentTypeSniffer(() -> PLAIN_TEXT, 16), 0, 1)) {
+            for (int n = 0; n < 5; n++) {
+                exporter.export(buffer(n));
+            }
+            assertThrows(IOException.class, () -> exporter.export(buffer(5)));
+            assertEquals("4", exporter.exportedPosition());
+        }
+
+        RawdataExporter parallel = new RawdataExporter("topic", new RawdataOutput.Directory(targetPath, FileSync.never(), RawdataCompression.none()), new ContentTypeSniffer(() -> PLAIN_TEXT, 16), 4, 8);
+        assertThrows(IOException.class, () -> {
+            try (parallel) {
+                for (int n = 0; n < 20; n++) {
+                    parallel.export(buffer(n));
+                }
+            }
+        });
+        // buffers after the failed one are never acknowledged
+        assertTrue(parallel.exportedBuffers() <= 5);
+    }
+}
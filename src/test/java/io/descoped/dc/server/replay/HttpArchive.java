@@ -0,0 +1,187 @@
+package io.descoped.dc.server.replay;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The recorded HTTP exchanges of a worker, in the order they were made.
+ * <p>
+ * An exchange is keyed by its method and request URI (path and query), as the host of the upstream is replaced by the
+ * host of the replay server. Exchanges with the same key are replayed in recorded order, and the last one is repeated
+ * when a key is requested more times than it was recorded. Hop-by-hop headers are not recorded.
+ * <p>
+ * The binary format starts with a magic number and a version, followed by the number of exchanges and each exchange
+ * as length-prefixed fields.
+ */
+public class HttpArchive {
+
+    static final int MAGIC = 0x44434841;
+    static final byte VERSION = 1;
+    static final Set<String> HOP_BY_HOP_HEADERS = Set.of("connection", "content-length", "keep-alive", "proxy-connection",
+            "te", "trailer", "transfer-encoding", "upgrade");
+
+    private final List<Exchange> exchanges = new ArrayList<>();
+
+    public synchronized void add(Exchange exchange) {
+        exchanges.add(exchange);
+    }
+
+    public synchronized List<Exchange> exchanges() {
+        return List.copyOf(exchanges);
+    }
+
+    public synchronized int size() {
+        return exchanges.size();
+    }
+
+    /**
+     * Returns a cursor that serves the exchanges from the start of the recording.
+     */
+    public Replay replay() {
+        return new Replay(exchanges());
+    }
+
+    public void write(Path path) throws IOException {
+        List<Exchange> recorded = exchanges();
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path)))) {
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+            out.writeInt(recorded.size());
+            for (Exchange exchange : recorded) {
+                out.writeUTF(exchange.method);
+                out.writeUTF(exchange.uri);
+                out.writeInt(exchange.statusCode);
+                out.writeLong(exchange.durationNanos);
+                out.writeInt(exchange.headers.size());
+                for (Map.Entry<String, List<String>> header : exchange.headers.entrySet()) {
+                    out.writeUTF(header.getKey());
+                    out.writeInt(header.getValue().size());
+                    for (String value : header.getValue()) {
+                        out.writeUTF(value);
+                    }
+                }
+                out.writeInt(exchange.body.length);
+                out.write(exchange.body);
+            }
+        }
+    }
+
+    public static HttpArchive read(Path path) throws IOException {
+        HttpArchive archive = new HttpArchive();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not an HTTP archive: " + path);
+            }
+            byte version = in.readByte();
+            if (version != VERSION) {
+                throw new IOException("Unsupported HTTP archive version: " + version);
+            }
+            int count = in.readInt();
+            for (int n = 0; n < count; n++) {
+                String method = in.readUTF();
+                String uri = in.readUTF();
+                int statusCode = in.readInt();
+                long durationNanos = in.readLong();
+                int headerCount = in.readInt();
+                Map<String, List<String>> headers = new LinkedHashMap<>();
+                for (int h = 0; h < headerCount; h++) {
+                    String name = in.readUTF();
+                    int valueCount = in.readInt();
+                    List<String> values = new ArrayList<>(valueCount);
+                    for (int v = 0; v < valueCount; v++) {
+                        values.add(in.readUTF());
+                    }
+                    headers.put(name, values);
+                }
+                byte[] body = new byte[in.readInt()];
+                in.readFully(body);
+                archive.add(new Exchange(method, uri, statusCode, headers, body, durationNanos));
+            }
+        }
+        return archive;
+    }
+
+    static boolean isHopByHop(String headerName) {
+        return HOP_BY_HOP_HEADERS.contains(headerName.toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * One request and its response.
+     */
+    public static class Exchange {
+        final String method;
+        final String uri;
+        final int statusCode;
+        final Map<String, List<String>> headers;
+        final byte[] body;
+        final long durationNanos;
+
+        /**
+         * @param uri           the request path and query
+         * @param headers       the response headers
+         * @param durationNanos the time from the request was sent until the response body was received
+         */
+        public Exchange(String method, String uri, int statusCode, Map<String, List<String>> headers, byte[] body, long durationNanos) {
+            this.method = method;
+            this.uri = uri;
+            this.statusCode = statusCode;
+            Map<String, List<String>> recordedHeaders = new LinkedHashMap<>();
+            headers.forEach((name, values) -> {
+                if (!isHopByHop(name)) {
+                    recordedHeaders.put(name, List.copyOf(values));
+                }
+            });
+            this.headers = Collections.unmodifiableMap(recordedHeaders);
+            this.body = body;
+            this.durationNanos = durationNanos;
+        }
+
+        String key() {
+            return key(method, uri);
+        }
+
+        static String key(String method, String uri) {
+            return method.toUpperCase(Locale.ROOT) + " " + uri;
+        }
+    }
+
+    /**
+     * Serves the recorded exchanges by method and request URI. Thread-safe.
+     */
+    public static class Replay {
+        private final Map<String, List<Exchange>> exchangesByKey = new HashMap<>();
+        private final Map<String, Integer> served = new HashMap<>();
+
+        Replay(List<Exchange> exchanges) {
+            for (Exchange exchange : exchanges) {
+                exchangesByKey.computeIfAbsent(exchange.key(), key -> new ArrayList<>()).add(exchange);
+            }
+        }
+
+        /**
+         * Returns the next recorded exchange of the request, or null if the request was not recorded.
+         */
+        public synchronized Exchange next(String method, String uri) {
+            String key = Exchange.key(method, uri);
+            List<Exchange> recorded = exchangesByKey.get(key);
+            if (recorded == null) {
+                return null;
+            }
+            int index = served.merge(key, 1, Integer::sum) - 1;
+            return recorded.get(Math.min(index, recorded.size() - 1));
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package io.descoped.dc.server.replay;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+public class HttpArchiveTest {
+
+    static HttpArchive.Exchange exchange(String uri, String body) {
+        return new HttpArchive.Exchange("GET", uri, 200,
+                Map.of("Content-Type", List.of("application/xml"), "Transfer-Encoding", List.of("chunked")),
+                body.getBytes(StandardCharsets.UTF_8), 1_000_000);
+    }
+
+    static String body(HttpArchive.Exchange exchange) {
+        return new String(exchange.body, StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testArchiveIsWrittenAndRead() throws IOException {
+        HttpArchive archive = new HttpArchive();
+        archive.add(exchange("/api/events?position=1", "<feed>1</feed>"));
+        archive.add(new HttpArchive.Exchange("POST", "/api/events/2", 404, Map.of(), new byte[0], 2_000_000));
+
+        Path path = Files.createTempFile("http-archive", ".bin");
+        try {
+            archive.write(path);
+            List<HttpArchive.Exchange> exchanges = HttpArchive.read(path).exchanges();
+            assertEquals(2, exchanges.size());
+            HttpArchive.Exchange first = exchanges.get(0);
+            assertEquals("GET", first.method);
+            assertEquals("/api/events?position=1", first.uri);
+            assertEquals(200, first.statusCode);
+            assertEquals(1_000_000, first.durationNanos);
+            // hop-by-hop headers are not recorded
+            assertEquals(Map.of("Content-Type", List.of("application/xml")), first.headers);
+            assertEquals("<feed>1</feed>", body(first));
+            assertEquals(404, exchanges.get(1).statusCode);
+            assertArrayEquals(new byte[0], exchanges.get(1).body);
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    @Test
+    public void testExchangesAreReplayedInRecordedOrder() {
+        HttpArchive archive = new HttpArchive();
+        archive.add(exchange("/api/events?position=1", "first"));
+        archive.add(exchange("/api/events?position=2", "other"));
+        archive.add(exchange("/api/events?position=1", "second"));
+
+        HttpArchive.Replay replay = archive.replay();
+        assertEquals("first", body(replay.next("get", "/api/events?position=1")));
+        assertEquals("second", body(replay.next("GET", "/api/events?position=1")));
+        // the last exchange is repeated
+        assertEquals("second", body(replay.next("GET", "/api/events?position=1")));
+        assertEquals("other", body(replay.next("GET", "/api/events?position=2")));
+        assertNull(replay.next("GET", "/api/events?position=3"));
+        assertNull(replay.next("POST", "/api/events?position=2"));
+
+        // a new replay starts from the start of the recording
+        assertEquals("first", body(archive.replay().next("GET", "/api/events?position=1")));
+    }
+}
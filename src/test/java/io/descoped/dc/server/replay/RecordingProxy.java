@@ -0,0 +1,159 @@
+package io.descoped.dc.server.replay;
+
+import io.undertow.Undertow;
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.util.HeaderValues;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.net.ssl.SSLContext;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Records the HTTP exchanges of a worker to an {@link HttpArchive}.
+ * <p>
+ * The proxy forwards every request to the upstream base URL and records the response with its duration. A
+ * specification is recorded by pointing its base URL at the proxy, e.g. by the PORT placeholder of
+ * worker.config/page-test.json. Upstreams that require a client certificate are recorded with the SSL context of the
+ * business SSL bundle.
+ * <p>
+ * Run with {@link #main(String[])} to record against a real upstream. The archive is written when the proxy is stopped.
+ */
+public class RecordingProxy implements HttpHandler, AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RecordingProxy.class);
+
+    // set by the HTTP client, or not allowed by it
+    static final Set<String> RESTRICTED_REQUEST_HEADERS = Set.of("connection", "content-length", "expect", "host", "upgrade",
+            "keep-alive", "proxy-connection", "te", "trailer", "transfer-encoding");
+
+    private final URI upstream;
+    private final HttpArchive archive;
+    private final HttpClient client;
+    private final Undertow server;
+
+    private RecordingProxy(URI upstream, HttpArchive archive, HttpClient client, String host, int port) {
+        this.upstream = upstream;
+        this.archive = archive;
+        this.client = client;
+        this.server = Undertow.builder()
+                .addHttpListener(port, host)
+                .setWorkerThreads(256)
+                .setHandler(this)
+                .build();
+    }
+
+    /**
+     * Starts a recording proxy on a free port of localhost.
+     *
+     * @param upstream   the base URL of the upstream, e.g. http://localhost:9999
+     * @param sslContext the SSL context of the upstream, or null for the default
+     */
+    public static RecordingProxy start(URI upstream, HttpArchive archive, SSLContext sslContext) {
+        return start(upstream, archive, sslContext, 0);
+    }
+
+    public static RecordingProxy start(URI upstream, HttpArchive archive, SSLContext sslContext, int port) {
+        HttpClient.Builder clientBuilder = HttpClient.newBuilder()
+                .followRedirects(HttpClient.Redirect.NEVER)
+                .connectTimeout(Duration.ofSeconds(30));
+        if (sslContext != null) {
+            clientBuilder.sslContext(sslContext);
+        }
+        RecordingProxy proxy = new RecordingProxy(upstream, archive, clientBuilder.build(), "localhost", port);
+        proxy.server.start();
+        LOG.info("Recording {}: {}", upstream, proxy.baseURL());
+        return proxy;
+    }
+
+    public int port() {
+        return ((InetSocketAddress) server.getListenerInfo().get(0).getAddress()).getPort();
+    }
+
+    public String baseURL() {
+        return "http://localhost:" + port();
+    }
+
+    @Override
+    public void handleRequest(HttpServerExchange exchange) throws Exception {
+        if (exchange.isInIoThread()) {
+            exchange.dispatch(this);
+            return;
+        }
+        exchange.startBlocking();
+        byte[] requestBody = exchange.getInputStream().readAllBytes();
+        String method = exchange.getRequestMethod().toString();
+        String uri = requestURI(exchange);
+
+        HttpRequest.Builder requestBuilder = HttpRequest.newBuilder(URI.create(upstream.toString().replaceAll("/$", "") + uri))
+                .method(method, requestBody.length == 0 ? HttpRequest.BodyPublishers.noBody() : HttpRequest.BodyPublishers.ofByteArray(requestBody));
+        for (HeaderValues header : exchange.getRequestHeaders()) {
+            if (!RESTRICTED_REQUEST_HEADERS.contains(header.getHeaderName().toString().toLowerCase(Locale.ROOT))) {
+                for (String value : header) {
+                    requestBuilder.header(header.getHeaderName().toString(), value);
+                }
+            }
+        }
+
+        long startNanos = System.nanoTime();
+        HttpResponse<byte[]> response;
+        try {
+            response = client.send(requestBuilder.build(), HttpResponse.BodyHandlers.ofByteArray());
+        } catch (IOException e) {
+            LOG.warn("Upstream request failed: {} {}: {}", method, uri, e.toString());
+            exchange.setStatusCode(502);
+            return;
+        }
+        long durationNanos = System.nanoTime() - startNanos;
+        HttpArchive.Exchange recorded = new HttpArchive.Exchange(method, uri, response.statusCode(), response.headers().map(),
+                response.body(), durationNanos);
+        archive.add(recorded);
+        ReplayServer.respond(exchange, recorded.statusCode, recorded.headers, recorded.body);
+    }
+
+    /**
+     * Returns the path and query of the request, which is the key of the exchange in the archive.
+     */
+    static String requestURI(HttpServerExchange exchange) {
+        String query = exchange.getQueryString();
+        return query == null || query.isEmpty() ? exchange.getRequestURI() : exchange.getRequestURI() + "?" + query;
+    }
+
+    @Override
+    public void close() {
+        server.stop();
+        LOG.info("Stopped recording [exchanges: {}]", archive.size());
+    }
+
+    /**
+     * Usage: RecordingProxy UPSTREAM_BASE_URL ARCHIVE_FILE PORT
+     */
+    public static void main(String[] args) {
+        if (args.length < 3) {
+            System.err.println("Usage: RecordingProxy UPSTREAM_BASE_URL ARCHIVE_FILE PORT");
+            System.exit(1);
+        }
+        HttpArchive archive = new HttpArchive();
+        Path archivePath = Path.of(args[1]);
+        RecordingProxy proxy = start(URI.create(args[0]), archive, null, Integer.parseInt(args[2]));
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            proxy.close();
+            try {
+                archive.write(archivePath);
+                LOG.info("Wrote {} exchanges: {}", archive.size(), archivePath);
+            } catch (IOException e) {
+                LOG.error("Unable to write archive: {}", archivePath, e);
+            }
+        }));
+    }
+}
@@ -0,0 +1,147 @@
+package io.descoped.dc.server.replay;
+
+import io.undertow.Undertow;
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.util.HttpString;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Serves a recorded {@link HttpArchive} in place of the upstream APIs, so a specification can be run offline with the
+ * same input every time.
+ * <p>
+ * A response is delayed by its recorded duration divided by the speed, i.e. a speed of 1 replays the upstream
+ * latency, 2 replays it twice as fast, and 0 serves the responses without delay. A request that was not recorded is
+ * answered with 404, which ends a paginated specification at the end of the recording.
+ * <p>
+ * Run with {@link #main(String[])} to replay an archive that was recorded by {@link RecordingProxy}.
+ */
+public class ReplayServer implements HttpHandler, AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ReplayServer.class);
+
+    private final HttpArchive archive;
+    private final double speed;
+    private final Undertow server;
+    private final LongAdder served = new LongAdder();
+    private final LongAdder notFound = new LongAdder();
+    private volatile HttpArchive.Replay replay;
+
+    private ReplayServer(HttpArchive archive, double speed, String host, int port) {
+        if (speed < 0) {
+            throw new IllegalArgumentException("Replay speed must not be negative: " + speed);
+        }
+        this.archive = archive;
+        this.speed = speed;
+        this.replay = archive.replay();
+        this.server = Undertow.builder()
+                .addHttpListener(port, host)
+                // responses are delayed on the worker threads
+                .setWorkerThreads(256)
+                .setHandler(this)
+                .build();
+    }
+
+    /**
+     * Starts a replay server on a free port of localhost.
+     */
+    public static ReplayServer start(HttpArchive archive, double speed) {
+        return start(archive, speed, 0);
+    }
+
+    public static ReplayServer start(HttpArchive archive, double speed, int port) {
+        ReplayServer replayServer = new ReplayServer(archive, speed, "localhost", port);
+        replayServer.server.start();
+        LOG.info("Replaying {} exchanges at speed {}: {}", archive.size(), speed, replayServer.baseURL());
+        return replayServer;
+    }
+
+    public int port() {
+        return ((InetSocketAddress) server.getListenerInfo().get(0).getAddress()).getPort();
+    }
+
+    public String baseURL() {
+        return "http://localhost:" + port();
+    }
+
+    /**
+     * Replays the archive from the start again, e.g. before the next benchmark iteration.
+     */
+    public void reset() {
+        replay = archive.replay();
+        served.reset();
+        notFound.reset();
+    }
+
+    public long served() {
+        return served.sum();
+    }
+
+    public long notFound() {
+        return notFound.sum();
+    }
+
+    @Override
+    public void handleRequest(HttpServerExchange exchange) throws Exception {
+        if (exchange.isInIoThread()) {
+            exchange.dispatch(this);
+            return;
+        }
+        long startNanos = System.nanoTime();
+        exchange.startBlocking();
+        // the request body is not matched, but is read so the connection can be reused
+        exchange.getInputStream().readAllBytes();
+        HttpArchive.Exchange recorded = replay.next(exchange.getRequestMethod().toString(), RecordingProxy.requestURI(exchange));
+        if (recorded == null) {
+            notFound.increment();
+            exchange.setStatusCode(404);
+            return;
+        }
+        if (speed > 0) {
+            long remainingNanos = (long) (recorded.durationNanos / speed) - (System.nanoTime() - startNanos);
+            if (remainingNanos > 0) {
+                TimeUnit.NANOSECONDS.sleep(remainingNanos);
+            }
+        }
+        served.increment();
+        respond(exchange, recorded.statusCode, recorded.headers, recorded.body);
+    }
+
+    static void respond(HttpServerExchange exchange, int statusCode, Map<String, List<String>> headers, byte[] body) throws IOException {
+        exchange.setStatusCode(statusCode);
+        headers.forEach((name, values) -> exchange.getResponseHeaders().addAll(HttpString.tryFromString(name), values));
+        exchange.setResponseContentLength(body.length);
+        try (OutputStream out = exchange.getOutputStream()) {
+            out.write(body);
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop();
+        LOG.info("Stopped replay server [served: {}, not found: {}]", served.sum(), notFound.sum());
+    }
+
+    /**
+     * Usage: ReplayServer ARCHIVE_FILE PORT [SPEED]
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: ReplayServer ARCHIVE_FILE PORT [SPEED]");
+            System.exit(1);
+        }
+        HttpArchive archive = HttpArchive.read(Path.of(args[0]));
+        ReplayServer replayServer = start(archive, args.length > 2 ? Double.parseDouble(args[2]) : 1.0, Integer.parseInt(args[1]));
+        Runtime.getRuntime().addShutdownHook(new Thread(replayServer::close));
+    }
+}
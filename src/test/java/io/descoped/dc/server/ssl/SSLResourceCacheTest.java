@@ -0,0 +1,74 @@
+package io.descoped.dc.server.ssl;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class SSLResourceCacheTest {
+
+    final AtomicLong clock = new AtomicLong();
+    final AtomicInteger loadCount = new AtomicInteger();
+    final AtomicBoolean failing = new AtomicBoolean();
+    final List<String> released = new ArrayList<>();
+
+    SSLResourceCache<String> newCache() {
+        return new SSLResourceCache<>(() -> {
+            if (failing.get()) {
+                throw new IllegalStateException("secret manager unavailable");
+            }
+            return "resource-" + loadCount.incrementAndGet();
+        }, released::add, Duration.ofMinutes(5), clock::get);
+    }
+
+    @Test
+    public void testResourceIsReloadedAfterTtl() {
+        SSLResourceCache<String> cache = newCache();
+        assertEquals("resource-1", cache.get());
+        clock.addAndGet(TimeUnit.MINUTES.toNanos(4));
+        assertEquals("resource-1", cache.get());
+        assertEquals(1, loadCount.get());
+
+        clock.addAndGet(TimeUnit.MINUTES.toNanos(1));
+        assertEquals("resource-2", cache.get());
+        // the replaced resource is released on the following reload
+        assertTrue(released.isEmpty());
+        clock.addAndGet(TimeUnit.MINUTES.toNanos(5));
+        assertEquals("resource-3", cache.get());
+        assertEquals(List.of("resource-1"), released);
+
+        cache.close();
+        assertEquals(List.of("resource-1", "resource-2", "resource-3"), released);
+        assertThrows(IllegalStateException.class, cache::get);
+    }
+
+    @Test
+    public void testPreviousResourceIsServedWhenReloadFails() {
+        SSLResourceCache<String> cache = newCache();
+        failing.set(true);
+        assertThrows(IllegalStateException.class, cache::get);
+
+        failing.set(false);
+        String resource = cache.get();
+        clock.addAndGet(TimeUnit.MINUTES.toNanos(5));
+        failing.set(true);
+        assertSame(resource, cache.get());
+        // retried after the retry interval
+        clock.addAndGet(SSLResourceCache.RETRY_NANOS - 1);
+        failing.set(false);
+        assertSame(resource, cache.get());
+        clock.addAndGet(1);
+        assertEquals("resource-2", cache.get());
+        assertTrue(released.isEmpty());
+    }
+}
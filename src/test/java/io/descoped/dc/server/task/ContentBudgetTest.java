@@ -0,0 +1,85 @@
+package io.descoped.dc.server.task;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ContentBudgetTest {
+
+    @Test
+    public void testBytesAreHeldUntilPublished() {
+        ContentBudget budget = new ContentBudget(1000, 0, Duration.ofSeconds(10));
+        ContentBudget.Tracker tracker = budget.tracker();
+        tracker.beforeBuffer("topic-1", "1", 100);
+        tracker.beforeBuffer("topic-1", "1", 50);
+        tracker.beforeBuffer("topic-1", "2", 200);
+        tracker.beforeBuffer("topic-2", "1", 300);
+        assertEquals(650, budget.usedBytes());
+        assertEquals(Map.of("topic-1", 350L, "topic-2", 300L), budget.stats().usedBytesByTopic);
+
+        tracker.afterPublish("topic-1", new String[]{"1"}, 0);
+        assertEquals(500, budget.usedBytes());
+        assertEquals(500, tracker.bytes());
+        // unknown positions and topics are ignored
+        tracker.afterPublish("topic-1", new String[]{"3"}, 0);
+        tracker.afterPublish("topic-3", new String[]{"1"}, 0);
+        assertEquals(500, budget.usedBytes());
+
+        // unpublished documents are released when the content store is closed
+        tracker.onClose();
+        assertEquals(0, budget.usedBytes());
+        assertTrue(budget.stats().usedBytesByTopic.isEmpty());
+        assertEquals(650, budget.stats().peakBytes);
+        assertEquals(0, budget.stats().waits);
+    }
+
+    @Test
+    public void testBufferingWaitsForOtherWorkersToPublish() throws Exception {
+        ContentBudget budget = new ContentBudget(1000, 0, Duration.ofSeconds(10));
+        ContentBudget.Tracker first = budget.tracker();
+        ContentBudget.Tracker second = budget.tracker();
+        first.beforeBuffer("topic-1", "1", 800);
+
+        CompletableFuture<?> future = CompletableFuture.runAsync(() -> second.beforeBuffer("topic-2", "1", 300));
+        TimeUnit.MILLISECONDS.sleep(50);
+        assertFalse(future.isDone());
+        first.afterPublish("topic-1", new String[]{"1"}, 0);
+        future.get(5, TimeUnit.SECONDS);
+        assertEquals(300, budget.usedBytes());
+        assertEquals(1, budget.stats().waits);
+        assertEquals(0, budget.stats().waitTimeouts);
+    }
+
+    @Test
+    public void testWorkerDoesNotWaitForItself() {
+        ContentBudget budget = new ContentBudget(1000, 500, Duration.ofSeconds(10));
+        ContentBudget.Tracker tracker = budget.tracker();
+        tracker.beforeBuffer("topic-1", "1", 400);
+        tracker.beforeBuffer("topic-1", "2", 400);
+        tracker.beforeBuffer("topic-2", "1", 1500);
+        assertEquals(2300, budget.usedBytes());
+        assertEquals(0, budget.stats().waits);
+    }
+
+    @Test
+    public void testTopicBudgetWaitTimesOut() {
+        ContentBudget budget = new ContentBudget(1000, 500, Duration.ofMillis(20));
+        budget.tracker().beforeBuffer("topic-1", "1", 400);
+        ContentBudget.Tracker tracker = budget.tracker();
+        // other topics are not limited by the topic budget
+        tracker.beforeBuffer("topic-2", "1", 400);
+        assertEquals(0, budget.stats().waits);
+        // proceeds over the budget after the max wait
+        tracker.beforeBuffer("topic-1", "2", 200);
+        assertEquals(1000, budget.usedBytes());
+        assertEquals(1, budget.stats().waits);
+        assertEquals(1, budget.stats().waitTimeouts);
+    }
+}
@@ -0,0 +1,45 @@
+package io.descoped.dc.server.task;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class CronExpressionTest {
+
+    static ZonedDateTime time(int year, int month, int day, int hour, int minute) {
+        return ZonedDateTime.of(year, month, day, hour, minute, 0, 0, ZoneOffset.UTC);
+    }
+
+    @Test
+    public void testNextMatchingTime() {
+        ZonedDateTime now = time(2020, 1, 31, 10, 17);
+        assertEquals(time(2020, 1, 31, 10, 18), CronExpression.parse("* * * * *").next(now));
+        assertEquals(time(2020, 1, 31, 10, 30), CronExpression.parse("*/15 * * * *").next(now));
+        assertEquals(time(2020, 1, 31, 11, 5), CronExpression.parse("5 * * * *").next(now));
+        assertEquals(time(2020, 2, 1, 2, 0), CronExpression.parse("0 2 * * *").next(now));
+        assertEquals(time(2020, 2, 29, 0, 0), CronExpression.parse("0 0 29 2 *").next(now));
+        assertEquals(time(2020, 2, 3, 6, 0), CronExpression.parse("0 6 * * 1-5").next(time(2020, 2, 1, 8, 0)));
+        assertEquals(time(2020, 2, 2, 0, 0), CronExpression.parse("0 0 * * 7").next(time(2020, 2, 1, 8, 0)));
+        assertEquals(time(2020, 2, 10, 0, 0), CronExpression.parse("0 0 10,20 * *").next(time(2020, 2, 1, 8, 0)));
+    }
+
+    @Test
+    public void testDayOfMonthOrDayOfWeek() {
+        // both restricted: the 15th of the month or any Monday
+        assertEquals(time(2020, 2, 3, 0, 0), CronExpression.parse("0 0 15 * 1").next(time(2020, 2, 1, 0, 0)));
+        assertEquals(time(2020, 2, 15, 0, 0), CronExpression.parse("0 0 15 * 1").next(time(2020, 2, 14, 0, 0)));
+    }
+
+    @Test
+    public void testInvalidExpressions() {
+        assertThrows(IllegalArgumentException.class, () -> CronExpression.parse("* * * *"));
+        assertThrows(IllegalArgumentException.class, () -> CronExpression.parse("60 * * * *"));
+        assertThrows(IllegalArgumentException.class, () -> CronExpression.parse("5-1 * * * *"));
+        assertThrows(IllegalArgumentException.class, () -> CronExpression.parse("a * * * *"));
+        assertThrows(IllegalStateException.class, () -> CronExpression.parse("0 0 31 2 *").next(time(2020, 1, 1, 0, 0)));
+    }
+}
@@ -0,0 +1,73 @@
+package io.descoped.dc.server.task;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void testBucketBounds() {
+        for (long value : new long[]{0, 1, 7, 8, 9, 15, 16, 17, 1000, 123_456_789, Long.MAX_VALUE}) {
+            int index = LatencyHistogram.bucketIndex(value);
+            assertTrue(index < LatencyHistogram.BUCKETS);
+            assertTrue(LatencyHistogram.bucketUpperBound(index) >= value, "upper bound of " + value);
+            // at most 12.5% relative error
+            assertTrue(LatencyHistogram.bucketUpperBound(index) - value <= value / 8, "error of " + value);
+            if (index > 0) {
+                assertTrue(LatencyHistogram.bucketUpperBound(index - 1) < value, "lower bound of " + value);
+            }
+        }
+    }
+
+    @Test
+    public void testPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int n = 1; n <= 1000; n++) {
+            histogram.record(TimeUnit.MILLISECONDS.toNanos(n));
+        }
+        assertEquals(1000, histogram.count());
+        assertWithin(TimeUnit.MILLISECONDS.toNanos(500), histogram.percentile(50));
+        assertWithin(TimeUnit.MILLISECONDS.toNanos(990), histogram.percentile(99));
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(1000), histogram.percentile(100));
+
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(1000.0, snapshot.maxMillis);
+        assertTrue(Math.abs(snapshot.meanMillis - 500.5) < 0.01, "mean: " + snapshot.meanMillis);
+    }
+
+    static void assertWithin(long expected, long actual) {
+        assertTrue(actual >= expected && actual - expected <= expected / 8, "expected about " + expected + " but was " + actual);
+    }
+
+    @Test
+    public void testConcurrentRecording() throws Exception {
+        LatencyHistogram histogram = new LatencyHistogram();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                futures.add(executor.submit(() -> {
+                    for (int n = 0; n < 100_000; n++) {
+                        histogram.record(n);
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(800_000, histogram.count());
+        assertEquals(800_000, histogram.snapshot().count);
+    }
+}
@@ -0,0 +1,104 @@
+package io.descoped.dc.server.task;
+
+import io.descoped.dc.api.Specification;
+import io.descoped.dc.api.node.builder.SpecificationBuilder;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+public class SpecificationCacheTest {
+
+    static final Function<String, SpecificationBuilder> DESERIALIZER = json -> Specification.start(json, "test", "loop");
+
+    @Test
+    public void testCacheHitAndMiss() {
+        SpecificationCache cache = new SpecificationCache(10, "config");
+        SpecificationCache.Entry first = cache.get("{\"id\":\"SPEC-1\"}", DESERIALIZER);
+        assertSame(first, cache.get("{\"id\":\"SPEC-1\"}", DESERIALIZER));
+        assertNotSame(first, cache.get("{\"id\":\"SPEC-2\"}", DESERIALIZER));
+        assertEquals("{\"id\":\"SPEC-1\"}", first.json);
+
+        SpecificationCache.Stats stats = cache.stats();
+        assertEquals(1, stats.hits);
+        assertEquals(2, stats.misses);
+        assertEquals(2, stats.size);
+    }
+
+    @Test
+    public void testLeastRecentlyUsedEviction() {
+        AtomicInteger deserialized = new AtomicInteger();
+        Function<String, SpecificationBuilder> deserializer = json -> {
+            deserialized.incrementAndGet();
+            return DESERIALIZER.apply(json);
+        };
+        SpecificationCache cache = new SpecificationCache(2, "config");
+        cache.get("a", deserializer);
+        cache.get("b", deserializer);
+        cache.get("a", deserializer);
+        // "b" is the least recently used and is evicted
+        cache.get("c", deserializer);
+        assertEquals(3, deserialized.get());
+        cache.get("a", deserializer);
+        assertEquals(3, deserialized.get());
+        cache.get("b", deserializer);
+        assertEquals(4, deserialized.get());
+
+        assertEquals(2, cache.size());
+        assertEquals(2, cache.stats().evictions);
+    }
+
+    @Test
+    public void testConfigurationIsPartOfKey() {
+        assertEquals(new SpecificationCache(1, "config").key("spec"), new SpecificationCache(1, "config").key("spec"));
+        assertNotEquals(new SpecificationCache(1, "config").key("spec"), new SpecificationCache(1, "other").key("spec"));
+    }
+
+    @Test
+    public void testDisabledCache() {
+        SpecificationCache cache = new SpecificationCache(0, "config");
+        assertNotSame(cache.get("a", DESERIALIZER).specification, cache.get("a", DESERIALIZER).specification);
+        assertEquals(0, cache.size());
+        assertEquals(2, cache.stats().misses);
+    }
+
+    @Test
+    public void testSharedSpecificationIsNotMutatedByConcurrentBuilds() throws Exception {
+        SpecificationCache cache = new SpecificationCache(10, "config");
+        SpecificationBuilder shared = cache.get("SPEC-1", DESERIALIZER).specification;
+        String serialized = shared.serialize();
+
+        int workers = 8;
+        ExecutorService executor = Executors.newFixedThreadPool(workers);
+        try {
+            List<Future<Specification>> builds = new ArrayList<>();
+            for (int i = 0; i < workers; i++) {
+                builds.add(executor.submit(() -> cache.get("SPEC-1", DESERIALIZER).specification.build()));
+            }
+            Set<Specification> specifications = Collections.newSetFromMap(new IdentityHashMap<>());
+            for (Future<Specification> build : builds) {
+                specifications.add(build.get(10, TimeUnit.SECONDS));
+            }
+            // each worker builds a specification graph of its own and the cached builder is left as it was
+            assertEquals(workers, specifications.size());
+            assertEquals(serialized, shared.serialize());
+            assertSame(shared, cache.get("SPEC-1", DESERIALIZER).specification);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
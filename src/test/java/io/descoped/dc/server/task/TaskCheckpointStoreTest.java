@@ -0,0 +1,147 @@
+package io.descoped.dc.server.task;
+
+import io.descoped.dc.api.util.CommonUtils;
+import io.descoped.dc.server.db.LmdbEnvironment;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Test requires vm arg: --add-opens java.base/java.nio=lmdbjava --add-exports=java.base/sun.nio.ch=lmdbjava
+ */
+public class TaskCheckpointStoreTest {
+
+    Path dbPath;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        dbPath = Files.createTempDirectory("task-checkpoints");
+    }
+
+    @AfterEach
+    public void tearDown() {
+        LmdbEnvironment.removePath(dbPath);
+    }
+
+    TaskCheckpointStore open() {
+        return new TaskCheckpointStore(new LmdbEnvironment(null, dbPath, "task-checkpoints"), Duration.ofMinutes(1));
+    }
+
+    @Test
+    public void testCheckpointEncoding() {
+        TaskCheckpointStore.Checkpoint checkpoint = TaskCheckpointStore.Checkpoint.empty("spec-1")
+                .begin("{\"id\":\"spec-1\"}", TaskPriority.HIGH, 3)
+                .position("topic-1", "10")
+                .position("topic-2", "æøå")
+                .position("topic-1", "11");
+
+        TaskCheckpointStore.Checkpoint decoded = TaskCheckpointStore.Checkpoint.fromByteBuffer("spec-1", checkpoint.toByteBuffer());
+        assertEquals("{\"id\":\"spec-1\"}", decoded.specification);
+        assertEquals(TaskPriority.HIGH, decoded.priority);
+        assertEquals(3, decoded.weight);
+        assertTrue(decoded.running);
+        assertEquals(checkpoint.updated, decoded.updated);
+        assertEquals(Map.of("topic-1", "11", "topic-2", "æøå"), decoded.positions);
+
+        assertNull(TaskCheckpointStore.Checkpoint.fromByteBuffer("spec-2", TaskCheckpointStore.Checkpoint.empty("spec-2").toByteBuffer()).specification);
+    }
+
+    @Test
+    public void testRunningTaskIsResumedFromLastPublishedPosition() {
+        try (TaskCheckpointStore store = open()) {
+            TaskCheckpointStore.Tracker tracker = store.tracker("spec-1", "{}", TaskPriority.NORMAL, 1);
+            tracker.begin();
+            tracker.afterPublish("topic", new String[]{"1", "2", "3"}, 0);
+            store.flush();
+            // coalesced until the next flush, which is done on close
+            tracker.afterPublish("topic", new String[]{"4", "5"}, 0);
+            tracker.afterPublish("topic", new String[]{"6"}, 0);
+            assertEquals("6", store.lastPosition("spec-1", "topic"));
+        }
+
+        try (TaskCheckpointStore store = open()) {
+            List<TaskCheckpointStore.Checkpoint> running = store.running();
+            assertEquals(1, running.size());
+            assertEquals("spec-1", running.get(0).specificationId);
+            assertEquals("{}", running.get(0).specification);
+
+            // the content store position wins, and the checkpoint is only used when the content store has none
+            TaskCheckpointStore.Tracker tracker = store.tracker("spec-1", "{}", TaskPriority.NORMAL, 1);
+            assertEquals("6", tracker.lastPosition("topic", null));
+            assertEquals("9", tracker.lastPosition("topic", "9"));
+            assertNull(tracker.lastPosition("other-topic", null));
+        }
+    }
+
+    @Test
+    public void testEndedTaskIsNotResumed() {
+        try (TaskCheckpointStore store = open()) {
+            TaskCheckpointStore.Tracker tracker = store.tracker("spec-1", "{}", TaskPriority.NORMAL, 1);
+            tracker.begin();
+            tracker.afterPublish("topic", new String[]{"1"}, 0);
+            tracker.end();
+            // a tracker is ended once, so a late close doesn't touch the next task of the specification
+            store.tracker("spec-1", "{}", TaskPriority.NORMAL, 1).begin();
+            tracker.onClose();
+            assertTrue(store.get("spec-1").running);
+
+            store.tracker("spec-2", "{}", TaskPriority.NORMAL, 1).begin();
+            assertTrue(store.remove("spec-2"));
+            assertFalse(store.remove("spec-2"));
+        }
+
+        try (TaskCheckpointStore store = open()) {
+            assertEquals(1, store.list().size());
+            assertEquals("1", store.lastPosition("spec-1", "topic"));
+            assertNull(store.get("spec-2"));
+        }
+    }
+
+    static String optIn(String specification, String globalState) {
+        return specification.replace("\"global.topic\" : \"topic\"", "\"global.topic\" : \"topic\", " + globalState);
+    }
+
+    @Test
+    public void testSpecificationIsOnlyResumedWhenItOptsIn() throws IOException {
+        // the specification has "fromPosition" : "1", so it never asks the content store for the last position
+        String specification = Files.readString(CommonUtils.currentPath().resolve("src/main/resources/worker.config/page-test.json"));
+        // a specification that doesn't opt in may page by an offset or token that isn't its published position
+        assertEquals(specification, TaskCheckpointStore.Checkpoint.empty("TEST").begin(specification, TaskPriority.NORMAL, 1)
+                .position("topic", "42").resumedSpecification());
+
+        String optedIn = optIn(specification, "\"global.checkpoint.resumeVariable\" : \"fromPosition\"");
+        TaskCheckpointStore.Checkpoint checkpoint = TaskCheckpointStore.Checkpoint.empty("TEST").begin(optedIn, TaskPriority.NORMAL, 1);
+        assertEquals(optedIn, checkpoint.resumedSpecification());
+        assertEquals(optedIn, checkpoint.position("other-topic", "42").resumedSpecification());
+
+        // resumed after the last published position
+        String resumed = checkpoint.position("topic", "42").resumedSpecification();
+        assertTrue(resumed.contains("\"fromPosition\":\"43\""));
+        // the pagination keeps evaluating the next position
+        assertTrue(resumed.contains("\"fromPosition\":\"${nextPosition}\""));
+        // the position after a position that is not an integer is unknown
+        assertEquals(optedIn, checkpoint.position("topic", "a1b2").resumedSpecification());
+
+        // an upstream that pages from after the given position is resumed from the last position
+        String fromLast = optIn(specification, "\"global.checkpoint.resumeVariable\" : \"fromPosition\", \"global.checkpoint.resumeFrom\" : \"last\"");
+        assertTrue(TaskCheckpointStore.Checkpoint.empty("TEST").begin(fromLast, TaskPriority.NORMAL, 1)
+                .position("topic", "a1b2").resumedSpecification().contains("\"fromPosition\":\"a1b2\""));
+
+        // an expression is left to the worker, which gets the checkpoint as the last position of the content store
+        String expression = optedIn.replace("\"fromPosition\" : \"1\"", "\"fromPosition\" : \"${contentStream.lastOrInitialPosition(1)}\"");
+        assertEquals(expression, TaskCheckpointStore.Checkpoint.empty("TEST").begin(expression, TaskPriority.NORMAL, 1)
+                .position("topic", "42").resumedSpecification());
+    }
+}
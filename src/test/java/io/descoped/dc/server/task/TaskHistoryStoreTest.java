@@ -0,0 +1,106 @@
+package io.descoped.dc.server.task;
+
+import io.descoped.dc.server.db.LmdbEnvironment;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Test requires vm arg: --add-opens java.base/java.nio=lmdbjava --add-exports=java.base/sun.nio.ch=lmdbjava
+ */
+public class TaskHistoryStoreTest {
+
+    static final long DAY = Duration.ofDays(1).toMillis();
+
+    Path dbPath;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        dbPath = Files.createTempDirectory("task-history");
+    }
+
+    @AfterEach
+    public void tearDown() {
+        LmdbEnvironment.removePath(dbPath);
+    }
+
+    TaskHistoryStore open(int maxRuns, Duration retention) {
+        return new TaskHistoryStore(new LmdbEnvironment(null, dbPath, "task-history"), maxRuns, retention);
+    }
+
+    static TaskHistoryStore.Run run(String specificationId, long finished) {
+        return new TaskHistoryStore.Run(UUID.randomUUID(), specificationId, "name", "COMPLETED", null, finished - 1000, finished,
+                10, 20, 300, Map.of("topic", "10"));
+    }
+
+    static List<Long> finished(List<TaskHistoryStore.Run> runs) {
+        return runs.stream().map(run -> run.finished).collect(Collectors.toList());
+    }
+
+    @Test
+    public void testRunEncoding() {
+        UUID taskId = UUID.randomUUID();
+        TaskHistoryStore.Run run = new TaskHistoryStore.Run(taskId, "spec-1", null, "FAILED", "x".repeat(5000), 1000, 3000,
+                1, 2, 3, Map.of("topic-1", "æøå"));
+        TaskHistoryStore.Run decoded = TaskHistoryStore.Run.fromByteBuffer(3000, run.toByteBuffer());
+        assertEquals(taskId, decoded.taskId);
+        assertEquals("spec-1", decoded.specificationId);
+        assertNull(decoded.specificationName);
+        assertEquals("FAILED", decoded.status);
+        assertEquals(TaskHistoryStore.MAX_ERROR_LENGTH, decoded.error.length());
+        assertEquals(Map.of("topic-1", "æøå"), decoded.lastPositions);
+
+        TaskRun view = decoded.view();
+        assertEquals(2000, view.durationMillis);
+        assertEquals("1970-01-01T00:00:03Z", view.finished);
+        assertEquals(3, view.bytes);
+    }
+
+    @Test
+    public void testRingIsBoundedByMaxRuns() {
+        try (TaskHistoryStore store = open(5, Duration.ZERO)) {
+            for (int n = 1; n <= 8; n++) {
+                store.append(run(n % 2 == 0 ? "spec-even" : "spec-odd", n * 1000L));
+            }
+            assertEquals(5, store.size());
+            assertEquals(List.of(8000L, 7000L, 6000L, 5000L, 4000L), finished(store.query(0, Long.MAX_VALUE, null, 100)));
+            assertEquals(List.of(6000L, 5000L), finished(store.query(5000, 6000, null, 100)));
+            assertEquals(List.of(8000L, 6000L), finished(store.query(0, Long.MAX_VALUE, "spec-even", 2)));
+            assertTrue(store.query(6000, 5000, null, 100).isEmpty());
+        }
+
+        // the size and sequence are restored, so a reopened ring keeps its bound and order
+        try (TaskHistoryStore store = open(5, Duration.ZERO)) {
+            assertEquals(5, store.size());
+            store.append(run("spec-1", 8000));
+            assertEquals(5, store.size());
+            List<TaskHistoryStore.Run> runs = store.query(8000, 8000, null, 100);
+            assertEquals(2, runs.size());
+            assertEquals("spec-1", runs.get(0).specificationId);
+        }
+    }
+
+    @Test
+    public void testRunsExpireAfterRetention() {
+        try (TaskHistoryStore store = open(100, Duration.ofDays(7))) {
+            store.append(run("spec-1", DAY));
+            store.append(run("spec-1", 5 * DAY));
+            store.append(run("spec-1", 9 * DAY));
+            assertEquals(List.of(9 * DAY, 5 * DAY), finished(store.query(0, Long.MAX_VALUE, null, 100)));
+            assertEquals(2, store.size());
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package io.descoped.dc.server.task;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+public class TaskListSnapshotTest {
+
+    static final Function<List<WorkManager.Task>, String> RENDERER = tasks -> tasks.stream().map(task -> task.taskId).collect(Collectors.joining(","));
+
+    static WorkManager.Task task(String taskId, String specificationId, WorkManager.TaskStatus status) {
+        return task(taskId, specificationId, status, 0);
+    }
+
+    static WorkManager.Task task(String taskId, String specificationId, WorkManager.TaskStatus status, long cpuMillis) {
+        return new WorkManager.Task(taskId, specificationId, "test", status, TaskPriority.NORMAL, 1, cpuMillis, cpuMillis * 1000);
+    }
+
+    static String body(TaskListSnapshot.Page page) {
+        return new String(page.body, StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testIncrementalUpdates() {
+        TaskListSnapshot snapshot = new TaskListSnapshot();
+        TaskListSnapshot.View empty = snapshot.view();
+
+        snapshot.put(task("b", "spec-1", WorkManager.TaskStatus.QUEUED));
+        snapshot.put(task("a", "spec-2", WorkManager.TaskStatus.RUNNING));
+        TaskListSnapshot.View view = snapshot.view();
+        assertNotEquals(empty.etag, view.etag);
+        assertEquals(2, view.tasks.size());
+
+        snapshot.put(task("b", "spec-1", WorkManager.TaskStatus.RUNNING));
+        assertEquals(WorkManager.TaskStatus.RUNNING, snapshot.view().tasks.get(1).status);
+
+        // removing an unknown task doesn't change the version
+        TaskListSnapshot.View beforeRemove = snapshot.view();
+        snapshot.remove("unknown");
+        assertSame(beforeRemove, snapshot.view());
+        snapshot.remove("a");
+        assertEquals(1, snapshot.view().tasks.size());
+        assertEquals(0, empty.tasks.size());
+    }
+
+    @Test
+    public void testCursorPaginationAndFilters() {
+        TaskListSnapshot snapshot = new TaskListSnapshot();
+        for (String taskId : List.of("e", "a", "d", "c", "b")) {
+            snapshot.put(task(taskId, "a".equals(taskId) || "c".equals(taskId) ? "spec-1" : "spec-2",
+                    "d".equals(taskId) ? WorkManager.TaskStatus.QUEUED : WorkManager.TaskStatus.RUNNING));
+        }
+        TaskListSnapshot.View view = snapshot.view();
+
+        TaskListSnapshot.Page first = view.page(new TaskListSnapshot.Query(null, null, null, 2), RENDERER);
+        assertEquals("a,b", body(first));
+        assertEquals("b", first.nextCursor);
+        TaskListSnapshot.Page second = view.page(new TaskListSnapshot.Query(null, null, first.nextCursor, 2), RENDERER);
+        assertEquals("c,d", body(second));
+        TaskListSnapshot.Page last = view.page(new TaskListSnapshot.Query(null, null, second.nextCursor, 2), RENDERER);
+        assertEquals("e", body(last));
+        assertNull(last.nextCursor);
+
+        assertEquals("a,c", body(view.page(new TaskListSnapshot.Query("spec-1", null, null, 10), RENDERER)));
+        assertEquals("d", body(view.page(new TaskListSnapshot.Query(null, WorkManager.TaskStatus.QUEUED, null, 10), RENDERER)));
+        // a cursor for a task that has since been removed continues from where it would have been
+        assertEquals("c,d", body(view.page(new TaskListSnapshot.Query(null, null, "bb", 2), RENDERER)));
+    }
+
+    @Test
+    public void testRenderedPagesAreCachedPerVersion() {
+        AtomicInteger renderCount = new AtomicInteger();
+        Function<List<WorkManager.Task>, String> renderer = tasks -> {
+            renderCount.incrementAndGet();
+            return RENDERER.apply(tasks);
+        };
+        TaskListSnapshot snapshot = new TaskListSnapshot();
+        snapshot.put(task("a", "spec-1", WorkManager.TaskStatus.RUNNING));
+        TaskListSnapshot.Query query = new TaskListSnapshot.Query(null, null, null, 10);
+
+        TaskListSnapshot.Page page = snapshot.view().page(query, renderer);
+        assertSame(page, snapshot.view().page(new TaskListSnapshot.Query(null, null, null, 10), renderer));
+        assertEquals(1, renderCount.get());
+
+        snapshot.put(task("b", "spec-1", WorkManager.TaskStatus.RUNNING));
+        assertEquals("a,b", body(snapshot.view().page(query, renderer)));
+        assertEquals(2, renderCount.get());
+    }
+
+    @Test
+    public void testResourceUsageUpdates() {
+        TaskListSnapshot snapshot = new TaskListSnapshot();
+        snapshot.put(task("a", "spec-1", WorkManager.TaskStatus.RUNNING));
+        TaskListSnapshot.View view = snapshot.view();
+
+        // unchanged tasks don't change the version
+        snapshot.update(List.of(task("a", "spec-1", WorkManager.TaskStatus.RUNNING)));
+        assertSame(view, snapshot.view());
+
+        // removed tasks aren't put back
+        snapshot.update(List.of(task("a", "spec-1", WorkManager.TaskStatus.RUNNING, 10), task("b", "spec-2", WorkManager.TaskStatus.RUNNING, 10)));
+        assertNotEquals(view.etag, snapshot.view().etag);
+        assertEquals(1, snapshot.view().tasks.size());
+        assertEquals(10, snapshot.view().tasks.get(0).cpuMillis);
+        assertEquals(10000, snapshot.view().tasks.get(0).allocatedBytes);
+
+        // a task whose status has changed in between is not replaced by the older status
+        snapshot.put(task("a", "spec-1", WorkManager.TaskStatus.CANCELLING, 10));
+        snapshot.update(List.of(task("a", "spec-1", WorkManager.TaskStatus.RUNNING, 20)));
+        assertEquals(WorkManager.TaskStatus.CANCELLING, snapshot.view().tasks.get(0).status);
+        assertEquals(10, snapshot.view().tasks.get(0).cpuMillis);
+    }
+}
@@ -0,0 +1,32 @@
+package io.descoped.dc.server.task;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class TaskMetricsTest {
+
+    static final long MILLIS = 1_000_000;
+
+    @Test
+    public void testUpstreamLatencyIsRecordedOncePerResponse() {
+        TaskMetrics metrics = new TaskMetrics();
+        // one page split into three documents
+        metrics.onResponse("http://localhost/page", 200, 40 * MILLIS);
+        for (int n = 0; n < 3; n++) {
+            metrics.afterBuffer("topic", String.valueOf(n), 100, MILLIS);
+        }
+        metrics.afterPublish("topic", new String[]{"0", "1", "2"}, 2 * MILLIS);
+
+        TaskMetrics.Snapshot snapshot = metrics.snapshot(new WorkManager.JobId(UUID.randomUUID(), "spec", "spec", null));
+        assertEquals(1, snapshot.upstreamLatency.count);
+        assertEquals(3, snapshot.bufferLatency.count);
+        assertEquals(3, snapshot.documents.total);
+        assertEquals(300, snapshot.bytes.total);
+        assertEquals(Long.valueOf(40), snapshot.stageTimeMillis.get("upstream"));
+        assertEquals(Long.valueOf(3), snapshot.stageTimeMillis.get("buffer"));
+        assertEquals("2", metrics.lastPositions().get("topic"));
+    }
+}
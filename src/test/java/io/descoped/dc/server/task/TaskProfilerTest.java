@@ -0,0 +1,126 @@
+package io.descoped.dc.server.task;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TaskProfilerTest {
+
+    static class FakeCounters implements TaskProfiler.Counters {
+        long nanos;
+        long cpuNanos;
+        long allocatedBytes;
+
+        void advance(long nanos, long cpuNanos, long allocatedBytes) {
+            this.nanos += nanos;
+            this.cpuNanos += cpuNanos;
+            this.allocatedBytes += allocatedBytes;
+        }
+
+        @Override
+        public long nanoTime() {
+            return nanos;
+        }
+
+        @Override
+        public long cpuNanos() {
+            return cpuNanos;
+        }
+
+        @Override
+        public long allocatedBytes() {
+            return allocatedBytes;
+        }
+    }
+
+    static TaskProfiler.ProfileNode child(TaskProfiler.ProfileNode node, String name) {
+        return node.children.stream().filter(child -> name.equals(child.name)).findFirst().orElseThrow();
+    }
+
+    static List<String> names(TaskProfiler.ProfileNode node) {
+        return node.children.stream().map(child -> child.name).collect(Collectors.toList());
+    }
+
+    @Test
+    public void testTimelineIsSplitIntoPipelineNodes() {
+        FakeCounters counters = new FakeCounters();
+        TaskProfiler profiler = new TaskProfiler(counters);
+
+        counters.advance(1_000_000, 500_000, 100);
+        profiler.beforeCall("addPaginationDocument", "topic");
+        counters.advance(2_000_000, 1_000_000, 200);
+        profiler.afterCall("addPaginationDocument", "topic");
+
+        // 10 ms until the next call, of which 6 ms is spent in the upstream request
+        counters.advance(10_000_000, 3_000_000, 4000);
+        profiler.beforeCall("bufferPaginationEntryDocument", "topic");
+        profiler.onResponse("http://localhost/page", 200, 6_000_000);
+        counters.advance(1_000_000, 1_000_000, 300);
+        profiler.afterCall("bufferPaginationEntryDocument", "topic");
+
+        counters.advance(2_000_000, 2_000_000, 500);
+        profiler.beforeCall("publish", "topic");
+        counters.advance(5_000_000, 100_000, 50);
+        profiler.afterCall("publish", "topic");
+        profiler.onClose();
+
+        TaskProfiler.Profile profile = profiler.profile("task-1", "spec-1");
+        assertTrue(profile.finished);
+        TaskProfiler.ProfileNode root = profile.root;
+        assertEquals(21.0, root.wallMillis);
+        assertEquals(List.of("fetch", "process", "buffer", "publish"), names(root));
+
+        assertEquals(6.0, child(root, "fetch").wallMillis);
+        assertEquals(1, child(root, "fetch").count);
+
+        // the time before the first call isn't profiled
+        TaskProfiler.ProfileNode process = child(root, "process");
+        assertEquals(2, process.count);
+        assertEquals(6.0, process.wallMillis);
+        assertEquals(5.0, process.cpuMillis);
+        assertEquals(4500, process.allocatedBytes);
+
+        TaskProfiler.ProfileNode buffer = child(root, "buffer");
+        assertEquals(List.of("page", "entry"), names(buffer));
+        assertEquals(2, buffer.count);
+        assertEquals(3.0, buffer.wallMillis);
+        assertEquals(2.0, buffer.cpuMillis);
+        assertEquals(1.0, child(child(buffer, "entry"), "topic").wallMillis);
+
+        TaskProfiler.ProfileNode publish = child(root, "publish");
+        assertEquals(5.0, publish.wallMillis);
+        assertEquals(0.1, publish.cpuMillis);
+        assertEquals(50, child(publish, "topic").allocatedBytes);
+    }
+
+    @Test
+    public void testUnsupportedCountersAreReportedAsZero() {
+        TaskProfiler.Counters counters = new FakeCounters() {
+            @Override
+            public long cpuNanos() {
+                return -1;
+            }
+
+            @Override
+            public long allocatedBytes() {
+                return -1;
+            }
+        };
+        TaskProfiler profiler = new TaskProfiler(counters);
+        profiler.beforeCall("bufferDocument", "topic");
+        ((FakeCounters) counters).advance(3_000_000, 0, 0);
+        profiler.afterCall("bufferDocument", "topic");
+
+        TaskProfiler.Profile profile = profiler.profile("task-1", "spec-1");
+        assertFalse(profile.finished);
+        TaskProfiler.ProfileNode document = child(child(profile.root, "buffer"), "document");
+        assertEquals(3.0, document.wallMillis);
+        assertEquals(0.0, document.cpuMillis);
+        assertEquals(0, document.allocatedBytes);
+    }
+}
@@ -0,0 +1,99 @@
+package io.descoped.dc.server.task;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Drives concurrent registration, lookup and remove operations against the {@link TaskRegistry} with thousands of
+ * registered tasks, through the methods the {@link WorkManager} uses: registerIfIdle and attach when a task is submitted
+ * and started, get and getBySpecificationId when it is looked up or cancelled, and remove when it is done.
+ * <p>
+ * Run from the IDE using {@link #main(String[])}, or with the JMH runner on the test classpath.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(8)
+public class TaskRegistryBenchmark {
+
+    @Param({"100", "1000", "5000"})
+    int registeredTasks;
+
+    TaskRegistry registry;
+    WorkManager.JobId[] registeredJobIds;
+
+    @Setup
+    public void setUp() {
+        registry = new TaskRegistry();
+        registeredJobIds = new WorkManager.JobId[registeredTasks];
+        for (int n = 0; n < registeredTasks; n++) {
+            WorkManager.JobId jobId = new WorkManager.JobId(UUID.randomUUID(), "spec-" + n, "benchmark", null);
+            registry.registerIfIdle(jobId);
+            registry.attach(jobId.workerId, new CompletableFuture<>());
+            registeredJobIds[n] = jobId;
+        }
+    }
+
+    WorkManager.JobId randomRegisteredJobId() {
+        return registeredJobIds[ThreadLocalRandom.current().nextInt(registeredJobIds.length)];
+    }
+
+    @Benchmark
+    public WorkManager.JobId lookupByWorkerId() {
+        return registry.get(randomRegisteredJobId().workerId);
+    }
+
+    @Benchmark
+    public boolean containsSpecificationId() {
+        return registry.contains(randomRegisteredJobId().specificationId);
+    }
+
+    @Benchmark
+    public List<WorkManager.JobId> lookupBySpecificationId() {
+        return registry.getBySpecificationId(randomRegisteredJobId().specificationId);
+    }
+
+    // a duplicate submission of a registered specification, which is refused
+    @Benchmark
+    public boolean registerIfIdleConflict() {
+        return registry.registerIfIdle(new WorkManager.JobId(UUID.randomUUID(), randomRegisteredJobId().specificationId, "benchmark", null));
+    }
+
+    // a task of a new specification that is submitted, started and done
+    @Benchmark
+    public WorkManager.JobId registerAttachAndRemove() {
+        WorkManager.JobId jobId = new WorkManager.JobId(UUID.randomUUID(), "new-" + UUID.randomUUID(), "benchmark", null);
+        registry.registerIfIdle(jobId);
+        registry.attach(jobId.workerId, new CompletableFuture<>());
+        return registry.remove(jobId.workerId);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(TaskRegistryBenchmark.class.getSimpleName())
+                .build()
+        ).run();
+    }
+}
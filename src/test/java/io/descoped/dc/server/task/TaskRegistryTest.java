@@ -0,0 +1,170 @@
+package io.descoped.dc.server.task;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TaskRegistryTest {
+
+    static WorkManager.JobId newJobId(String specificationId) {
+        return new WorkManager.JobId(UUID.randomUUID(), specificationId, "test", null);
+    }
+
+    @Test
+    public void testRegistryIndexes() {
+        TaskRegistry registry = new TaskRegistry();
+        WorkManager.JobId first = newJobId("spec-1");
+        WorkManager.JobId second = newJobId("spec-1");
+        WorkManager.JobId third = newJobId("spec-2");
+        assertTrue(registry.registerIfIdle(first));
+        assertFalse(registry.registerIfIdle(second));
+        assertTrue(registry.registerIfIdle(third));
+        registry.attach(first.workerId, new CompletableFuture<>());
+
+        assertSame(first, registry.get(first.workerId));
+        assertNull(registry.get(second.workerId));
+        assertTrue(registry.contains("spec-1"));
+        assertEquals(List.of(first), registry.getBySpecificationId("spec-1"));
+        assertEquals(2, registry.size());
+
+        assertSame(first, registry.remove(first.workerId));
+        assertNull(registry.get(first.workerId));
+        assertFalse(registry.contains("spec-1"));
+        assertTrue(registry.getBySpecificationId("spec-1").isEmpty());
+        assertNull(registry.remove(first.workerId));
+
+        // the specification is idle again
+        assertTrue(registry.registerIfIdle(second));
+        assertEquals(2, registry.size());
+    }
+
+    @Test
+    public void testConcurrentRegisterIfIdleAndRemove() throws Exception {
+        TaskRegistry registry = new TaskRegistry();
+        int threads = 8;
+        int operationsPerThread = 5000;
+        int specifications = 16;
+        AtomicInteger[] registeredBySpecification = new AtomicInteger[specifications];
+        for (int n = 0; n < specifications; n++) {
+            registeredBySpecification[n] = new AtomicInteger();
+        }
+        AtomicInteger overlapCount = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch startSignal = new CountDownLatch(1);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                futures.add(executor.submit(() -> {
+                    startSignal.await();
+                    for (int n = 0; n < operationsPerThread; n++) {
+                        // a small set of specification ids forces contention on the specification index
+                        int specification = n % specifications;
+                        WorkManager.JobId jobId = newJobId("spec-" + specification);
+                        if (!registry.registerIfIdle(jobId)) {
+                            continue;
+                        }
+                        if (registeredBySpecification[specification].incrementAndGet() > 1) {
+                            overlapCount.incrementAndGet();
+                        }
+                        registry.attach(jobId.workerId, new CompletableFuture<>());
+                        assertEquals(List.of(jobId), registry.getBySpecificationId(jobId.specificationId));
+                        registeredBySpecification[specification].decrementAndGet();
+                        assertSame(jobId, registry.remove(jobId.workerId));
+                    }
+                    return null;
+                }));
+            }
+            startSignal.countDown();
+            for (Future<?> future : futures) {
+                future.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals(0, overlapCount.get(), "Two tasks of one specification were registered at the same time");
+        assertEquals(0, registry.size());
+        assertTrue(registry.list().isEmpty());
+        for (int n = 0; n < specifications; n++) {
+            assertFalse(registry.contains("spec-" + n));
+        }
+    }
+
+    @Test
+    public void testNoLeakedEntriesAfterSubmitCancelAndCompletion() throws Exception {
+        WorkManagerTest.FakeWorkManager workManager = new WorkManagerTest.FakeWorkManager(4, 16, false);
+        int threads = 8;
+        int submissionsPerThread = 1000;
+        int specifications = 16;
+        List<WorkManager.JobId> accepted = new ArrayList<>();
+        ExecutorService submitters = Executors.newFixedThreadPool(threads);
+        CountDownLatch startSignal = new CountDownLatch(1);
+        try {
+            List<Future<List<WorkManager.JobId>>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                futures.add(submitters.submit(() -> {
+                    startSignal.await();
+                    List<WorkManager.JobId> jobIds = new ArrayList<>();
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    for (int n = 0; n < submissionsPerThread; n++) {
+                        // submit registers the task as QUEUED, and launch moves it to RUNNING
+                        WorkManager.Submission submission = workManager.submit(WorkManagerTest.newJobId("spec-" + random.nextInt(specifications)));
+                        if (submission == null) {
+                            continue;
+                        }
+                        jobIds.add(submission.jobId);
+                        // a cancel moves a queued task to DONE, and a running task to CANCELLING and then DONE, and races
+                        // with the launch and the completion of the task
+                        if (random.nextBoolean()) {
+                            workManager.cancelAsync(submission.jobId.workerId);
+                        }
+                    }
+                    return jobIds;
+                }));
+            }
+            startSignal.countDown();
+            for (Future<List<WorkManager.JobId>> future : futures) {
+                accepted.addAll(future.get(60, TimeUnit.SECONDS));
+            }
+
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+            while ((workManager.registry.size() > 0 || !workManager.list().isEmpty()) && System.nanoTime() < deadline) {
+                LockSupport.parkNanos(1_000_000);
+            }
+
+            assertFalse(accepted.isEmpty());
+            for (WorkManager.JobId jobId : accepted) {
+                assertEquals(WorkManager.TaskStatus.DONE, jobId.status());
+            }
+            assertEquals(0, workManager.registry.size(), "Leaked tasks: " + workManager.registry.list());
+            assertTrue(workManager.registry.list().isEmpty());
+            for (int n = 0; n < specifications; n++) {
+                assertFalse(workManager.registry.contains("spec-" + n));
+                assertTrue(workManager.registry.getBySpecificationId("spec-" + n).isEmpty());
+            }
+            assertTrue(workManager.taskList.view().tasks.isEmpty(), "Leaked snapshot tasks: " + workManager.taskList.view().tasks);
+        } finally {
+            submitters.shutdownNow();
+            workManager.drain(Duration.ofSeconds(1));
+            workManager.executor.shutdownNow();
+        }
+    }
+}
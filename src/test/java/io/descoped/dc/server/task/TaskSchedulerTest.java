@@ -0,0 +1,103 @@
+package io.descoped.dc.server.task;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.ZoneOffset;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TaskSchedulerTest {
+
+    @Test
+    public void testIntervalSchedule() throws InterruptedException {
+        CountDownLatch submitted = new CountDownLatch(3);
+        TaskScheduler scheduler = new TaskScheduler(specificationId -> false, (specification, priority, weight) -> {
+            submitted.countDown();
+            return TaskSubmission.created("spec", "task");
+        }, ZoneOffset.UTC);
+        try {
+            scheduler.schedule("spec", "{}", Duration.ofMillis(20), null, Duration.ofMillis(10), TaskSchedule.Overlap.SKIP, TaskPriority.NORMAL, 1);
+            assertTrue(submitted.await(5, TimeUnit.SECONDS));
+            assertTrue(scheduler.stats().fired >= 3);
+            assertEquals(1, scheduler.list().size());
+
+            assertTrue(scheduler.unschedule("spec"));
+            assertFalse(scheduler.unschedule("spec"));
+            assertEquals(0, scheduler.list().size());
+        } finally {
+            scheduler.shutdown();
+        }
+    }
+
+    @Test
+    public void testSkipOverlappingRuns() throws InterruptedException {
+        AtomicInteger submissions = new AtomicInteger();
+        TaskScheduler scheduler = new TaskScheduler(specificationId -> true, (specification, priority, weight) -> {
+            submissions.incrementAndGet();
+            return TaskSubmission.created("spec", "task");
+        }, ZoneOffset.UTC);
+        try {
+            scheduler.schedule("spec", "{}", Duration.ofMillis(10), null, Duration.ZERO, TaskSchedule.Overlap.SKIP, TaskPriority.NORMAL, 1);
+            Thread.sleep(100);
+            assertEquals(0, submissions.get());
+            assertTrue(scheduler.stats().skipped > 0);
+            assertEquals(0, scheduler.stats().coalesced);
+        } finally {
+            scheduler.shutdown();
+        }
+    }
+
+    @Test
+    public void testCoalesceOverlappingRuns() throws InterruptedException {
+        AtomicBoolean running = new AtomicBoolean(true);
+        AtomicInteger submissions = new AtomicInteger();
+        CountDownLatch coalesced = new CountDownLatch(1);
+        TaskScheduler scheduler = new TaskScheduler(specificationId -> {
+            coalesced.countDown();
+            return running.get();
+        }, (specification, priority, weight) -> {
+            submissions.incrementAndGet();
+            return TaskSubmission.created("spec", "task");
+        }, ZoneOffset.UTC);
+        try {
+            // an interval schedule fires right away, and then not again during the test
+            scheduler.schedule("spec", "{}", Duration.ofDays(1), null, Duration.ZERO, TaskSchedule.Overlap.COALESCE, TaskPriority.NORMAL, 1);
+            assertTrue(coalesced.await(5, TimeUnit.SECONDS));
+            Thread.sleep(50);
+            assertEquals(1, scheduler.stats().coalesced);
+            assertEquals(0, submissions.get());
+
+            // the coalesced run starts when the previous run completes, and only once
+            running.set(false);
+            scheduler.onTaskFinished("spec");
+            scheduler.onTaskFinished("spec");
+            Thread.sleep(50);
+            assertEquals(1, submissions.get());
+            assertEquals(1, scheduler.stats().fired);
+        } finally {
+            scheduler.shutdown();
+        }
+    }
+
+    @Test
+    public void testInvalidSchedules() {
+        TaskScheduler scheduler = new TaskScheduler(specificationId -> false, (specification, priority, weight) -> null, ZoneOffset.UTC);
+        try {
+            assertThrows(IllegalArgumentException.class, () -> scheduler.schedule("spec", "{}", null, null, Duration.ZERO, TaskSchedule.Overlap.SKIP, TaskPriority.NORMAL, 1));
+            assertThrows(IllegalArgumentException.class, () -> scheduler.schedule("spec", "{}", Duration.ofMinutes(1), "* * * * *", Duration.ZERO, TaskSchedule.Overlap.SKIP, TaskPriority.NORMAL, 1));
+            assertThrows(IllegalArgumentException.class, () -> scheduler.schedule("spec", "{}", Duration.ZERO, null, Duration.ZERO, TaskSchedule.Overlap.SKIP, TaskPriority.NORMAL, 1));
+            assertThrows(IllegalArgumentException.class, () -> scheduler.schedule("spec", "{}", null, "* * *", Duration.ZERO, TaskSchedule.Overlap.SKIP, TaskPriority.NORMAL, 1));
+            assertEquals(0, scheduler.list().size());
+        } finally {
+            scheduler.shutdown();
+        }
+    }
+}
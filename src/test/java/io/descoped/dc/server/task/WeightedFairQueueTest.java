@@ -0,0 +1,84 @@
+package io.descoped.dc.server.task;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class WeightedFairQueueTest {
+
+    @Test
+    public void testSharesFollowClassWeights() {
+        WeightedFairQueue<TaskPriority> queue = new WeightedFairQueue<>();
+        for (int n = 0; n < 1300; n++) {
+            queue.offer(TaskPriority.HIGH, TaskPriority.HIGH, 1);
+            queue.offer(TaskPriority.NORMAL, TaskPriority.NORMAL, 1);
+            queue.offer(TaskPriority.LOW, TaskPriority.LOW, 1);
+        }
+
+        // while all classes are backlogged, 13 polls give 8 high, 4 normal and 1 low
+        Map<TaskPriority, Integer> served = new EnumMap<>(TaskPriority.class);
+        for (int n = 0; n < 1300; n++) {
+            served.merge(queue.poll(), 1, Integer::sum);
+        }
+        assertEquals(800, (int) served.get(TaskPriority.HIGH));
+        assertEquals(400, (int) served.get(TaskPriority.NORMAL));
+        assertEquals(100, (int) served.get(TaskPriority.LOW));
+        assertEquals(3900 - 1300, queue.size());
+    }
+
+    @Test
+    public void testTaskWeightScalesClassShare() {
+        WeightedFairQueue<TaskPriority> queue = new WeightedFairQueue<>();
+        for (int n = 0; n < 100; n++) {
+            queue.offer(TaskPriority.HIGH, TaskPriority.HIGH, 1);
+            // a low priority task with weight 8 costs the same as a high priority task with weight 1
+            queue.offer(TaskPriority.LOW, TaskPriority.LOW, 8);
+        }
+        Map<TaskPriority, Integer> served = new EnumMap<>(TaskPriority.class);
+        for (int n = 0; n < 100; n++) {
+            served.merge(queue.poll(), 1, Integer::sum);
+        }
+        assertEquals(50, (int) served.get(TaskPriority.HIGH));
+        assertEquals(50, (int) served.get(TaskPriority.LOW));
+    }
+
+    @Test
+    public void testIdleClassDoesNotBankCredit() {
+        WeightedFairQueue<String> queue = new WeightedFairQueue<>();
+        for (int n = 0; n < 100; n++) {
+            queue.offer("high-" + n, TaskPriority.HIGH, 1);
+        }
+        for (int n = 0; n < 100; n++) {
+            queue.poll();
+        }
+        // the low class was idle, but does not get 100 turns in a row when the high class becomes busy again
+        for (int n = 0; n < 10; n++) {
+            queue.offer("low-" + n, TaskPriority.LOW, 1);
+            queue.offer("high-" + n, TaskPriority.HIGH, 1);
+        }
+        int low = 0;
+        for (int n = 0; n < 9; n++) {
+            if (queue.poll().startsWith("low")) {
+                low++;
+            }
+        }
+        assertTrue(low <= 2, "low: " + low);
+    }
+
+    @Test
+    public void testRemoveIf() {
+        WeightedFairQueue<String> queue = new WeightedFairQueue<>();
+        queue.offer("a", TaskPriority.HIGH, 1);
+        queue.offer("b", TaskPriority.LOW, 1);
+        assertTrue(queue.removeIf("a"::equals));
+        assertEquals(1, queue.size());
+        assertEquals(0, queue.size(TaskPriority.HIGH));
+        assertEquals("b", queue.poll());
+        assertNull(queue.poll());
+    }
+}
@@ -0,0 +1,254 @@
+package io.descoped.dc.server.task;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class WorkManagerTest {
+
+    static WorkManager.JobId newJobId(String specificationId) {
+        return new WorkManager.JobId(UUID.randomUUID(), specificationId, "test", null,
+                TaskPriority.values()[ThreadLocalRandom.current().nextInt(TaskPriority.values().length)], 1);
+    }
+
+    /**
+     * Runs each task on an executor for a random short time. A terminated task returns early. Like the worker
+     * observer, a finishing task sometimes removes itself before its future completes. Held tasks run until they are
+     * terminated.
+     */
+    static class FakeWorkManager extends WorkManager {
+        final ExecutorService executor = Executors.newCachedThreadPool();
+        final Set<UUID> terminated = ConcurrentHashMap.newKeySet();
+        final Map<String, AtomicInteger> activeBySpecificationId = new ConcurrentHashMap<>();
+        final AtomicInteger overlapCount = new AtomicInteger();
+        final AtomicInteger startedCount = new AtomicInteger();
+        final boolean hold;
+
+        FakeWorkManager(int maxConcurrentWorkers, int queueCapacity, boolean hold) {
+            super(maxConcurrentWorkers, queueCapacity);
+            this.hold = hold;
+        }
+
+        @Override
+        CompletableFuture<?> runWorker(JobId jobId) {
+            startedCount.incrementAndGet();
+            return CompletableFuture.runAsync(() -> {
+                AtomicInteger active = activeBySpecificationId.computeIfAbsent(jobId.specificationId, id -> new AtomicInteger());
+                if (active.incrementAndGet() > 1) {
+                    overlapCount.incrementAndGet();
+                }
+                for (int n = 0; (hold || n < 10) && !terminated.contains(jobId.workerId); n++) {
+                    LockSupport.parkNanos(ThreadLocalRandom.current().nextLong(20_000));
+                }
+                active.decrementAndGet();
+                if (ThreadLocalRandom.current().nextBoolean()) {
+                    remove(jobId.workerId);
+                }
+            }, executor);
+        }
+
+        @Override
+        void terminateWorker(JobId jobId) {
+            terminated.add(jobId.workerId);
+        }
+    }
+
+    @Test
+    public void testLifecycleTransitions() throws Exception {
+        FakeWorkManager workManager = new FakeWorkManager(1, 1, true);
+        try {
+            WorkManager.JobId running = newJobId("spec-1");
+            WorkManager.JobId queued = newJobId("spec-2");
+            assertEquals(WorkerPool.Admission.STARTED, workManager.submit(running).admission);
+            assertEquals(WorkerPool.Admission.QUEUED, workManager.submit(queued).admission);
+            assertNull(workManager.submit(newJobId("spec-1")));
+            assertEquals(WorkManager.TaskStatus.QUEUED, queued.status());
+
+            // a cancelled queued task is completed without being started
+            assertTrue(workManager.cancel(queued.workerId));
+            assertEquals(WorkManager.TaskStatus.DONE, queued.status());
+            assertFalse(workManager.isRunning("spec-2"));
+            assertFalse(workManager.cancel(queued.workerId));
+
+            // a cancelled running task is completed when its worker finishes
+            // the worker is terminated asynchronously, so it may already be done
+            assertTrue(workManager.cancel(running.workerId));
+            assertTrue(running.status() == WorkManager.TaskStatus.CANCELLING || running.status() == WorkManager.TaskStatus.DONE);
+            CompletableFuture<?> future = CompletableFuture.runAsync(() -> {
+                while (workManager.isRunning("spec-1")) {
+                    LockSupport.parkNanos(100_000);
+                }
+            });
+            future.get(10, TimeUnit.SECONDS);
+            assertEquals(WorkManager.TaskStatus.DONE, running.status());
+            assertEquals(1, workManager.startedCount.get());
+            assertTrue(workManager.list().isEmpty());
+            assertEquals(0, workManager.poolStats().inFlight);
+        } finally {
+            workManager.executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testAsyncCancelAndDrain() throws Exception {
+        FakeWorkManager workManager = new FakeWorkManager(2, 4, true);
+        try {
+            WorkManager.JobId first = newJobId("spec-1");
+            WorkManager.JobId second = newJobId("spec-2");
+            WorkManager.JobId third = newJobId("spec-3");
+            WorkManager.JobId queued = newJobId("spec-4");
+            workManager.submit(first);
+            workManager.submit(second);
+            workManager.submit(third);
+            workManager.submit(queued);
+
+            // the handle completes when the terminated worker is done
+            Map<UUID, CompletableFuture<Void>> cancelled = workManager.cancelSpecification("spec-1");
+            assertEquals(Set.of(first.workerId), cancelled.keySet());
+            cancelled.get(first.workerId).get(10, TimeUnit.SECONDS);
+            assertEquals(WorkManager.TaskStatus.DONE, first.status());
+            assertNull(workManager.cancelAsync(first.workerId));
+            assertTrue(workManager.cancelSpecification("spec-1").isEmpty());
+
+            // the slot of the cancelled task is released to one of the queued tasks after its handle completes
+            while (workManager.startedCount.get() < 3) {
+                LockSupport.parkNanos(100_000);
+            }
+
+            // the other queued task is cancelled before it can take a released slot, and the running ones are terminated
+            assertTrue(workManager.drain(Duration.ofSeconds(10)));
+            for (WorkManager.JobId jobId : List.of(second, third, queued)) {
+                assertEquals(WorkManager.TaskStatus.DONE, jobId.status());
+            }
+            assertEquals(3, workManager.startedCount.get());
+            assertTrue(workManager.list().isEmpty());
+        } finally {
+            workManager.executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testResourcesAreReleasedWhenWorkerFails() throws Exception {
+        ContentBudget contentBudget = new ContentBudget(1024, 512, Duration.ofMillis(10));
+        WorkManager workManager = new WorkManager(1, 1) {
+            @Override
+            CompletableFuture<?> runWorker(JobId jobId) {
+                // the worker fails with unpublished documents, and neither its observer nor its content store is told
+                return CompletableFuture.runAsync(() -> {
+                    jobId.contentBudget.beforeBuffer("topic", "1", 100);
+                    jobId.contentBudget.beforeBuffer("topic", "2", 200);
+                    throw new IllegalStateException("Worker failed");
+                });
+            }
+        };
+        try {
+            WorkManager.JobId jobId = new WorkManager.JobId(UUID.randomUUID(), "spec-1", "test", null, TaskPriority.NORMAL, 1, null,
+                    null, contentBudget.tracker());
+            workManager.submit(jobId);
+            CompletableFuture.runAsync(() -> {
+                while (workManager.isRunning("spec-1")) {
+                    LockSupport.parkNanos(100_000);
+                }
+            }).get(10, TimeUnit.SECONDS);
+            assertEquals(0, contentBudget.usedBytes());
+            assertTrue(contentBudget.stats().usedBytesByTopic.isEmpty());
+        } finally {
+            workManager.drain(Duration.ofSeconds(1));
+        }
+    }
+
+    @Test
+    public void testConcurrentSubmitCancelAndFinish() throws Exception {
+        FakeWorkManager workManager = new FakeWorkManager(4, 8, false);
+        int threads = 8;
+        int submissionsPerThread = 2000;
+        int specifications = 16;
+        ExecutorService submitters = Executors.newFixedThreadPool(threads + 1);
+        CountDownLatch startSignal = new CountDownLatch(1);
+        AtomicBoolean submitting = new AtomicBoolean(true);
+        AtomicInteger acceptedCount = new AtomicInteger();
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                futures.add(submitters.submit(() -> {
+                    startSignal.await();
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    for (int n = 0; n < submissionsPerThread; n++) {
+                        WorkManager.Submission submission = workManager.submit(newJobId("spec-" + random.nextInt(specifications)));
+                        if (submission != null && submission.admission != WorkerPool.Admission.REJECTED) {
+                            acceptedCount.incrementAndGet();
+                            if (random.nextInt(3) == 0) {
+                                workManager.cancel(submission.jobId.workerId);
+                            }
+                        }
+                    }
+                    return null;
+                }));
+            }
+            // cancels whatever is listed, so cancel also races with launch and completion of other threads' tasks
+            Future<?> canceller = submitters.submit(() -> {
+                startSignal.await();
+                while (submitting.get()) {
+                    for (WorkManager.Task task : workManager.list()) {
+                        if (ThreadLocalRandom.current().nextInt(4) == 0) {
+                            workManager.cancel(UUID.fromString(task.taskId));
+                        }
+                    }
+                    Thread.yield();
+                }
+                return null;
+            });
+            startSignal.countDown();
+            for (Future<?> future : futures) {
+                future.get(60, TimeUnit.SECONDS);
+            }
+            submitting.set(false);
+            canceller.get(10, TimeUnit.SECONDS);
+
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+            while (!workManager.list().isEmpty() && System.nanoTime() < deadline) {
+                LockSupport.parkNanos(1_000_000);
+            }
+            // wait for the last slot to be released after its task was completed
+            while (workManager.poolStats().inFlight > 0 && System.nanoTime() < deadline) {
+                LockSupport.parkNanos(1_000_000);
+            }
+
+            assertTrue(acceptedCount.get() > 0);
+            assertEquals(0, workManager.overlapCount.get(), "Two tasks of one specification ran at the same time");
+            assertTrue(workManager.list().isEmpty(), "Leaked tasks: " + workManager.list());
+            for (int n = 0; n < specifications; n++) {
+                assertFalse(workManager.isRunning("spec-" + n));
+            }
+            WorkerPool.Stats stats = workManager.poolStats();
+            assertEquals(0, stats.inFlight);
+            assertEquals(0, stats.queueDepth);
+            assertNotNull(workManager.submit(newJobId("spec-0")));
+        } finally {
+            submitters.shutdownNow();
+            workManager.executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package io.descoped.dc.server.task;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class WorkerPoolTest {
+
+    static WorkManager.JobId newJobId() {
+        return new WorkManager.JobId(UUID.randomUUID(), UUID.randomUUID().toString(), "test", null);
+    }
+
+    static WorkManager.JobId newJobId(TaskPriority priority) {
+        return new WorkManager.JobId(UUID.randomUUID(), UUID.randomUUID().toString(), "test", null, priority, 1);
+    }
+
+    @Test
+    public void testAdmissionControl() {
+        List<WorkManager.JobId> launched = new CopyOnWriteArrayList<>();
+        WorkerPool pool = new WorkerPool(2, 1, launched::add);
+
+        WorkManager.JobId first = newJobId();
+        WorkManager.JobId second = newJobId();
+        WorkManager.JobId third = newJobId();
+        WorkManager.JobId fourth = newJobId();
+
+        assertEquals(WorkerPool.Admission.STARTED, pool.submit(first));
+        assertEquals(WorkerPool.Admission.STARTED, pool.submit(second));
+        assertEquals(WorkerPool.Admission.QUEUED, pool.submit(third));
+        assertEquals(WorkerPool.Admission.REJECTED, pool.submit(fourth));
+        assertEquals(List.of(first, second), launched);
+        assertEquals(2, pool.inFlight());
+        assertEquals(1, pool.queueDepth());
+
+        // releasing a slot launches the queued worker and keeps in-flight at max
+        pool.release();
+        assertEquals(List.of(first, second, third), launched);
+        assertEquals(2, pool.inFlight());
+        assertEquals(0, pool.queueDepth());
+
+        pool.release();
+        pool.release();
+        assertEquals(0, pool.inFlight());
+
+        WorkerPool.Stats stats = pool.stats();
+        assertEquals(4, stats.submitted);
+        assertEquals(3, stats.started);
+        assertEquals(1, stats.queued);
+        assertEquals(1, stats.rejected);
+    }
+
+    @Test
+    public void testCancelQueued() {
+        List<WorkManager.JobId> launched = new CopyOnWriteArrayList<>();
+        WorkerPool pool = new WorkerPool(1, 10, launched::add);
+
+        WorkManager.JobId running = newJobId();
+        WorkManager.JobId queued = newJobId();
+        pool.submit(running);
+        pool.submit(queued);
+
+        assertFalse(pool.cancelQueued(running));
+        assertTrue(pool.cancelQueued(queued));
+
+        pool.release();
+        assertEquals(List.of(running), launched);
+        assertEquals(0, pool.inFlight());
+    }
+
+    @Test
+    public void testPriorityScheduling() {
+        List<WorkManager.JobId> launched = new CopyOnWriteArrayList<>();
+        WorkerPool pool = new WorkerPool(1, 10, launched::add);
+
+        WorkManager.JobId running = newJobId(TaskPriority.LOW);
+        WorkManager.JobId backfill = newJobId(TaskPriority.LOW);
+        WorkManager.JobId incremental = newJobId(TaskPriority.HIGH);
+        pool.submit(running);
+        pool.submit(backfill);
+        pool.submit(incremental);
+        assertEquals(1, pool.queueDepth(TaskPriority.HIGH));
+
+        // the high priority task was queued last, but is started first
+        pool.release();
+        pool.release();
+        pool.release();
+        assertEquals(List.of(running, incremental, backfill), launched);
+
+        WorkerPool.Stats stats = pool.stats();
+        assertEquals(1, stats.priorityClasses.get(TaskPriority.HIGH).dequeued);
+        assertEquals(1, stats.priorityClasses.get(TaskPriority.LOW).dequeued);
+        assertEquals(0, stats.priorityClasses.get(TaskPriority.NORMAL).queued);
+    }
+}
@@ -0,0 +1,54 @@
+package io.descoped.dc.server.task;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class WorkerResourcesTest {
+
+    @Test
+    public void testThreadUsageIsChargedToTheWorkerOfEachCall() {
+        TaskProfilerTest.FakeCounters counters = new TaskProfilerTest.FakeCounters();
+        WorkerResources resources = new WorkerResources(counters);
+        WorkerResources.Tracker first = resources.tracker("spec-1");
+        WorkerResources.Tracker second = resources.tracker("spec-2");
+
+        // the usage before the first call of the thread is unknown
+        counters.advance(0, 5_000_000, 1000);
+        first.beforeCall("bufferDocument", "topic");
+        counters.advance(0, 2_000_000, 100);
+        first.afterCall("bufferDocument", "topic");
+        assertEquals(2_000_000, first.cpuNanos());
+        assertEquals(100, first.allocatedBytes());
+
+        // the thread is reused by another worker
+        counters.advance(0, 3_000_000, 300);
+        second.beforeCall("publish", "topic");
+        assertEquals(3_000_000, second.cpuNanos());
+        assertEquals(300, second.allocatedBytes());
+        assertEquals(2_000_000, first.cpuNanos());
+
+        WorkerResources.Stats stats = resources.stats();
+        assertEquals(1, stats.bySpecification.get("spec-1").tasks);
+        assertEquals(2, stats.bySpecification.get("spec-1").cpuMillis);
+        assertEquals(300, stats.bySpecification.get("spec-2").allocatedBytes);
+    }
+
+    @Test
+    public void testFinishedWorkersAreSummedPerSpecification() {
+        TaskProfilerTest.FakeCounters counters = new TaskProfilerTest.FakeCounters();
+        WorkerResources resources = new WorkerResources(counters);
+        for (int n = 0; n < 3; n++) {
+            WorkerResources.Tracker tracker = resources.tracker("spec-1");
+            tracker.beforeCall("bufferDocument", "topic");
+            counters.advance(0, 1_000_000, 10);
+            tracker.afterCall("bufferDocument", "topic");
+            tracker.release();
+            tracker.release();
+        }
+        WorkerResources.SpecificationUsage usage = resources.stats().bySpecification.get("spec-1");
+        assertEquals(3, usage.tasks);
+        assertEquals(3, usage.cpuMillis);
+        assertEquals(30, usage.allocatedBytes);
+    }
+}
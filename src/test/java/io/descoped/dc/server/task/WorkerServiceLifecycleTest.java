@@ -201,9 +201,9 @@ public class WorkerServiceLifecycleTest {
                     throw new RuntimeException("WorkerObserver.finish was not called! The worker has not been completed.");
                 }
                 TimeUnit.MILLISECONDS.sleep(250);
-                LOG.trace("{}: Running... ON_START_BEFORE_TRY_LOCK: {}, ON_FINISH_AFTER_UNLOCK: {}", task.index,
-                        lifecycleCounter.get(WorkerLifecycleCallback.Kind.ON_START_BEFORE_TRY_LOCK).get(),
-                        lifecycleCounter.get(WorkerLifecycleCallback.Kind.ON_FINISH_AFTER_UNLOCK).get()
+                LOG.trace("{}: Running... ON_START_BEGIN: {}, ON_FINISH_END: {}", task.index,
+                        lifecycleCounter.get(WorkerLifecycleCallback.Kind.ON_START_BEGIN).get(),
+                        lifecycleCounter.get(WorkerLifecycleCallback.Kind.ON_FINISH_END).get()
                 );
                 n++;
             }
@@ -0,0 +1,164 @@
+package io.descoped.dc.server.task;
+
+import io.descoped.config.DynamicConfiguration;
+import io.descoped.config.StoreBasedDynamicConfiguration;
+import io.descoped.dc.api.util.CommonUtils;
+import io.descoped.dc.application.health.HealthResourceFactory;
+import io.descoped.dc.application.metrics.MetricsResourceFactory;
+import io.descoped.dc.server.content.ContentStoreComponent;
+import io.descoped.dc.server.replay.HttpArchive;
+import io.descoped.dc.server.replay.RecordingProxy;
+import io.descoped.dc.server.replay.ReplayServer;
+import io.descoped.dc.test.server.TestServer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Runs a specification through the whole {@link WorkerService} to content store path against recorded upstream
+ * responses, so each run gets identical input.
+ * <p>
+ * By default the page-test.json specification is recorded once per trial against the mock API of the {@link TestServer}
+ * through a {@link RecordingProxy}, and the test server is stopped before the measurement. Set the system properties
+ * replay.archive and replay.specification to benchmark a recording of a real upstream instead. The specification is
+ * read like page-test.json: PORT is replaced by the port of the {@link ReplayServer}. Each invocation runs the
+ * specification until the recording is exhausted, at the recorded latency divided by the speed.
+ * <p>
+ * Run from the IDE using {@link #main(String[])}, or with the JMH runner on the test classpath.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class WorkerServiceReplayBenchmark {
+
+    static final DynamicConfiguration configuration = new StoreBasedDynamicConfiguration.Builder()
+            .values("content.stream.connector", "rawdata")
+            .values("rawdata.client.provider", "memory")
+            .build();
+
+    @Param({"0", "1"})
+    double speed;
+
+    @Param({"10"})
+    int recordSeconds;
+
+    HttpArchive archive;
+    String specification;
+    ReplayServer replayServer;
+    WorkerService workerService;
+    final AtomicReference<CountDownLatch> finished = new AtomicReference<>();
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, InterruptedException {
+        String archiveFile = System.getProperty("replay.archive");
+        if (archiveFile != null) {
+            archive = HttpArchive.read(Path.of(archiveFile));
+            specification = Files.readString(Path.of(System.getProperty("replay.specification")));
+        } else {
+            archive = new HttpArchive();
+            specification = CommonUtils.readFileOrClasspathResource("worker.config/page-test.json");
+            record();
+        }
+        replayServer = ReplayServer.start(archive, speed);
+    }
+
+    // the mock API pages on forever, so the recording is cancelled after recordSeconds
+    void record() throws InterruptedException {
+        TestServer testServer = TestServer.create(configuration);
+        testServer.start();
+        startWorkerService();
+        try (RecordingProxy proxy = RecordingProxy.start(URI.create("http://localhost:" + testServer.getTestServerServicePort()), archive, null)) {
+            String taskId = submitTask(proxy.port());
+            if (!finished.get().await(recordSeconds, TimeUnit.SECONDS)) {
+                workerService.cancelTask(taskId);
+                awaitTask(taskId);
+            }
+        } finally {
+            workerService.stop();
+            testServer.stop();
+        }
+        if (archive.size() == 0) {
+            throw new IllegalStateException("Nothing was recorded");
+        }
+    }
+
+    // a new worker service with an empty in-memory content store, so every run starts from the initial position
+    void startWorkerService() {
+        workerService = new WorkerService(configuration, MetricsResourceFactory.create(), HealthResourceFactory.create(),
+                null, ContentStoreComponent.create(configuration), false, callback -> {
+            if (callback.kind == WorkerLifecycleCallback.Kind.ON_FINISH_AFTER_REMOVE_WORKER) {
+                finished.get().countDown();
+            }
+        });
+    }
+
+    String submitTask(int port) {
+        finished.set(new CountDownLatch(1));
+        TaskSubmission submission = workerService.submitTask(specification.replace("PORT", Integer.toString(port)), TaskPriority.NORMAL, 1);
+        if (!submission.isAccepted()) {
+            throw new IllegalStateException("Task was not accepted: " + submission.status);
+        }
+        return submission.taskId;
+    }
+
+    void awaitTask(String taskId) throws InterruptedException {
+        if (!finished.get().await(10, TimeUnit.MINUTES)) {
+            throw new IllegalStateException("Task did not finish: " + taskId);
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void setUpInvocation() {
+        replayServer.reset();
+        startWorkerService();
+    }
+
+    @TearDown(Level.Invocation)
+    public void tearDownInvocation() {
+        workerService.stop();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        replayServer.close();
+    }
+
+    @Benchmark
+    public long replay() throws InterruptedException {
+        awaitTask(submitTask(replayServer.port()));
+        return replayServer.served();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(WorkerServiceReplayBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build()
+        ).run();
+    }
+}